@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.benchmarks;
+
+import com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer;
+import com.jpetrak.gate.stringannotation.utils.TextChunk;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import gate.Utils;
+import gate.creole.ExecutionException;
+import gate.util.GateException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for ExtendedGazetteer.doAnnotateChunk on a synthetic document
+ * which consists of Token and SpaceToken annotations, where about every 
+ * fifth token starts a gazetteer entry. 
+ * 
+ * The chunk is created once, the annotations created by the gazetteer are
+ * removed after each invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class AnnotateChunkBenchmark {
+  
+  private static final String OUTPUT_SET = "BenchmarkOut";
+  
+  @Param({BenchmarkData.SYNTHETIC})
+  public String dataset;
+  
+  @Param({"20000"})
+  public int nrTokens;
+  
+  @Param({"true"})
+  public boolean longestMatchOnly;
+  
+  private Document document;
+  private TextChunk chunk;
+  private BenchmarkGazetteer gazetteer;
+  
+  /**
+   * Gives the benchmark access to the gaz store and output set of the PR,
+   * so it can be used without going through init and execute.
+   */
+  public static class BenchmarkGazetteer extends ExtendedGazetteer {
+    private static final long serialVersionUID = 1L;
+    void setup(BenchmarkData data, AnnotationSet outputSet) {
+      gazStore = data.buildGazStore();
+      gazStore.compact();
+      outputAS = outputSet;
+    }
+  }
+  
+  @Setup(Level.Trial)
+  public void setup() throws IOException, GateException {
+    if(!Gate.isInitialised()) {
+      Gate.runInSandbox(true);
+      Gate.init();
+    }
+    BenchmarkData data = BenchmarkData.load(dataset);
+    Random rnd = new Random(42);
+    StringBuilder text = new StringBuilder();
+    for(int i = 0; i < nrTokens; ) {
+      String words;
+      if(rnd.nextInt(5) == 0) {
+        words = data.entries.get(rnd.nextInt(data.entries.size()));
+      } else {
+        words = "w" + rnd.nextInt(1000);
+      }
+      for(String word : words.split(" ")) {
+        if(text.length() > 0) {
+          text.append(' ');
+        }
+        text.append(word);
+        i++;
+      }
+    }
+    document = Factory.newDocument(text.toString());
+    AnnotationSet inputAS = document.getAnnotations();
+    int start = 0;
+    String content = text.toString();
+    while(start < content.length()) {
+      int end = content.indexOf(' ', start);
+      if(end < 0) {
+        end = content.length();
+      }
+      Utils.addAnn(inputAS, start, end, "Token", Factory.newFeatureMap());
+      if(end < content.length()) {
+        Utils.addAnn(inputAS, end, end+1, "SpaceToken", Factory.newFeatureMap());
+      }
+      start = end + 1;
+    }
+    gazetteer = new BenchmarkGazetteer();
+    gazetteer.setCaseSensitive(true);
+    gazetteer.setWordAnnotationType("Token");
+    gazetteer.setSpaceAnnotationType("SpaceToken");
+    gazetteer.setTextFeature("");
+    gazetteer.setOutputAnnotationType("");
+    gazetteer.setMatchAtWordStartOnly(true);
+    gazetteer.setMatchAtWordEndOnly(true);
+    gazetteer.setLongestMatchOnly(longestMatchOnly);
+    gazetteer.setDocument(document);
+    gazetteer.setup(data, document.getAnnotations(OUTPUT_SET));
+    Set<String> types = new HashSet<>();
+    types.add("Token");
+    types.add("SpaceToken");
+    chunk = TextChunk.makeChunk(document, 0, content.length(), false, 
+            inputAS.get(types), "Token", "", "SpaceToken", true, true);
+  }
+  
+  @TearDown(Level.Invocation)
+  public void removeAnnotations() {
+    document.getAnnotations(OUTPUT_SET).clear();
+  }
+  
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Factory.deleteResource(document);
+  }
+  
+  @Benchmark
+  public int doAnnotateChunk() throws ExecutionException {
+    gazetteer.doAnnotateChunk(chunk);
+    return document.getAnnotations(OUTPUT_SET).size();
+  }
+}
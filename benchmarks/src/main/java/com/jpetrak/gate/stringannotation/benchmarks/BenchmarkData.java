@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.benchmarks;
+
+import com.jpetrak.gate.stringannotation.extendedgazetteer.GazStoreType;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreDawg;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreDoubleArray;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreTrie3;
+import gate.Factory;
+import gate.FeatureMap;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The gazetteer entries used by the benchmarks. 
+ * 
+ * Two datasets are available: "synthetic", which is generated from a fixed 
+ * random seed and always available, and "pref_en_500K", which is read from 
+ * the list file tests/pref_en_500K.lst.gz of the plugin. The directory where the
+ * list file is looked for can be changed with the system property 
+ * stringannotation.benchmarks.testsDir.
+ */
+public class BenchmarkData {
+  
+  public static final String SYNTHETIC = "synthetic";
+  public static final String PREF_EN_500K = "pref_en_500K";
+  
+  private static final int SYNTHETIC_ENTRIES = 500000;
+  private static final long SEED = 4711L;
+  
+  /** The entries, without features */
+  public final List<String> entries;
+  /** The features for each entry, as alternating keys and values */
+  public final List<String[]> features;
+  
+  private BenchmarkData(List<String> entries, List<String[]> features) {
+    this.entries = entries;
+    this.features = features;
+  }
+  
+  public static BenchmarkData load(String dataset) throws IOException {
+    if(SYNTHETIC.equals(dataset)) {
+      return synthetic();
+    } else if(PREF_EN_500K.equals(dataset)) {
+      File testsDir = new File(System.getProperty("stringannotation.benchmarks.testsDir", "../tests"));
+      return fromListFile(new File(testsDir, "pref_en_500K.lst.gz"));
+    } else {
+      throw new IllegalArgumentException("Unknown dataset: "+dataset);
+    }
+  }
+  
+  // Multi-word entries made from a vocabulary with a skewed distribution,
+  // so that entries share prefixes like in real gazetteer lists
+  private static BenchmarkData synthetic() {
+    Random rnd = new Random(SEED);
+    String[] vocab = new String[20000];
+    for(int i = 0; i < vocab.length; i++) {
+      int len = 2 + rnd.nextInt(9);
+      char[] chars = new char[len];
+      for(int j = 0; j < len; j++) {
+        chars[j] = (char)('a' + rnd.nextInt(26));
+      }
+      vocab[i] = new String(chars);
+    }
+    List<String> entries = new ArrayList<>(SYNTHETIC_ENTRIES);
+    List<String[]> features = new ArrayList<>(SYNTHETIC_ENTRIES);
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < SYNTHETIC_ENTRIES; i++) {
+      sb.setLength(0);
+      int words = 1 + rnd.nextInt(3);
+      for(int w = 0; w < words; w++) {
+        if(w > 0) {
+          sb.append(' ');
+        }
+        // squaring favours the words at the start of the vocabulary
+        double r = rnd.nextDouble();
+        sb.append(vocab[(int)(r * r * vocab.length)]);
+      }
+      entries.add(sb.toString());
+      if(i % 4 == 0) {
+        features.add(new String[0]);
+      } else {
+        features.add(new String[]{"id", "e"+i, "kind", "k"+(i%7)});
+      }
+    }
+    return new BenchmarkData(entries, features);
+  }
+  
+  // Read a list file in the usual format: the entry, optionally followed by 
+  // tab separated key=value features.
+  private static BenchmarkData fromListFile(File listFile) throws IOException {
+    if(!listFile.exists()) {
+      throw new IOException("List file for the benchmark does not exist: "+listFile.getAbsolutePath());
+    }
+    List<String> entries = new ArrayList<>();
+    List<String[]> features = new ArrayList<>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(new FileInputStream(listFile)), "UTF-8"))) {
+      String line;
+      while((line = in.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if(fields[0].trim().isEmpty()) {
+          continue;
+        }
+        entries.add(fields[0].trim());
+        List<String> kvs = new ArrayList<>();
+        for(int i = 1; i < fields.length; i++) {
+          int eq = fields[i].indexOf('=');
+          if(eq > 0) {
+            kvs.add(fields[i].substring(0, eq));
+            kvs.add(fields[i].substring(eq+1));
+          }
+        }
+        features.add(kvs.toArray(new String[kvs.size()]));
+      }
+    }
+    return new BenchmarkData(entries, features);
+  }
+  
+  /**
+   * Create a gaz store which contains all the entries, not compacted.
+   * 
+   * @return the gaz store
+   */
+  public GazStoreTrie3 buildGazStore() {
+    return buildGazStore(GazStoreType.Trie);
+  }
+  
+  /**
+   * Create an uncompacted gaz store of the given type from the entries.
+   * 
+   * @param type the gaz store implementation
+   * @return the gaz store
+   */
+  public GazStoreTrie3 buildGazStore(GazStoreType type) {
+    GazStoreTrie3 gs;
+    if(type == GazStoreType.DoubleArray) {
+      gs = new GazStoreDoubleArray();
+    } else if(type == GazStoreType.Dawg) {
+      gs = new GazStoreDawg();
+    } else {
+      gs = new GazStoreTrie3();
+    }
+    FeatureMap fm = Factory.newFeatureMap();
+    fm.put("majorType", "bench");
+    int info = gs.addListInfo("Lookup", "bench", fm);
+    for(int i = 0; i < entries.size(); i++) {
+      gs.addLookup(entries.get(i), info, features.get(i));
+    }
+    return gs;
+  }
+  
+  /**
+   * Return probe strings for matching: every second one is an entry, the others 
+   * are entries with a changed last character which mostly do not match.
+   * 
+   * @param n the number of probes
+   * @return the probes
+   */
+  public String[] probes(int n) {
+    Random rnd = new Random(SEED);
+    String[] probes = new String[n];
+    for(int i = 0; i < n; i++) {
+      String entry = entries.get(rnd.nextInt(entries.size()));
+      if(i % 2 == 1) {
+        entry = entry.substring(0, entry.length()-1) + '#';
+      }
+      probes[i] = entry;
+    }
+    return probes;
+  }
+}
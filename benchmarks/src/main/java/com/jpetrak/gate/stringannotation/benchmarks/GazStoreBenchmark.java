@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.benchmarks;
+
+import com.jpetrak.gate.stringannotation.extendedgazetteer.GazStore;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreTrie3;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for creating, compacting, saving and loading a GazStoreTrie3.
+ * 
+ * Each of these operations processes the whole dataset, so they are measured
+ * as single shot times. 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class GazStoreBenchmark {
+  
+  @Param({BenchmarkData.SYNTHETIC})
+  public String dataset;
+  
+  private BenchmarkData data;
+  private GazStoreTrie3 uncompacted;
+  private GazStoreTrie3 compacted;
+  private File saveFile;
+  private URL loadURL;
+  
+  @Setup(Level.Trial)
+  public void setupTrial() throws IOException {
+    data = BenchmarkData.load(dataset);
+    compacted = data.buildGazStore();
+    compacted.compact();
+    File loadFile = File.createTempFile("gazstorebenchmark", ".gazbin");
+    loadFile.deleteOnExit();
+    compacted.save(loadFile);
+    loadURL = loadFile.toURI().toURL();
+    saveFile = File.createTempFile("gazstorebenchmark-save", ".gazbin");
+    saveFile.deleteOnExit();
+  }
+  
+  // compact changes the gaz store, so every invocation needs a new one
+  @Setup(Level.Invocation)
+  public void setupInvocation() {
+    uncompacted = data.buildGazStore();
+  }
+  
+  @TearDown(Level.Invocation)
+  public void tearDownInvocation() {
+    uncompacted = null;
+  }
+  
+  /**
+   * Add all the entries to a new gaz store.
+   * 
+   * @return the gaz store
+   */
+  @Benchmark
+  public GazStore addLookup() {
+    return data.buildGazStore();
+  }
+  
+  @Benchmark
+  public GazStore compact() {
+    uncompacted.compact();
+    return uncompacted;
+  }
+  
+  @Benchmark
+  public long save() throws IOException {
+    compacted.save(saveFile);
+    return saveFile.length();
+  }
+  
+  @Benchmark
+  public GazStore load() throws IOException {
+    return GazStoreTrie3.load(loadURL);
+  }
+}
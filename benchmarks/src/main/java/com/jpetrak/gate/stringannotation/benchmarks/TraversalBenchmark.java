@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.benchmarks;
+
+import com.jpetrak.gate.stringannotation.extendedgazetteer.GazStoreType;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.State;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreTrie3;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for walking the compacted trie character by character, the 
+ * inner loop of the gazetteer. Results are per probe string: half of the
+ * probes are entries, the other half fail at the last character.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class TraversalBenchmark {
+  
+  private static final int NR_PROBES = 10000;
+  
+  @Param({BenchmarkData.SYNTHETIC})
+  public String dataset;
+  
+  // the minimum number of transitions for a node to get a dense table, 0 for none
+  @Param({"0", "32"})
+  public int denseThreshold;
+  
+  @Param({"Trie", "DoubleArray", "Dawg"})
+  public GazStoreType gazStoreType;
+  
+  private GazStoreTrie3 gazStore;
+  private String[] probes;
+  
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkData data = BenchmarkData.load(dataset);
+    gazStore = data.buildGazStore(gazStoreType);
+    gazStore.compact(denseThreshold);
+    probes = data.probes(NR_PROBES);
+  }
+  
+  /**
+   * Traversal with the State objects.
+   * 
+   * @param bh 
+   */
+  @Benchmark
+  @OperationsPerInvocation(NR_PROBES)
+  public void stateNext(Blackhole bh) {
+    for(String probe : probes) {
+      State state = gazStore.getInitialState();
+      for(int i = 0; state != null && i < probe.length(); i++) {
+        state = state.next(probe.charAt(i));
+      }
+      bh.consume(state != null && state.isFinal());
+    }
+  }
+  
+  /**
+   * Traversal with the int state indices.
+   * 
+   * @param bh 
+   */
+  @Benchmark
+  @OperationsPerInvocation(NR_PROBES)
+  public void intNextState(Blackhole bh) {
+    int initial = gazStore.getInitialStateIndex();
+    for(String probe : probes) {
+      int state = initial;
+      for(int i = 0; state >= 0 && i < probe.length(); i++) {
+        state = gazStore.nextState(state, probe.charAt(i));
+      }
+      bh.consume(state >= 0 && gazStore.isFinal(state));
+    }
+  }
+}
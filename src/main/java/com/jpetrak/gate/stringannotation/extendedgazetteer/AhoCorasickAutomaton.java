@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.extendedgazetteer;
+
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.log4j.Logger;
+
+/**
+ * An Aho-Corasick automaton created from the states of a compacted GazStore.
+ * <p>
+ * This makes it possible to find all entries that occur anywhere in a text 
+ * in a single left-to-right pass, without restarting the match at each 
+ * position after a failure. The nodes of the automaton correspond to the 
+ * states of the gaz store and are numbered in breadth-first order, so the 
+ * children of a node have consecutive numbers. Node 0 is the initial state.
+ * <p>
+ * The automaton is immutable once created and can be shared between threads.
+ */
+public class AhoCorasickAutomaton {
+  
+  // for each node, the state in the gaz store
+  private final int[] states;
+  // for each node, the node number of its first child: the children of node n
+  // are the nodes firstChild[n] to firstChild[n+1]-1
+  private final int[] firstChild;
+  // for each node, the character of the transition from its parent 
+  private final char[] chars;
+  // for each node, the number of characters from the initial state
+  private final int[] depth;
+  // for each node, the node for the longest proper suffix that is in the trie
+  private final int[] failure;
+  // for each node, the node for the longest proper suffix that is final, or -1
+  private final int[] output;
+  private final boolean[] isFinal;
+  
+  public AhoCorasickAutomaton(GazStore gazStore) {
+    long start = System.currentTimeMillis();
+    IntArrayList stateList = new IntArrayList();
+    IntArrayList firstChildList = new IntArrayList();
+    CharArrayList charList = new CharArrayList();
+    IntArrayList depthList = new IntArrayList();
+    CharArrayList transitionChars = new CharArrayList();
+    IntArrayList transitionStates = new IntArrayList();
+    stateList.add(gazStore.getInitialStateIndex());
+    charList.add((char)0);
+    depthList.add(0);
+    // visit the states breadth-first, the list of states is also the queue
+    for(int node = 0; node < stateList.size(); node++) {
+      firstChildList.add(stateList.size());
+      transitionChars.clear();
+      transitionStates.clear();
+      int n = gazStore.addTransitions(stateList.getInt(node), transitionChars, transitionStates);
+      int childDepth = depthList.getInt(node) + 1;
+      for(int i = 0; i < n; i++) {
+        stateList.add(transitionStates.getInt(i));
+        charList.add(transitionChars.getChar(i));
+        depthList.add(childDepth);
+      }
+    }
+    firstChildList.add(stateList.size());
+    states = stateList.toIntArray();
+    firstChild = firstChildList.toIntArray();
+    chars = charList.toCharArray();
+    depth = depthList.toIntArray();
+    int nrNodes = states.length;
+    isFinal = new boolean[nrNodes];
+    for(int node = 0; node < nrNodes; node++) {
+      isFinal[node] = gazStore.isFinal(states[node]);
+    }
+    // the failure and output links of a node only depend on nodes with a 
+    // smaller depth, so they can be calculated in breadth-first order
+    failure = new int[nrNodes];
+    output = new int[nrNodes];
+    output[0] = -1;
+    for(int node = 0; node < nrNodes; node++) {
+      for(int child = firstChild[node]; child < firstChild[node+1]; child++) {
+        int fail = 0;
+        if(node != 0) {
+          int suffix = failure[node];
+          while(true) {
+            int next = child(suffix, chars[child]);
+            if(next >= 0) {
+              fail = next;
+              break;
+            }
+            if(suffix == 0) {
+              break;
+            }
+            suffix = failure[suffix];
+          }
+        }
+        failure[child] = fail;
+        output[child] = isFinal[fail] ? fail : output[fail];
+      }
+    }
+    long end = System.currentTimeMillis();
+    Logger.getLogger(this.getClass().getName()).info("Aho-Corasick automaton with "+
+            nrNodes+" nodes created in (secs): "+((end-start)/1000.0));
+  }
+  
+  /**
+   * Return the node reached from the given node for the given character,
+   * following failure links if necessary. If no entry continues with the
+   * character, the initial node 0 is returned.
+   * 
+   * @param node
+   * @param chr
+   * @return the next node
+   */
+  public int next(int node, char chr) {
+    while(true) {
+      int next = child(node, chr);
+      if(next >= 0) {
+        return next;
+      }
+      if(node == 0) {
+        return 0;
+      }
+      node = failure[node];
+    }
+  }
+  
+  /**
+   * Return the node for the longest entry that ends at the given node, or -1
+   * if there is none. Further entries that end at the given node can be found 
+   * with nextMatch.
+   * 
+   * @param node
+   * @return a final node or -1
+   */
+  public int firstMatch(int node) {
+    return isFinal[node] ? node : output[node];
+  }
+  
+  /**
+   * Return the node for the next shorter entry that is a suffix of the entry
+   * for the given final node, or -1 if there is none.
+   * 
+   * @param matchNode
+   * @return a final node or -1
+   */
+  public int nextMatch(int matchNode) {
+    return output[matchNode];
+  }
+  
+  /**
+   * Return the state in the gaz store for the node.
+   * 
+   * @param node
+   * @return the state
+   */
+  public int getState(int node) {
+    return states[node];
+  }
+  
+  /**
+   * Return the length of the entry that ends at the node.
+   * 
+   * @param node
+   * @return the number of characters
+   */
+  public int getDepth(int node) {
+    return depth[node];
+  }
+  
+  public int getNrNodes() {
+    return states.length;
+  }
+  
+  // return the child of the node for the character, or -1
+  private int child(int node, char chr) {
+    int low = firstChild[node];
+    int high = firstChild[node+1] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midVal = chars[mid];
+      if (midVal < chr) {
+        low = mid + 1;
+      } else if (midVal > chr) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+  
+}
@@ -26,6 +26,7 @@
  */
 package com.jpetrak.gate.stringannotation.extendedgazetteer;
 
+import com.jpetrak.gate.stringannotation.utils.SortedAnnotations;
 import com.jpetrak.gate.stringannotation.utils.TextChunk;
 import gate.Annotation;
 import gate.AnnotationSet;
@@ -42,11 +43,16 @@ import gate.creole.metadata.Optional;
 import gate.creole.metadata.RunTime;
 import gate.util.GateRuntimeException;
 import gate.util.InvalidOffsetException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.log4j.Logger;
 
@@ -224,12 +230,125 @@ public class ExtendedGazetteer extends GazetteerBase {
   }
   private boolean longestMatchOnly;
 
+  @CreoleParameter(comment = "Collect the matches of each chunk first and create all annotations in one pass, with less allocation per match",
+          defaultValue = "false")
+  @RunTime
+  @Optional
+  public void setBulkAnnotations(Boolean yesno) {
+    bulkAnnotations = yesno;
+  }
+
+  public Boolean getBulkAnnotations() {
+    return bulkAnnotations;
+  }
+  private boolean bulkAnnotations = false;
+
+  @CreoleParameter(comment = "Find all matches in a single pass with an Aho-Corasick automaton instead of re-starting at each position, useful if matchAtWordStartOnly is false",
+          defaultValue = "false")
+  @RunTime
+  @Optional
+  public void setAhoCorasickMatching(Boolean yesno) {
+    ahoCorasickMatching = yesno;
+  }
+
+  public Boolean getAhoCorasickMatching() {
+    return ahoCorasickMatching;
+  }
+  private boolean ahoCorasickMatching = false;
+
+  @CreoleParameter(comment = "The number of threads to find the matches in the chunks of a document, the annotations are still created in document order: 1 to use only the thread running the PR, 0 to use all available processors. Without containing or split annotations, the whole document is a single chunk and does not get matched in parallel",
+          defaultValue = "1")
+  @RunTime
+  @Optional
+  public void setMatchingThreads(Integer val) {
+    matchingThreads = val;
+  }
+
+  public Integer getMatchingThreads() {
+    return matchingThreads;
+  }
+  private Integer matchingThreads = 1;
+
   // ************************************************************************
   // other class fields 
   // ************************************************************************
   // This will be set to the output annotation set during execute.
   protected AnnotationSet outputAS = null;
 
+  // For bulk annotation creation: the matches found in the current chunk,
+  // represented by MATCH_SIZE ints each: the chunk-relative start and end,
+  // the list index and the lookup reference in the gaz store.
+  protected static final int MATCH_SIZE = 4;
+  protected IntArrayList matchBuffer = new IntArrayList();
+  protected IntArrayList lookupRefs = new IntArrayList();
+  // per-list annotation type and features (including _listnr), created lazily 
+  // for each document, because the output annotation type may change.
+  protected String[] listTypes;
+  protected FeatureMap[] listFeatures;
+
+  // The matches found in a chunk by findMatches, represented by three ints
+  // each: the chunk-relative start and end and the matching state.
+  protected static final int CHUNK_MATCH_SIZE = 3;
+
+  // For matching in parallel: the pool, or null if only the thread running 
+  // the PR is used, and the chunks for which the matches are being found, 
+  // in document order. At most MAX_PENDING_CHUNKS_PER_THREAD chunks per 
+  // thread are kept, so that not all chunks of a large document are in 
+  // memory at the same time.
+  private transient ForkJoinPool matchingPool;
+  private final ArrayDeque<PendingChunk> pendingChunks = new ArrayDeque<>();
+  private static final int MAX_PENDING_CHUNKS_PER_THREAD = 4;
+
+  private static final class PendingChunk {
+    final TextChunk chunk;
+    final long to;
+    final ChunkBuffers buffers;
+    final ForkJoinTask<IntArrayList> matches;
+
+    PendingChunk(TextChunk chunk, long to, ChunkBuffers buffers, ForkJoinTask<IntArrayList> matches) {
+      this.chunk = chunk;
+      this.to = to;
+      this.buffers = buffers;
+      this.matches = matches;
+    }
+  }
+
+  // The buffers for making a chunk and finding its matches. They are re-used
+  // for the chunks of all documents and only ever grow, except that buffers
+  // for chunks larger than MAX_KEPT_CHUNK_CAPACITY characters are not kept. 
+  // One set of buffers is used when matching in the thread running the PR, 
+  // one per pending chunk when matching in parallel.
+  private static final class ChunkBuffers {
+    final TextChunk.Builder builder = new TextChunk.Builder();
+    final IntArrayList matches = new IntArrayList();
+    // For Aho-Corasick matching: the matches in the order in which they are 
+    // found, represented by three ints each: the chunk-relative start and 
+    // end and the node of the automaton, and the arrays for sorting them by
+    // their start offsets.
+    final IntArrayList ahoCorasickMatches = new IntArrayList();
+    int[] startIndex = new int[0];
+    int[] sortedMatches = new int[0];
+
+    // the array for counting the matches at each of the offsets, all zero
+    int[] startIndex(int size) {
+      if (size > startIndex.length) {
+        startIndex = new int[Math.max(size, 2 * startIndex.length)];
+      } else {
+        Arrays.fill(startIndex, 0, size, 0);
+      }
+      return startIndex;
+    }
+
+    int[] sortedMatches(int size) {
+      if (size > sortedMatches.length) {
+        sortedMatches = new int[Math.max(size, 2 * sortedMatches.length)];
+      }
+      return sortedMatches;
+    }
+  }
+  private transient ArrayDeque<ChunkBuffers> freeChunkBuffers;
+  private static final int MAX_KEPT_CHUNK_CAPACITY = 1 << 20;
+
   public ExtendedGazetteer() {
     logger = Logger.getLogger(this.getClass().getName());
   }
@@ -240,6 +359,17 @@ public class ExtendedGazetteer extends GazetteerBase {
   }
 
   public void doExecute(Document theDocument) throws ExecutionException {
+    // the whole document gets processed with the same store, even if the 
+    // store of this PR gets replaced in the meantime
+    GazStoreUse use = acquireGazStore();
+    try {
+      annotateDocument(theDocument);
+    } finally {
+      releaseGazStore(use);
+    }
+  }
+
+  protected void annotateDocument(Document theDocument) throws ExecutionException {
     interrupted = false;
     //check the input
     if (theDocument == null) {
@@ -296,9 +426,37 @@ public class ExtendedGazetteer extends GazetteerBase {
       }
     }
 
+    listTypes = null;
+    listFeatures = null;
+
     fireStatusChanged("Performing look-up in " + theDocument.getName() + "...");
 
+    prepareMatchingPool();
+    try {
+      annotateChunks(theDocument, processAnns, containingAnns, splitAnns);
+      while (!pendingChunks.isEmpty()) {
+        annotatePendingChunk();
+      }
+    } finally {
+      // if something went wrong, do not wait for the remaining chunks
+      for (PendingChunk pending : pendingChunks) {
+        pending.matches.cancel(true);
+      }
+      pendingChunks.clear();
+    }
+
+    fireProcessFinished();
+    fireStatusChanged("Look-up complete!");
+  } // execute
+
+  // Split the document into chunks and process each of them in document order.
+  // The word, space, split and containing annotations are sorted once and 
+  // the annotations for each chunk are found by a binary search in them,
+  // instead of querying and sorting the annotation sets again for each chunk.
+  private void annotateChunks(Document theDocument, AnnotationSet processAnns,
+          AnnotationSet containingAnns, AnnotationSet splitAnns) throws ExecutionException {
     long endOffset = theDocument.getContent().size();
+    SortedAnnotations sortedProcessAnns = new SortedAnnotations(processAnns);
 
     // now split the document into chunks if necessary:
     // = for each containing annotation we create a chunk,
@@ -307,93 +465,181 @@ public class ExtendedGazetteer extends GazetteerBase {
     if (containingAnns == null) {
       if (splitAnns != null) { // we need to do some additional chunking
         List<Annotation> splitAnnsList = Utils.inDocumentOrder(splitAnns);
-        long lastOffset = 0;
-        for (Annotation splitAnn : splitAnnsList) {
-          long splitOffset = splitAnn.getStartNode().getOffset();
-          if (splitOffset > lastOffset) {
-            doAnnotateChunk(TextChunk.makeChunk(
-                    document, lastOffset, splitOffset, !caseSensitive,
-                    processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
-                    matchAtWordStartOnly, matchAtWordEndOnly));
-          }
-          lastOffset = splitOffset;
-        } // for
-        // anything left?
-        if (lastOffset < endOffset) {
-          doAnnotateChunk(TextChunk.makeChunk(document, lastOffset, endOffset, !caseSensitive,
-                  processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
-                  matchAtWordStartOnly, matchAtWordEndOnly));
-        }
+        processChunks(0, endOffset, splitAnnsList, sortedProcessAnns);
       } else {
         // create a chunk from the whole document
-        doAnnotateChunk(TextChunk.makeChunk(document, 0, endOffset, !caseSensitive,
-                processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
-                matchAtWordStartOnly, matchAtWordEndOnly));
+        processChunk(0, endOffset, sortedProcessAnns);
       }
     } else {
-      for (Annotation containingAnn : containingAnns) {
+      SortedAnnotations sortedSplitAnns = new SortedAnnotations(splitAnns);
+      for (Annotation containingAnn : Utils.inDocumentOrder(containingAnns)) {
         //System.out.println("processing containing annot "+containingAnn);
-        // if we do have split annotations and we have split annotations within the range
-        // of this containing annotation, we need to do further chunking
-        if (splitAnns != null) {
-          AnnotationSet containedSplits = Utils.getContainedAnnotations(splitAnns, containingAnn);
-          if (containedSplits.size() > 0) {
-            // we need to split
-
-            List<Annotation> splitAnnsList = Utils.inDocumentOrder(containedSplits);
-            long lastOffset = containingAnn.getStartNode().getOffset();
-            endOffset = containingAnn.getEndNode().getOffset();
-            for (Annotation splitAnn : splitAnnsList) {
-              long splitOffset = splitAnn.getStartNode().getOffset();
-              if (splitOffset > lastOffset) {
-                doAnnotateChunk(TextChunk.makeChunk(
-                        document, lastOffset, splitOffset, !caseSensitive,
-                        processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
-                        matchAtWordStartOnly, matchAtWordEndOnly));
-              }
-              lastOffset = splitOffset;
-            } // for
-            // anything left?
-            if (lastOffset < endOffset) {
-              doAnnotateChunk(TextChunk.makeChunk(
-                      document, lastOffset, endOffset, !caseSensitive,
-                      processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
-                      matchAtWordStartOnly, matchAtWordEndOnly));
-            }
-
-          } else {
-            // nothing within this containining annotation, just annotate the whole chunk
-            doAnnotateChunk(TextChunk.makeChunk(
-                    document, containingAnn, !caseSensitive,
-                    processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
-                    matchAtWordStartOnly, matchAtWordEndOnly));
-          }
-        } else {
+        // if we have split annotations within the range of this containing 
+        // annotation, we need to do further chunking
+        long from = containingAnn.getStartNode().getOffset();
+        long to = containingAnn.getEndNode().getOffset();
+        List<Annotation> containedSplits = sortedSplitAnns.getContained(from, to);
+        if (containedSplits.isEmpty()) {
           // no splits, just annotate the chunk for this containing annotation
-          doAnnotateChunk(TextChunk.makeChunk(document, containingAnn, !caseSensitive,
-                  processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
-                  matchAtWordStartOnly, matchAtWordEndOnly));
+          processChunk(from, to, sortedProcessAnns);
+        } else {
+          processChunks(from, to, containedSplits, sortedProcessAnns);
         }
       }
     }
+  }
 
-    fireProcessFinished();
-    fireStatusChanged("Look-up complete!");
-  } // execute
+  // Process the chunks between the split annotations within the range
+  private void processChunks(long from, long to, List<Annotation> splitAnnsList,
+          SortedAnnotations processAnns) throws ExecutionException {
+    long lastOffset = from;
+    for (Annotation splitAnn : splitAnnsList) {
+      long splitOffset = splitAnn.getStartNode().getOffset();
+      if (splitOffset > lastOffset) {
+        processChunk(lastOffset, splitOffset, processAnns);
+      }
+      lastOffset = splitOffset;
+    } // for
+    // anything left?
+    if (lastOffset < to) {
+      processChunk(lastOffset, to, processAnns);
+    }
+  }
+
+  // Create or remove the pool for the number of matching threads
+  private void prepareMatchingPool() {
+    int threads = (matchingThreads == null) ? 1 : matchingThreads;
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    if (matchingPool != null && (threads == 1 || matchingPool.getParallelism() != threads)) {
+      matchingPool.shutdown();
+      matchingPool = null;
+    }
+    if (matchingPool == null && threads > 1) {
+      matchingPool = new ForkJoinPool(threads);
+    }
+  }
+
+  /**
+   * Make the chunk for the range of the document and annotate it. When 
+   * matching in parallel, this only starts finding the matches of the chunk
+   * and creates the annotations for the earlier chunks as far as their 
+   * matches have been found, the annotations for the remaining chunks get 
+   * created at the end of the document.
+   * 
+   * @param from the start offset of the chunk
+   * @param to the end offset of the chunk
+   * @param processAnns the word and space annotations in document order
+   * @throws ExecutionException 
+   */
+  protected void processChunk(long from, long to, SortedAnnotations processAnns) throws ExecutionException {
+    ChunkBuffers buffers = takeChunkBuffers();
+    TextChunk chunk = TextChunk.makeChunk(buffers.builder,
+            document, from, to, !caseSensitive,
+            processAnns, wordAnnotationType, textFeature, spaceAnnotationType,
+            matchAtWordStartOnly, matchAtWordEndOnly);
+    if (matchingPool == null || chunk.isEmpty()) {
+      doAnnotateChunk(chunk, buffers);
+      releaseChunkBuffers(buffers);
+      chunkDone(to);
+      return;
+    }
+    pendingChunks.add(new PendingChunk(chunk, to, buffers, matchingPool.submit(() -> {
+      findMatches(chunk, buffers);
+      return buffers.matches;
+    })));
+    while (pendingChunks.size() > MAX_PENDING_CHUNKS_PER_THREAD * matchingPool.getParallelism()) {
+      annotatePendingChunk();
+    }
+  }
+
+  // Wait for the matches of the first pending chunk and create its annotations
+  private void annotatePendingChunk() throws ExecutionException {
+    PendingChunk pending = pendingChunks.poll();
+    IntArrayList matches;
+    try {
+      matches = pending.matches.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionInterruptedException(
+              "The execution of the " + getName()
+              + " gazetteer has been abruptly interrupted!");
+    } catch (java.util.concurrent.ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof ExecutionException) {
+        throw (ExecutionException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new GateRuntimeException("Could not find the matches in a chunk", cause);
+    }
+    createLookups(pending.chunk, matches);
+    releaseChunkBuffers(pending.buffers);
+    chunkDone(pending.to);
+  }
+
+  // Fire the progress event for the document up to the end of a chunk and 
+  // stop if the PR has been interrupted. This is done by the thread running
+  // the PR once the annotations for a chunk have been created, never by the 
+  // threads finding the matches.
+  private void chunkDone(long to) throws ExecutionInterruptedException {
+    long size = document.getContent().size();
+    fireProgressChanged(size == 0 ? 100 : (int) ((100 * to) / size));
+    if (isInterrupted()) {
+      throw new ExecutionInterruptedException(
+              "The execution of the " + getName()
+              + " gazetteer has been abruptly interrupted!");
+    }
+  }
+
+  private ChunkBuffers takeChunkBuffers() {
+    if (freeChunkBuffers == null) {
+      freeChunkBuffers = new ArrayDeque<>();
+    }
+    ChunkBuffers buffers = freeChunkBuffers.poll();
+    return (buffers == null) ? new ChunkBuffers() : buffers;
+  }
+
+  private void releaseChunkBuffers(ChunkBuffers buffers) {
+    if (buffers.builder.getCapacity() <= MAX_KEPT_CHUNK_CAPACITY
+            && buffers.sortedMatches.length <= MAX_KEPT_CHUNK_CAPACITY) {
+      buffers.matches.clear();
+      freeChunkBuffers.push(buffers);
+    }
+  }
+
+  /**
+   * Return the number of sets of chunk buffers which are kept for re-use.
+   * 
+   * @return the number of buffer sets
+   */
+  protected int getNrFreeChunkBuffers() {
+    return (freeChunkBuffers == null) ? 0 : freeChunkBuffers.size();
+  }
+
+  @Override
+  public void cleanup() {
+    if (matchingPool != null) {
+      matchingPool.shutdown();
+      matchingPool = null;
+    }
+    super.cleanup();
+  }
 
   public void doAnnotateChunk(
           TextChunk chunk)
           throws ExecutionException {
+    ChunkBuffers buffers = takeChunkBuffers();
+    doAnnotateChunk(chunk, buffers);
+    releaseChunkBuffers(buffers);
+  }
+
+  private void doAnnotateChunk(TextChunk chunk, ChunkBuffers buffers)
+          throws ExecutionException {
     interrupted = false;
-    int length = chunk.getLength();
-    char currentChar;
-    State currentState = gazStore.getInitialState();
-    State nextState;
-    State lastMatchingState = null;
-    int matchedRegionEnd = 0;
-    int matchedRegionStart = 0;
-    int charIdx = 0;
-    int oldCharIdx = 0;
 
     if (DEBUG) {
       System.out.println("Annotating chunk: " + chunk);
@@ -403,6 +649,45 @@ public class ExtendedGazetteer extends GazetteerBase {
       return;
     }
 
+    buffers.matches.clear();
+    findMatches(chunk, buffers);
+    createLookups(chunk, buffers.matches);
+    fireProcessFinished();
+    fireStatusChanged("Look-up complete!");
+  }
+
+  /**
+   * Find all matches in the chunk and add them to the matches list of the
+   * buffers, CHUNK_MATCH_SIZE ints per match in the order in which the 
+   * lookups for them get created. This only reads the gaz store and the 
+   * chunk, so it can run for several chunks of a document in parallel. 
+   * 
+   * @param chunk the chunk, must not be empty
+   * @param buffers receive the matches, the other buffers are used while matching
+   * @throws ExecutionException 
+   */
+  private void findMatches(TextChunk chunk, ChunkBuffers buffers)
+          throws ExecutionException {
+    IntArrayList matches = buffers.matches;
+    // changes which have not been merged yet are only matched by the trie walk,
+    // so the automaton does not need to be re-created for every change
+    if (ahoCorasickMatching && !(gazStore instanceof GazStoreOverlay)) {
+      findMatchesAhoCorasick(chunk, buffers);
+      return;
+    }
+
+    int length = chunk.getLength();
+    char currentChar;
+    // states are represented by their index in the gaz store, a negative
+    // index means there is no state
+    final int initialState = gazStore.getInitialStateIndex();
+    int currentState = initialState;
+    int nextState;
+    int lastMatchingState = -1;
+    int matchedRegionEnd = 0;
+    int matchedRegionStart = 0;
+    int charIdx = 0;
+
     // TODO: here and below: always skip to the next position where a match may
     // start, since we will just always mark all positions as "isMatchStart" instead 
     // of "isWordStart".
@@ -421,13 +706,13 @@ public class ExtendedGazetteer extends GazetteerBase {
       currentChar = caseSensitive
               ? currentChar
               : Character.toUpperCase(currentChar);
-      nextState = currentState.next(currentChar);
-      if (nextState == null) {
+      nextState = gazStore.nextState(currentState, currentChar);
+      if (nextState < 0) {
         //the matching stopped
         //if we had a successful match then act on it;
-        if (lastMatchingState != null) {
-          createLookups(chunk, lastMatchingState, matchedRegionStart, matchedRegionEnd);
-          lastMatchingState = null;
+        if (lastMatchingState >= 0) {
+          addMatch(matches, lastMatchingState, matchedRegionStart, matchedRegionEnd);
+          lastMatchingState = -1;
         }
         //reset the GazStoreTrie1 and skip to next candidate position - either next char or next
         // char where a word starts
@@ -444,7 +729,7 @@ public class ExtendedGazetteer extends GazetteerBase {
         //  charIdx = matchedRegionStart + 1;
         //}
         matchedRegionStart = charIdx;
-        currentState = gazStore.getInitialState();
+        currentState = initialState;
       } else {//go on with the matching
         currentState = nextState;
         // if we have a successful state, i.e. an end state:
@@ -460,7 +745,7 @@ public class ExtendedGazetteer extends GazetteerBase {
           System.out.println("Matched region end is end="+chunk.isWordEnd(charIdx));
         }
          */
-        if (currentState.isFinal()
+        if (gazStore.isFinal(currentState)
                 && //(!matchAtWordStartOnly || chunk.isValidMatchStart(matchedRegionStart)) &&
                 //(!matchAtWordEndOnly || chunk.isValidMatchEnd(charIdx))
                 chunk.isValidMatchStart(matchedRegionStart)
@@ -470,8 +755,8 @@ public class ExtendedGazetteer extends GazetteerBase {
           // if there is a previous matching state to act upon and we do not
           // just annotate the longest match, then annotate that previous
           // match before updating the last matching state.
-          if (!longestMatchOnly && lastMatchingState != null) {
-            createLookups(chunk, lastMatchingState, matchedRegionStart, matchedRegionEnd);
+          if (!longestMatchOnly && lastMatchingState >= 0) {
+            addMatch(matches, lastMatchingState, matchedRegionStart, matchedRegionEnd);
           }
           matchedRegionEnd = charIdx;
           lastMatchingState = currentState;
@@ -481,10 +766,10 @@ public class ExtendedGazetteer extends GazetteerBase {
           //System.out.println("At end of chunk");
           //we can't go on, use the last matching state and restart matching
           //from the next char
-          if (lastMatchingState != null) {
+          if (lastMatchingState >= 0) {
             //let's add the new annotation(s)
-            createLookups(chunk, lastMatchingState, matchedRegionStart, matchedRegionEnd);
-            lastMatchingState = null;
+            addMatch(matches, lastMatchingState, matchedRegionStart, matchedRegionEnd);
+            lastMatchingState = -1;
           }
           //reset the GazStoreTrie1
           //if(matchAtWordStartOnly) {
@@ -501,30 +786,106 @@ public class ExtendedGazetteer extends GazetteerBase {
           //}
           //System.out.println("Skipped forward to "+charIdx);
           matchedRegionStart = charIdx;
-          currentState = gazStore.getInitialState();
-        }
-      }
-      //fire the progress event
-      if (charIdx - oldCharIdx > 256) {
-        fireProgressChanged((100 * charIdx) / length);
-        oldCharIdx = charIdx;
-        if (isInterrupted()) {
-          throw new ExecutionInterruptedException(
-                  "The execution of the " + getName()
-                  + " gazetteer has been abruptly interrupted!");
+          currentState = initialState;
         }
       }
     } // while(charIdx < length)
     //we've finished. If we had a stored match, then apply it.
-    if (lastMatchingState != null) {
-      createLookups(chunk, lastMatchingState, matchedRegionStart, matchedRegionEnd);
+    if (lastMatchingState >= 0) {
+      addMatch(matches, lastMatchingState, matchedRegionStart, matchedRegionEnd);
     }
-    fireProcessFinished();
-    fireStatusChanged("Look-up complete!");
-  } // execute
+  }
+
+  private static void addMatch(IntArrayList matches, int matchingState,
+          int matchedRegionStart, int matchedRegionEnd) {
+    matches.add(matchedRegionStart);
+    matches.add(matchedRegionEnd);
+    matches.add(matchingState);
+  }
+
+  // Find the matches in a single pass with the Aho-Corasick automaton of 
+  // the gaz store: this finds the same matches as the trie walk in 
+  // findMatches, but never has to go back in the text after a failed match.
+  // The matches are found in the order of their end offsets, so they are 
+  // collected first and then added in the same order as by the trie walk: 
+  // by start offset, then by end offset.
+  private void findMatchesAhoCorasick(TextChunk chunk, ChunkBuffers buffers)
+          throws ExecutionException {
+    IntArrayList matches = buffers.matches;
+    IntArrayList ahoCorasickMatches = buffers.ahoCorasickMatches;
+    AhoCorasickAutomaton automaton = gazStore.getAhoCorasickAutomaton();
+    int length = chunk.getLength();
+    int node = 0;
+    ahoCorasickMatches.clear();
+    for (int charIdx = 0; charIdx < length; charIdx++) {
+      char currentChar = chunk.getCharAt(charIdx);
+      currentChar = caseSensitive
+              ? currentChar
+              : Character.toUpperCase(currentChar);
+      node = automaton.next(node, currentChar);
+      if (chunk.isValidMatchEnd(charIdx)) {
+        // all entries ending here, from the longest to the shortest
+        for (int match = automaton.firstMatch(node); match >= 0; match = automaton.nextMatch(match)) {
+          int start = charIdx - automaton.getDepth(match) + 1;
+          if (chunk.isValidMatchStart(start)) {
+            ahoCorasickMatches.add(start);
+            ahoCorasickMatches.add(charIdx);
+            ahoCorasickMatches.add(match);
+          }
+        }
+      }
+    }
+    // sort the matches by start offset, keeping the order of the end offsets
+    int nrMatches = ahoCorasickMatches.size() / 3;
+    int[] startIndex = buffers.startIndex(length + 1);
+    for (int i = 0; i < nrMatches; i++) {
+      startIndex[ahoCorasickMatches.getInt(i * 3) + 1]++;
+    }
+    for (int i = 1; i <= length; i++) {
+      startIndex[i] += startIndex[i - 1];
+    }
+    int[] sorted = buffers.sortedMatches(nrMatches);
+    for (int i = 0; i < nrMatches; i++) {
+      sorted[startIndex[ahoCorasickMatches.getInt(i * 3)]++] = i;
+    }
+    for (int i = 0; i < nrMatches; i++) {
+      int match = sorted[i];
+      int start = ahoCorasickMatches.getInt(match * 3);
+      // if we only want the longest match, skip all but the last match with this start
+      if (longestMatchOnly && i + 1 < nrMatches
+              && ahoCorasickMatches.getInt(sorted[i + 1] * 3) == start) {
+        continue;
+      }
+      addMatch(matches, automaton.getState(ahoCorasickMatches.getInt(match * 3 + 2)),
+              start, ahoCorasickMatches.getInt(match * 3 + 1));
+    }
+  }
 
-  protected void createLookups(TextChunk chunk, State matchingState,
+  // Create the lookups for all matches found in the chunk by findMatches
+  protected void createLookups(TextChunk chunk, IntArrayList matches) {
+    for (int i = 0; i < matches.size(); i += CHUNK_MATCH_SIZE) {
+      createLookups(chunk, matches.getInt(i + 2), matches.getInt(i), matches.getInt(i + 1));
+    }
+    if (bulkAnnotations) {
+      addBufferedLookups(chunk);
+    }
+  }
+
+  protected void createLookups(TextChunk chunk, int matchingState,
           int matchedRegionStart, int matchedRegionEnd) {
+    if (bulkAnnotations) {
+      // just remember the lookups, the annotations get created by addBufferedLookups
+      lookupRefs.clear();
+      int nrRefs = gazStore.addLookupRefs(matchingState, lookupRefs);
+      for (int i = 0; i < nrRefs; i++) {
+        int ref = lookupRefs.getInt(i);
+        matchBuffer.add(matchedRegionStart);
+        matchBuffer.add(matchedRegionEnd);
+        matchBuffer.add(gazStore.getListInfoIndex(ref));
+        matchBuffer.add(ref);
+      }
+      return;
+    }
     Iterator<Lookup> lookupIter = gazStore.getLookups(matchingState);
     if (!lookupIter.hasNext()) {
       return;
@@ -556,6 +917,72 @@ public class ExtendedGazetteer extends GazetteerBase {
     }//while(lookupIter.hasNext())
   }
 
+  // Create the annotations for all matches collected in the match buffer for
+  // the chunk, in the order in which they were found, and clear the buffer.
+  // This creates the same annotations as createLookups in non-bulk mode, but
+  // the list features, annotation types, document text and offsets are only 
+  // created once and then shared.
+  protected void addBufferedLookups(TextChunk chunk) {
+    int size = matchBuffer.size();
+    if (size == 0) {
+      return;
+    }
+    if (listTypes == null) {
+      int nrLists = gazStore.getListInfos().size();
+      listTypes = new String[nrLists];
+      listFeatures = new FeatureMap[nrLists];
+    }
+    int lastStart = -1;
+    int lastEnd = -1;
+    Long fromOffset = null;
+    Long toOffset = null;
+    String string = null;
+    Integer firstcharCategory = null;
+    Boolean firstcharUpper = null;
+    for (int i = 0; i < size; i += MATCH_SIZE) {
+      int start = matchBuffer.getInt(i);
+      int end = matchBuffer.getInt(i + 1);
+      int listIndex = matchBuffer.getInt(i + 2);
+      int ref = matchBuffer.getInt(i + 3);
+      if (start != lastStart || end != lastEnd) {
+        // all lookups for the same match are consecutive in the buffer
+        lastStart = start;
+        lastEnd = end;
+        fromOffset = Long.valueOf(chunk.getStartOffset(start));
+        toOffset = Long.valueOf(chunk.getEndOffset(end) + 1);
+        string = chunk.getTextString(start, end);
+        char firstChar = chunk.getCharAt(start);
+        firstcharCategory = Character.getType(firstChar);
+        firstcharUpper = Character.isUpperCase(firstChar);
+      }
+      String type = listTypes[listIndex];
+      if (type == null) {
+        ListInfo listInfo = gazStore.getListInfo(listIndex);
+        type = getAnnotationTypeName(listInfo.getAnnotationType());
+        listTypes[listIndex] = type;
+        FeatureMap lfm = Factory.newFeatureMap();
+        lfm.putAll(listInfo.getFeatures());
+        lfm.put("_listnr", listIndex);
+        listFeatures[listIndex] = lfm;
+      }
+      // every annotation needs its own feature map, since the map could 
+      // later get modified through the annotation
+      FeatureMap fm = Factory.newFeatureMap();
+      fm.putAll(listFeatures[listIndex]);
+      gazStore.addLookupEntryFeatures(fm, ref);
+      fm.put("_firstcharCategory", firstcharCategory);
+      fm.put("_firstcharUpper", firstcharUpper);
+      fm.put("_string", string);
+      try {
+        outputAS.add(fromOffset, toOffset, type, fm);
+      } catch (InvalidOffsetException ex) {
+        throw new GateRuntimeException("Invalid offset exception - doclen/from/to="
+                + document.getContent().size() + "/" + fromOffset + "/" + toOffset, ex);
+      }
+    }
+    matchBuffer.clear();
+  }
+
   // helper method that adds an annotation to an annotation set and if the
   // annotationset is a AnnotationSetImpl (currently all are, but who knows ...),
   // returns the id of the annotation, otherwise null.
@@ -211,7 +211,18 @@ public class FeatureGazetteer extends GazetteerBase
     doExecute(document); // delegate so that a subclass can overwrite execute() and still use doExecute
    }
 
-   public void doExecute(Document theDocument) throws ExecutionException {
+  public void doExecute(Document theDocument) throws ExecutionException {
+    // the whole document gets processed with the same store, even if the 
+    // store of this PR gets replaced in the meantime
+    GazStoreUse use = acquireGazStore();
+    try {
+      annotateDocument(theDocument);
+    } finally {
+      releaseGazStore(use);
+    }
+  }
+
+  protected void annotateDocument(Document theDocument) throws ExecutionException {
     interrupted = false;
     //check the input
     if(theDocument == null) {
@@ -380,7 +391,8 @@ public class FeatureGazetteer extends GazetteerBase
     }
     int length = theString.length();
     char currentChar;
-    State currentState = gazStore.getInitialState();
+    final int initialState = gazStore.getInitialStateIndex();
+    int currentState = initialState;
 
     //System.out.println("Trying match for "+theString);
     // an empty string never matches
@@ -404,12 +416,12 @@ public class FeatureGazetteer extends GazetteerBase
         currentChar = theString.charAt(i);
         currentChar = caseSensitive ? currentChar : Character
             .toUpperCase(currentChar);
-        currentState = currentState.next(currentChar);
-        if (currentState == null) {
-          currentState = gazStore.getInitialState();
+        currentState = gazStore.nextState(currentState, currentChar);
+        if (currentState < 0) {
+          currentState = initialState;
           break;
         }
-        if (currentState.isFinal()) {
+        if (gazStore.isFinal(currentState)) {
           //System.out.println("MATCH");
           if(i >= matchto) {
             //System.out.println("CHECK");
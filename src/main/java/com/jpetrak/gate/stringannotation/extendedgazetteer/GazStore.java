@@ -29,6 +29,8 @@ import java.io.Serializable;
 
 
 import gate.FeatureMap;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import java.net.URL;
 
 /**
@@ -59,6 +61,7 @@ public abstract class GazStore implements Serializable {
   public abstract Iterator<Lookup> getLookups(State matchingState);
   
   public abstract ListInfo getListInfo(Lookup lookup);
+  public abstract ListInfo getListInfo(int listInfoIndex);
   public abstract int getListInfoIndex(Lookup lookup);
   
   public abstract void addLookupListFeatures(FeatureMap fm, Lookup lookup);
@@ -80,14 +83,14 @@ public abstract class GazStore implements Serializable {
    * @return
    */
   public Iterator<Lookup> match(String toMatch) {
-    State currentState = getInitialState();
+    int currentState = getInitialStateIndex();
     for (int i = 0; i < toMatch.length(); i++) {
       char currentChar = toMatch.charAt(i);
-      currentState = currentState.next(currentChar);
-      if (currentState == null) {
+      currentState = nextState(currentState, currentChar);
+      if (currentState < 0) {
         break;
       }
-      if (i==(toMatch.length()-1) && currentState.isFinal()) {  // we are at the last character
+      if (i==(toMatch.length()-1) && isFinal(currentState)) {  // we are at the last character
         return getLookups(currentState);
       }
     }
@@ -97,12 +100,164 @@ public abstract class GazStore implements Serializable {
   // TODO: as long as Visitor is not implemented, we allow to get the initial state like this:
   public abstract State getInitialState();
   
+  // The following methods represent states as int indices instead of State objects.
+  // A negative index means that there is no state. These methods do not create any 
+  // objects and should be used wherever we traverse the gazetteer for each 
+  // character of a document.
+  
+  /**
+   * Return the index of the initial state.
+   * @return
+   */
+  public abstract int getInitialStateIndex();
+  
+  /**
+   * Return the index of the state reached from state by the given character or 
+   * a negative index if there is no such state.
+   * @param state
+   * @param c
+   * @return
+   */
+  public abstract int nextState(int state, char c);
+  
+  /**
+   * Check if the state with the given index is final, i.e. has lookups.
+   * @param state
+   * @return
+   */
+  public abstract boolean isFinal(int state);
+  
+  public abstract Iterator<Lookup> getLookups(int state);
+  
+  /**
+   * Add the characters and target states of all transitions of the state 
+   * to the given lists, in character order. This may only be supported 
+   * once the store has been compacted.
+   * 
+   * @param state
+   * @param chars receives the characters
+   * @param states receives the target states
+   * @return the number of transitions added
+   */
+  public abstract int addTransitions(int state, CharArrayList chars, IntArrayList states);
+  
+  /**
+   * Return a number which is larger than the index of any state of this store, 
+   * so that a client can use the indices from this number on for states of 
+   * its own.
+   * 
+   * @return the limit for state indices
+   */
+  public abstract int getStateIndexLimit();
+  
+  // The Aho-Corasick automaton for this store, created on first use.
+  private transient volatile AhoCorasickAutomaton ahoCorasickAutomaton;
+  
+  /**
+   * Return the Aho-Corasick automaton for this store, creating it the first
+   * time this is called and again after the store has been modified.
+   * 
+   * @return the automaton
+   */
+  public AhoCorasickAutomaton getAhoCorasickAutomaton() {
+    AhoCorasickAutomaton automaton = ahoCorasickAutomaton;
+    if(automaton == null) {
+      synchronized(this) {
+        automaton = ahoCorasickAutomaton;
+        if(automaton == null) {
+          automaton = new AhoCorasickAutomaton(this);
+          ahoCorasickAutomaton = automaton;
+        }
+      }
+    }
+    return automaton;
+  }
+  
+  /**
+   * Check if the Aho-Corasick automaton for this store has already been created.
+   * 
+   * @return true if getAhoCorasickAutomaton has been called before
+   */
+  public boolean hasAhoCorasickAutomaton() {
+    return ahoCorasickAutomaton != null;
+  }
+  
+  /**
+   * Discard the Aho-Corasick automaton, which only knows the entries of the 
+   * store at the time it was created. This must be called whenever the store
+   * gets modified.
+   */
+  protected void invalidateAutomaton() {
+    ahoCorasickAutomaton = null;
+  }
+  
+  // The following methods represent the lookups of a final state as int 
+  // references instead of Lookup objects, for clients which want to process
+  // many lookups without creating objects for them.
+  
+  /**
+   * Add a reference for each lookup of the final state to the refs list.
+   * 
+   * @param state a final state
+   * @param refs receives the lookup references
+   * @return the number of references added
+   */
+  public abstract int addLookupRefs(int state, IntArrayList refs);
+  
+  /**
+   * Return the index of the list info for a lookup reference.
+   * @param lookupRef
+   * @return 
+   */
+  public abstract int getListInfoIndex(int lookupRef);
+  
+  /**
+   * Add the entry features for a lookup reference to the feature map.
+   * @param fm
+   * @param lookupRef 
+   */
+  public abstract void addLookupEntryFeatures(FeatureMap fm, int lookupRef);
+  
   public abstract void compact();
   
+  /**
+   * Compact the store, using direct-indexed transition tables for all 
+   * states which have at least denseThreshold transitions for characters 
+   * below 256.
+   * 
+   * @param denseThreshold the minimum number of transitions, 0 to never use such tables
+   */
+  public abstract void compact(int denseThreshold);
+  
   public abstract void save(File whereTo) throws FileNotFoundException, IOException;
 
+  /**
+   * Drop the resources of the store which should not be kept as long as 
+   * anything still refers to the store, like the memory mapping of a cache 
+   * file, which keeps the file from being replaced or deleted on some systems.
+   * They get released by the garbage collector. The store must not be used 
+   * any more after this. This does nothing by default.
+   */
+  public void close() {
+  }
+
+  // Identifies the list files and settings the store was created from, gets
+  // saved with the store so a cache file can be checked before using it.
+  private String fingerprint;
+
+  /**
+   * Return the fingerprint of the sources the store was created from.
+   * 
+   * @return the fingerprint or null if none was set
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public void setFingerprint(String fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
   // public abstract GazStore load(URL whereFrom) throws IOException;
   
-  public int refcount = 0;
-  
 }
@@ -0,0 +1,777 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI).
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.extendedgazetteer;
+
+import gate.Factory;
+import gate.FeatureMap;
+import gate.util.GateRuntimeException;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GazStore which shows a compacted GazStore together with entries which
+ * have been added to or removed from its lists since it was created.
+ * <p>
+ * The changes are kept in layers. Each layer is a small trie of its own 
+ * which only contains the prefixes of the entries changed in the layer and
+ * is shown over the store below it, which is either the base store or the
+ * next lower layer. Each node of the trie knows the state of the store below
+ * for the same prefix, so the transitions for all other characters simply 
+ * continue there. The nodes get the state indices from the state index limit
+ * of the store below on. The lookups added by the changes get negative 
+ * lookup references, again numbered on from those of the store below.
+ * <p>
+ * An overlay store is never modified: withChanges returns a new overlay
+ * store for the same base store, so a store can get replaced by one with 
+ * more changes while other threads are still matching against it. The new 
+ * changes become a new top layer, which gets combined with all the layers 
+ * below it that do not have more changes than it. The layers therefore get
+ * smaller from the bottom to the top, there are never more of them than 
+ * the binary logarithm of the number of changes and each change only gets
+ * applied again that many times. Matching gets slower with each layer,
+ * so the changes should still get merged into a new base store with copyTo
+ * once there are many of them.
+ */
+public class GazStoreOverlay extends GazStore {
+
+  private static final long serialVersionUID = 3419652200871406529L;
+
+  /**
+   * An entry to add to or to remove from one of the lists of the store.
+   */
+  public static final class Change implements Serializable {
+    private static final long serialVersionUID = -2378103297469017285L;
+    private final boolean addition;
+    private final String entry;
+    private final int listInfoIndex;
+    private final String[] keyvals;
+
+    private Change(boolean addition, String entry, int listInfoIndex, String[] keyvals) {
+      if (entry.isEmpty()) {
+        throw new GateRuntimeException("Cannot change the lookups for an empty entry");
+      }
+      this.addition = addition;
+      this.entry = entry;
+      this.listInfoIndex = listInfoIndex;
+      this.keyvals = keyvals;
+    }
+
+    /**
+     * Add a lookup for the entry with the given features to the list, unless
+     * the entry already has a lookup with the same features for that list.
+     *
+     * @param entry the normalized entry
+     * @param listInfoIndex the index of the list
+     * @param keyvals the alternating keys and values of the entry features
+     * @return the change
+     */
+    public static Change addition(String entry, int listInfoIndex, String[] keyvals) {
+      return new Change(true, entry, listInfoIndex, keyvals);
+    }
+
+    /**
+     * Remove all lookups of the entry for the list.
+     *
+     * @param entry the normalized entry
+     * @param listInfoIndex the index of the list
+     * @return the change
+     */
+    public static Change removal(String entry, int listInfoIndex) {
+      return new Change(false, entry, listInfoIndex, null);
+    }
+
+    public boolean isAddition() {
+      return addition;
+    }
+
+    public String getEntry() {
+      return entry;
+    }
+
+    public int getListInfoIndex() {
+      return listInfoIndex;
+    }
+  }
+
+  protected static final class OverlayLookup extends Lookup implements Serializable {
+    private static final long serialVersionUID = 6021954386213541740L;
+    final int listInfoIndex;
+    final String[] keyvals;
+
+    OverlayLookup(int listInfoIndex, String[] keyvals) {
+      this.listInfoIndex = listInfoIndex;
+      this.keyvals = keyvals;
+    }
+
+    void addFeatures(FeatureMap fm) {
+      for (int i = 0; i < keyvals.length; i += 2) {
+        fm.put(keyvals[i], keyvals[i + 1]);
+      }
+    }
+  }
+
+  private final GazStore baseStore;
+  // the store this layer is shown over: the base store or the next lower layer
+  private final GazStore below;
+  // the changes of this layer only
+  private final List<Change> changes;
+  // the number of changes of this layer and all layers below
+  private final int nrChanges;
+  // the index of the state for node 0, the initial state
+  private final int firstNode;
+  // the number of the first lookup added by this layer, the lookups of the
+  // layers below have smaller numbers
+  private final int firstLookup;
+  // for each node, the state of the store below for the same prefix, or -1
+  private final int[] nodeBaseStates;
+  // for each node, the characters of its transitions, in character order
+  private final char[][] nodeChars;
+  // the target node of each transition, by node and character
+  private final Long2IntOpenHashMap transitions;
+  // for each node, the sorted indices of the lists for which the lookups
+  // of the state below are removed, or null
+  private final int[][] removedLists;
+  // for each node, the numbers of the lookups added to it, or null
+  private final int[][] nodeLookups;
+  private final boolean[] nodeFinal;
+  private final OverlayLookup[] lookups;
+
+  /**
+   * Create an overlay store without any changes.
+   *
+   * @param baseStore the compacted store to show the changes for
+   */
+  public GazStoreOverlay(GazStore baseStore) {
+    this(baseStore, Collections.<Change>emptyList());
+  }
+
+  /**
+   * Create an overlay store with a single layer for the changes.
+   *
+   * @param baseStore the compacted store to show the changes for
+   * @param changes the changes, in order
+   */
+  protected GazStoreOverlay(GazStore baseStore, List<Change> changes) {
+    this(baseStore, baseStore, changes);
+  }
+
+  // Create the layer for the changes over the store below
+  private GazStoreOverlay(GazStore baseStore, GazStore below, List<Change> changes) {
+    this.baseStore = baseStore;
+    this.below = below;
+    this.changes = Collections.unmodifiableList(changes);
+    if (below instanceof GazStoreOverlay) {
+      GazStoreOverlay lower = (GazStoreOverlay) below;
+      nrChanges = lower.nrChanges + changes.size();
+      firstLookup = lower.firstLookup + lower.lookups.length;
+    } else {
+      nrChanges = changes.size();
+      firstLookup = 0;
+    }
+    firstNode = below.getStateIndexLimit();
+    int nrLists = baseStore.getListInfos().size();
+    transitions = new Long2IntOpenHashMap();
+    transitions.defaultReturnValue(-1);
+    IntArrayList bases = new IntArrayList();
+    List<CharArrayList> children = new ArrayList<>();
+    List<IntOpenHashSet> removed = new ArrayList<>();
+    List<List<OverlayLookup>> added = new ArrayList<>();
+    bases.add(below.getInitialStateIndex());
+    children.add(new CharArrayList());
+    removed.add(null);
+    added.add(null);
+    for (Change change : changes) {
+      if (change.listInfoIndex < 0 || change.listInfoIndex >= nrLists) {
+        throw new GateRuntimeException("No list with index " + change.listInfoIndex + " for entry " + change.entry);
+      }
+      int node = 0;
+      for (int i = 0; i < change.entry.length(); i++) {
+        char c = change.entry.charAt(i);
+        long key = transitionKey(node, c);
+        int next = transitions.get(key);
+        if (next < 0) {
+          next = bases.size();
+          if (next >= Integer.MAX_VALUE - firstNode) {
+            throw new GateRuntimeException("Too many states for the changes of the gaz store, merge the changes first");
+          }
+          int baseState = bases.getInt(node);
+          bases.add(baseState < 0 ? -1 : below.nextState(baseState, c));
+          children.add(new CharArrayList());
+          removed.add(null);
+          added.add(null);
+          children.get(node).add(c);
+          transitions.put(key, next);
+        }
+        node = next;
+      }
+      List<OverlayLookup> addedLookups = added.get(node);
+      if (change.addition) {
+        OverlayLookup lookup = new OverlayLookup(change.listInfoIndex, change.keyvals);
+        if (!hasLookup(bases.getInt(node), removed.get(node), addedLookups, lookup)) {
+          if (addedLookups == null) {
+            addedLookups = new ArrayList<>();
+            added.set(node, addedLookups);
+          }
+          addedLookups.add(lookup);
+        }
+      } else {
+        IntOpenHashSet removedHere = removed.get(node);
+        if (removedHere == null) {
+          removedHere = new IntOpenHashSet();
+          removed.set(node, removedHere);
+        }
+        removedHere.add(change.listInfoIndex);
+        if (addedLookups != null) {
+          addedLookups.removeIf(l -> l.listInfoIndex == change.listInfoIndex);
+        }
+      }
+    }
+    int nrNodes = bases.size();
+    nodeBaseStates = bases.toIntArray();
+    nodeChars = new char[nrNodes][];
+    removedLists = new int[nrNodes][];
+    nodeLookups = new int[nrNodes][];
+    nodeFinal = new boolean[nrNodes];
+    List<OverlayLookup> allLookups = new ArrayList<>();
+    for (int node = 0; node < nrNodes; node++) {
+      char[] chars = children.get(node).toCharArray();
+      Arrays.sort(chars);
+      nodeChars[node] = chars;
+      if (removed.get(node) != null) {
+        int[] lists = removed.get(node).toIntArray();
+        Arrays.sort(lists);
+        removedLists[node] = lists;
+      }
+      List<OverlayLookup> addedLookups = added.get(node);
+      if (addedLookups != null && !addedLookups.isEmpty()) {
+        int[] numbers = new int[addedLookups.size()];
+        for (int i = 0; i < numbers.length; i++) {
+          numbers[i] = allLookups.size();
+          allLookups.add(addedLookups.get(i));
+        }
+        nodeLookups[node] = numbers;
+      }
+      nodeFinal[node] = nodeLookups[node] != null
+              || hasBaseLookups(nodeBaseStates[node], removedLists[node]);
+    }
+    lookups = allLookups.toArray(new OverlayLookup[allLookups.size()]);
+  }
+
+  /**
+   * Return a new overlay store for the same base store which has all the
+   * changes of this store followed by the given changes. The new changes 
+   * get combined with the top layers of this store which do not have more
+   * changes than them, all other layers are shared with this store.
+   *
+   * @param newChanges the changes to apply, in order
+   * @return the new overlay store
+   */
+  public GazStoreOverlay withChanges(List<Change> newChanges) {
+    if (newChanges.isEmpty()) {
+      return this;
+    }
+    List<Change> layerChanges = new ArrayList<>(newChanges);
+    GazStore target = this;
+    while (target instanceof GazStoreOverlay
+            && ((GazStoreOverlay) target).changes.size() <= layerChanges.size()) {
+      GazStoreOverlay lower = (GazStoreOverlay) target;
+      List<Change> combined = new ArrayList<>(lower.changes.size() + layerChanges.size());
+      combined.addAll(lower.changes);
+      combined.addAll(layerChanges);
+      layerChanges = combined;
+      target = lower.below;
+    }
+    return new GazStoreOverlay(baseStore, target, layerChanges);
+  }
+
+  public GazStore getBaseStore() {
+    return baseStore;
+  }
+
+  /**
+   * Return all the changes shown by this store, in the order they were applied.
+   *
+   * @return the changes, cannot be modified
+   */
+  public List<Change> getChanges() {
+    List<GazStoreOverlay> layers = new ArrayList<>();
+    for (GazStore layer = this; layer instanceof GazStoreOverlay; layer = ((GazStoreOverlay) layer).below) {
+      layers.add((GazStoreOverlay) layer);
+    }
+    List<Change> allChanges = new ArrayList<>(nrChanges);
+    for (int i = layers.size() - 1; i >= 0; i--) {
+      allChanges.addAll(layers.get(i).changes);
+    }
+    return Collections.unmodifiableList(allChanges);
+  }
+
+  /**
+   * Return the number of changes shown by this store.
+   *
+   * @return the number of changes
+   */
+  public int getNrChanges() {
+    return nrChanges;
+  }
+
+  /**
+   * Add all list infos and all lookups of this store, including the changes,
+   * to an empty store. The target store still needs to get compacted after this.
+   *
+   * @param target the store to fill
+   */
+  public void copyTo(GazStore target) {
+    for (ListInfo info : getListInfos()) {
+      target.addListInfo(info.getAnnotationType(), info.getSourceURL(), info.getFeatures());
+    }
+    // depth-first traversal, keeping the characters on the path in entry
+    IntArrayList stateStack = new IntArrayList();
+    IntArrayList depthStack = new IntArrayList();
+    CharArrayList charStack = new CharArrayList();
+    CharArrayList chars = new CharArrayList();
+    IntArrayList states = new IntArrayList();
+    IntArrayList refs = new IntArrayList();
+    char[] entry = new char[64];
+    stateStack.add(getInitialStateIndex());
+    depthStack.add(0);
+    charStack.add((char) 0);
+    while (!stateStack.isEmpty()) {
+      int last = stateStack.size() - 1;
+      int state = stateStack.removeInt(last);
+      int depth = depthStack.removeInt(last);
+      char c = charStack.removeChar(last);
+      if (depth > 0) {
+        if (depth > entry.length) {
+          entry = Arrays.copyOf(entry, entry.length * 2);
+        }
+        entry[depth - 1] = c;
+        if (isFinal(state)) {
+          String text = new String(entry, 0, depth);
+          refs.clear();
+          int n = addLookupRefs(state, refs);
+          for (int i = 0; i < n; i++) {
+            int ref = refs.getInt(i);
+            FeatureMap fm = Factory.newFeatureMap();
+            addLookupEntryFeatures(fm, ref);
+            String[] keyvals = new String[fm.size() * 2];
+            int k = 0;
+            for (Map.Entry<Object, Object> feature : fm.entrySet()) {
+              keyvals[k++] = feature.getKey().toString();
+              keyvals[k++] = feature.getValue().toString();
+            }
+            target.addLookup(text, getListInfoIndex(ref), keyvals);
+          }
+        }
+      }
+      chars.clear();
+      states.clear();
+      int n = addTransitions(state, chars, states);
+      // push in reverse so the entries get added in character order
+      for (int i = n - 1; i >= 0; i--) {
+        stateStack.add(states.getInt(i));
+        depthStack.add(depth + 1);
+        charStack.add(chars.getChar(i));
+      }
+    }
+  }
+
+  @Override
+  public int getInitialStateIndex() {
+    return firstNode;
+  }
+
+  @Override
+  public int nextState(int state, char c) {
+    if (state < firstNode) {
+      return below.nextState(state, c);
+    }
+    int node = state - firstNode;
+    int next = transitions.get(transitionKey(node, c));
+    if (next >= 0) {
+      return firstNode + next;
+    }
+    int baseState = nodeBaseStates[node];
+    return baseState < 0 ? -1 : below.nextState(baseState, c);
+  }
+
+  @Override
+  public boolean isFinal(int state) {
+    if (state < firstNode) {
+      return below.isFinal(state);
+    }
+    return nodeFinal[state - firstNode];
+  }
+
+  @Override
+  public Iterator<Lookup> getLookups(int state) {
+    if (state < firstNode) {
+      return below.getLookups(state);
+    }
+    int node = state - firstNode;
+    List<Lookup> result = new ArrayList<>();
+    int baseState = nodeBaseStates[node];
+    if (baseState >= 0 && below.isFinal(baseState)) {
+      Iterator<Lookup> baseLookups = below.getLookups(baseState);
+      while (baseLookups.hasNext()) {
+        Lookup lookup = baseLookups.next();
+        if (!isRemoved(removedLists[node], below.getListInfoIndex(lookup))) {
+          result.add(lookup);
+        }
+      }
+    }
+    if (nodeLookups[node] != null) {
+      for (int number : nodeLookups[node]) {
+        result.add(lookups[number]);
+      }
+    }
+    return result.iterator();
+  }
+
+  @Override
+  public int addTransitions(int state, CharArrayList chars, IntArrayList states) {
+    if (state < firstNode) {
+      return below.addTransitions(state, chars, states);
+    }
+    int node = state - firstNode;
+    char[] own = nodeChars[node];
+    CharArrayList baseChars = new CharArrayList();
+    IntArrayList baseStates = new IntArrayList();
+    int nrBase = 0;
+    if (nodeBaseStates[node] >= 0) {
+      nrBase = below.addTransitions(nodeBaseStates[node], baseChars, baseStates);
+    }
+    // merge both in character order, our own transitions replace those
+    // of the base state for the same character
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < nrBase || j < own.length) {
+      if (j >= own.length || (i < nrBase && baseChars.getChar(i) < own[j])) {
+        chars.add(baseChars.getChar(i));
+        states.add(baseStates.getInt(i));
+        i++;
+      } else {
+        if (i < nrBase && baseChars.getChar(i) == own[j]) {
+          i++;
+        }
+        chars.add(own[j]);
+        states.add(firstNode + transitions.get(transitionKey(node, own[j])));
+        j++;
+      }
+      n++;
+    }
+    return n;
+  }
+
+  @Override
+  public int getStateIndexLimit() {
+    return firstNode + nodeBaseStates.length;
+  }
+
+  @Override
+  public int addLookupRefs(int state, IntArrayList refs) {
+    if (state < firstNode) {
+      return below.addLookupRefs(state, refs);
+    }
+    int node = state - firstNode;
+    int from = refs.size();
+    int baseState = nodeBaseStates[node];
+    if (baseState >= 0 && below.isFinal(baseState)) {
+      below.addLookupRefs(baseState, refs);
+      int[] removed = removedLists[node];
+      if (removed != null) {
+        int to = from;
+        for (int i = from; i < refs.size(); i++) {
+          int ref = refs.getInt(i);
+          if (!isRemoved(removed, below.getListInfoIndex(ref))) {
+            refs.set(to++, ref);
+          }
+        }
+        refs.size(to);
+      }
+    }
+    if (nodeLookups[node] != null) {
+      for (int number : nodeLookups[node]) {
+        refs.add(-1 - (firstLookup + number));
+      }
+    }
+    return refs.size() - from;
+  }
+
+  @Override
+  public int getListInfoIndex(int lookupRef) {
+    int number = -1 - lookupRef - firstLookup;
+    if (number >= 0) {
+      return lookups[number].listInfoIndex;
+    }
+    return below.getListInfoIndex(lookupRef);
+  }
+
+  @Override
+  public void addLookupEntryFeatures(FeatureMap fm, int lookupRef) {
+    int number = -1 - lookupRef - firstLookup;
+    if (number >= 0) {
+      lookups[number].addFeatures(fm);
+    } else {
+      below.addLookupEntryFeatures(fm, lookupRef);
+    }
+  }
+
+  @Override
+  public int getListInfoIndex(Lookup lookup) {
+    if (lookup instanceof OverlayLookup) {
+      return ((OverlayLookup) lookup).listInfoIndex;
+    }
+    return baseStore.getListInfoIndex(lookup);
+  }
+
+  @Override
+  public void addLookupEntryFeatures(FeatureMap fm, Lookup lookup) {
+    if (lookup instanceof OverlayLookup) {
+      ((OverlayLookup) lookup).addFeatures(fm);
+    } else {
+      baseStore.addLookupEntryFeatures(fm, lookup);
+    }
+  }
+
+  @Override
+  public void addLookupListFeatures(FeatureMap fm, Lookup lookup) {
+    fm.putAll(getListInfo(lookup).getFeatures());
+  }
+
+  @Override
+  public String getLookupType(Lookup lookup) {
+    return getListInfo(lookup).getAnnotationType();
+  }
+
+  @Override
+  public ListInfo getListInfo(Lookup lookup) {
+    return getListInfo(getListInfoIndex(lookup));
+  }
+
+  @Override
+  public ListInfo getListInfo(int listInfoIndex) {
+    return baseStore.getListInfo(listInfoIndex);
+  }
+
+  @Override
+  public Collection<ListInfo> getListInfos() {
+    return baseStore.getListInfos();
+  }
+
+  @Override
+  public void addLookup(String entry, int lookupInfoIndex, String[] keyvalues) {
+    throw new GateRuntimeException("An overlay gaz store cannot be modified, use withChanges");
+  }
+
+  @Override
+  public int addListInfo(String annotationType, String string, FeatureMap listFeatures) {
+    throw new GateRuntimeException("Lists cannot be added to an overlay gaz store");
+  }
+
+  @Override
+  public Visitor getVisitor() {
+    return new OverlayVisitor();
+  }
+
+  @Override
+  public State getInitialState() {
+    return new OverlayState(getInitialStateIndex());
+  }
+
+  @Override
+  public Iterator<Lookup> getLookups(State matchingState) {
+    if (!(matchingState instanceof OverlayState) 
+            || ((OverlayState) matchingState).store() != this) {
+      throw new GateRuntimeException("Not a state of this overlay gaz store: " + matchingState);
+    }
+    return getLookups(((OverlayState) matchingState).index);
+  }
+
+  @Override
+  public String statsString() {
+    int nrLayers = 0;
+    for (GazStore layer = this; layer instanceof GazStoreOverlay; layer = ((GazStoreOverlay) layer).below) {
+      nrLayers++;
+    }
+    return baseStore.statsString() + "\nOverlay: " + nrChanges + " changes in " + nrLayers + " layers, "
+            + (getStateIndexLimit() - baseStore.getStateIndexLimit()) + " states, " 
+            + (firstLookup + lookups.length) + " added lookups";
+  }
+
+  @Override
+  public void compact() {
+    // nothing to do, the base store is compacted and the overlay is never modified
+  }
+
+  @Override
+  public void compact(int denseThreshold) {
+  }
+
+  @Override
+  public void save(File whereTo) {
+    throw new GateRuntimeException("An overlay gaz store cannot be saved, the changes must get merged first");
+  }
+
+  // A state object for the index of a state of this overlay
+  private class OverlayState extends State {
+    private final int index;
+
+    OverlayState(int index) {
+      this.index = index;
+    }
+
+    GazStoreOverlay store() {
+      return GazStoreOverlay.this;
+    }
+
+    @Override
+    public boolean isFinal() {
+      return GazStoreOverlay.this.isFinal(index);
+    }
+
+    @Override
+    public State next(char c) {
+      int next = nextState(index, c);
+      return next < 0 ? null : new OverlayState(next);
+    }
+
+    @Override
+    public String toString() {
+      return "OverlayState:" + index;
+    }
+  }
+
+  // A visitor which walks the states of this overlay by index
+  private class OverlayVisitor extends Visitor {
+    private int state = getInitialStateIndex();
+
+    @Override
+    public void reset() {
+      state = getInitialStateIndex();
+    }
+
+    @Override
+    public boolean match(char c) {
+      if (state >= 0) {
+        state = nextState(state, c);
+      }
+      return state >= 0;
+    }
+
+    @Override
+    public boolean isFinal() {
+      return state >= 0 && GazStoreOverlay.this.isFinal(state);
+    }
+
+    @Override
+    public Match getMatch() {
+      if (!isFinal()) {
+        return null;
+      }
+      List<Lookup> lookups = new ArrayList<>();
+      getLookups(state).forEachRemaining(lookups::add);
+      List<Lookup> matched = Collections.unmodifiableList(lookups);
+      return new Match() {
+        @Override
+        public List<Lookup> getLookups() {
+          return matched;
+        }
+      };
+    }
+  }
+
+  private static long transitionKey(int node, char c) {
+    return ((long) node << 16) | c;
+  }
+
+  private static boolean isRemoved(int[] removed, int listInfoIndex) {
+    return removed != null && Arrays.binarySearch(removed, listInfoIndex) >= 0;
+  }
+
+  // Check if the state below has lookups for any list which has not been removed
+  private boolean hasBaseLookups(int baseState, int[] removed) {
+    if (baseState < 0 || !below.isFinal(baseState)) {
+      return false;
+    }
+    if (removed == null) {
+      return true;
+    }
+    IntArrayList refs = new IntArrayList();
+    below.addLookupRefs(baseState, refs);
+    for (int i = 0; i < refs.size(); i++) {
+      if (!isRemoved(removed, below.getListInfoIndex(refs.getInt(i)))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Check if the lookup is already there, either among the lookups added
+  // so far or among the lookups of the state below which have not been removed
+  private boolean hasLookup(int baseState, IntOpenHashSet removed,
+          List<OverlayLookup> addedLookups, OverlayLookup lookup) {
+    Map<Object, Object> features = new HashMap<>();
+    for (int i = 0; i < lookup.keyvals.length; i += 2) {
+      features.put(lookup.keyvals[i], lookup.keyvals[i + 1]);
+    }
+    if (addedLookups != null) {
+      for (OverlayLookup other : addedLookups) {
+        if (other.listInfoIndex == lookup.listInfoIndex) {
+          FeatureMap fm = Factory.newFeatureMap();
+          other.addFeatures(fm);
+          if (features.equals(new HashMap<>(fm))) {
+            return true;
+          }
+        }
+      }
+    }
+    if (baseState < 0 || !below.isFinal(baseState)
+            || (removed != null && removed.contains(lookup.listInfoIndex))) {
+      return false;
+    }
+    IntArrayList refs = new IntArrayList();
+    below.addLookupRefs(baseState, refs);
+    for (int i = 0; i < refs.size(); i++) {
+      int ref = refs.getInt(i);
+      if (below.getListInfoIndex(ref) == lookup.listInfoIndex) {
+        FeatureMap fm = Factory.newFeatureMap();
+        below.addLookupEntryFeatures(fm, ref);
+        if (features.equals(new HashMap<>(fm))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
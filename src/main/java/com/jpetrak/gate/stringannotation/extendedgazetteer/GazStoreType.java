@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.extendedgazetteer;
+
+/**
+ * The implementation used for the GazStore of a gazetteer.
+ * <p>
+ * Trie: the GazStoreTrie3 which stores the trie nodes and char maps in the
+ * same character store as the lookups. DoubleArray: the GazStoreDoubleArray
+ * which converts the trie into a double array for faster matching, at the 
+ * cost of more memory. Dawg: the GazStoreDawg which merges the nodes of
+ * entries which end in the same suffix and have the same lookups, which 
+ * needs less memory for gazetteer lists without per-entry features.
+ */
+public enum GazStoreType {
+    Trie,
+    DoubleArray,
+    Dawg
+}
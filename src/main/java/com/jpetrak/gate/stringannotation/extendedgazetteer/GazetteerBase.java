@@ -27,14 +27,36 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
@@ -44,6 +66,8 @@ import javax.swing.Action;
 import org.apache.log4j.Logger;
 import org.yaml.snakeyaml.Yaml;
 
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreDawg;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreDoubleArray;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreTrie3;
 import com.jpetrak.gate.stringannotation.utils.UrlUtils;
 
@@ -128,12 +152,129 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
   }
 
   protected String gazetteerFeatureSeparator = "\\t";
+
+  @CreoleParameter(
+          comment = "Number of threads for reading and normalizing the list files when the gazetteer is created from the list files, 1 to load them one after the other",
+          defaultValue = "1"
+  )
+  @Optional
+  public void setLoadingThreads(Integer val) {
+    loadingThreads = val;
+  }
+
+  public Integer getLoadingThreads() {
+    return loadingThreads;
+  }
+  protected Integer loadingThreads = 1;
+
+  @CreoleParameter(
+          comment = "When the gazetteer is created, store the transitions of all trie nodes with at least this many transitions for Latin-1 characters as direct-indexed tables, 0 to never do this",
+          defaultValue = "0"
+  )
+  @Optional
+  public void setDenseTransitionsThreshold(Integer val) {
+    denseTransitionsThreshold = val;
+  }
+
+  public Integer getDenseTransitionsThreshold() {
+    return denseTransitionsThreshold;
+  }
+  protected Integer denseTransitionsThreshold = 0;
+
+  @CreoleParameter(
+          comment = "The implementation of the gazetteer store, DoubleArray is faster for matching but needs more memory, Dawg needs less memory",
+          defaultValue = "Trie"
+  )
+  @Optional
+  public void setGazStoreType(GazStoreType val) {
+    gazStoreType = val;
+  }
+
+  public GazStoreType getGazStoreType() {
+    return gazStoreType;
+  }
+  protected GazStoreType gazStoreType = GazStoreType.Trie;
+
+  @CreoleParameter(
+          comment = "Keep the characters of the gazetteer store in direct buffers outside of the Java heap, the size is then limited by -XX:MaxDirectMemorySize",
+          defaultValue = "false"
+  )
+  @Optional
+  public void setOffHeapStore(Boolean val) {
+    offHeapStore = val;
+  }
+
+  public Boolean getOffHeapStore() {
+    return offHeapStore;
+  }
+  protected Boolean offHeapStore = false;
+
+  @CreoleParameter(
+          comment = "Merge the changes applied with applyDelta into a new gazetteer store in the background once there are at least this many, 0 to only merge when mergeDeltas is called",
+          defaultValue = "10000"
+  )
+  @Optional
+  public void setDeltaMergeThreshold(Integer val) {
+    deltaMergeThreshold = val;
+  }
+
+  public Integer getDeltaMergeThreshold() {
+    return deltaMergeThreshold;
+  }
+  protected Integer deltaMergeThreshold = 10000;
+
+  @CreoleParameter(
+          comment = "Watch the config file and the list files and re-load the gazetteer in the background when they change, only for local files",
+          defaultValue = "false"
+  )
+  @Optional
+  public void setWatchSourceFiles(Boolean val) {
+    watchSourceFiles = val;
+  }
+
+  public Boolean getWatchSourceFiles() {
+    return watchSourceFiles;
+  }
+  protected Boolean watchSourceFiles = false;
+
+  @CreoleParameter(
+          comment = "When watching the source files, the time in milliseconds without further changes to wait for before re-loading",
+          defaultValue = "2000"
+  )
+  @Optional
+  public void setWatchDelay(Integer val) {
+    watchDelay = val;
+  }
+
+  public Integer getWatchDelay() {
+    return watchDelay;
+  }
+  protected Integer watchDelay = 2000;
+
   protected String unescapedSeparator = Strings.unescape("\\t");
   protected Locale caseConversionLocale = Locale.ENGLISH;
   protected Logger logger;
   //protected CharMapState initialState;
+  // The store used for the document which is being processed, set once at 
+  // the start of execute, so all of a document gets processed with the same
+  // store even if the store of the PR gets replaced in the meantime.
   protected GazStore gazStore;
+  // The current store of this PR, which can get replaced by other threads
+  private final transient AtomicReference<GazStoreUse> currentGazStore = new AtomicReference<>();
+  // runs the merges of the applied changes, created for the first merge
+  private transient ExecutorService deltaMerger;
+  // the merge of the applied changes which is running or has run last
+  private transient Future<GazStore> deltaMerge;
+  // watches the source files if watchSourceFiles is set
+  private transient SourceFileWatcher sourceFileWatcher;
   private static final int MAX_FEATURES_PER_ENTRY = 500;
+  private static final String[] NO_FEATURES = new String[0];
+  private static final String[] NO_ENTRIES = new String[0];
+  // for parallel loading: the number of entries passed from a loading thread 
+  // to the thread creating the trie at once and the number of such batches
+  // a loading thread can get ahead
+  private static final int LOADING_BATCH_SIZE = 4096;
+  private static final int LOADING_QUEUE_BATCHES = 16;
   protected static Pattern ws_pattern;
   protected static final String WS_CHARS
           = "\\u0009" // CHARACTER TABULATION
@@ -178,11 +319,163 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     ws_pattern = Pattern.compile(WS_PATTERNSTRING);
     // System.err.println("DEBUG: running init(), caseConversionLanguage is " + caseConversionLanguage);
     incrementGazStore();
+    if (watchSourceFiles != null && watchSourceFiles) {
+      startWatchingSourceFiles();
+    }
     return this;
   }
-  final protected static Map<String, GazStore> loadedGazStores = new HashMap<String, GazStore>();
 
-  public synchronized void incrementGazStore() throws ResourceInstantiationException {
+  private void startWatchingSourceFiles() throws ResourceInstantiationException {
+    URL cfgURL;
+    try {
+      cfgURL = configFileURL.toURL();
+    } catch (IOException ex) {
+      throw new ResourceInstantiationException("Could not get URL for " + configFileURL, ex);
+    }
+    if (!UrlUtils.isFile(cfgURL)) {
+      logger.warn("Not watching the gazetteer files, not a file URL: " + cfgURL);
+      return;
+    }
+    long delay = (watchDelay == null) ? 0 : watchDelay;
+    try {
+      sourceFileWatcher = new SourceFileWatcher("GazetteerWatcher",
+              () -> getSourceFiles(cfgURL), () -> reloadChangedSourceFiles(cfgURL), delay);
+    } catch (IOException ex) {
+      throw new ResourceInstantiationException("Could not watch the files of " + cfgURL, ex);
+    }
+  }
+
+  /**
+   * Return the local files the current store has been created from: the 
+   * config file and all list files which have file URLs.
+   */
+  private List<Path> getSourceFiles(URL cfgURL) {
+    List<Path> files = new ArrayList<>();
+    files.add(Files.fileFromURL(cfgURL).toPath());
+    for (ListInfo info : getGazStore().getListInfos()) {
+      try {
+        URL listURL = new URL(info.getSourceURL());
+        if (UrlUtils.isFile(listURL)) {
+          files.add(Files.fileFromURL(listURL).toPath());
+        }
+      } catch (MalformedURLException ex) {
+        logger.warn("Not watching list " + info.getSourceURL(), ex);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Called by the source file watcher after the source files have changed: 
+   * load a new store, the cache file is out of date and gets re-created.
+   * Documents get processed with the old store until that is done. If 
+   * loading fails, the old store is kept. 
+   */
+  private void reloadChangedSourceFiles(URL cfgURL) {
+    logger.info("Source files changed, re-loading gazetteer " + cfgURL);
+    try {
+      replaceGazStore();
+    } catch (ResourceInstantiationException | RuntimeException ex) {
+      logger.error("Could not re-load gazetteer " + cfgURL + ", keeping the old one", ex);
+    }
+  }
+  /**
+   * A gaz store shared by all the PRs which use the same configuration, 
+   * together with the number of PRs using it. 
+   * 
+   * The store is loaded by the first PR which needs it, all other PRs which 
+   * need the same store while it is still loading wait for that load instead 
+   * of starting their own. 
+   * 
+   * Once no PR uses the store any more, it gets closed, so that the cache
+   * file it may have been loaded from is not kept mapped as long as anything
+   * still refers to the store. 
+   */
+  protected static final class SharedGazStore {
+    final FutureTask<GazStore> loader;
+    final AtomicInteger refcount = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    SharedGazStore(FutureTask<GazStore> loader) {
+      this.loader = loader;
+    }
+
+    // close the store once, if it was loaded successfully
+    void close() {
+      if (!loader.isDone() || !closed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        loader.get().close();
+      } catch (InterruptedException | ExecutionException ex) {
+        // the store was never loaded, nothing to close
+      }
+    }
+  }
+
+  // All changes to the refcounts happen inside compute so that an entry 
+  // can never be removed while another PR is about to use it.
+  final protected static ConcurrentHashMap<String, SharedGazStore> loadedGazStores = new ConcurrentHashMap<>();
+
+  /**
+   * A gaz store as used by one PR: the registration of the PR for the shared
+   * store and the number of users of the store within the PR, which is one
+   * for being the current store of the PR plus one for each document being
+   * processed with it. Once there are no users left, the registration gets 
+   * released, so a store which gets replaced is only released once all
+   * documents which are being processed with it are finished.
+   */
+  protected static final class GazStoreUse {
+    final String key;
+    final SharedGazStore shared;
+    final GazStore store;
+    final AtomicInteger users = new AtomicInteger(1);
+
+    GazStoreUse(String key, SharedGazStore shared, GazStore store) {
+      this.key = key;
+      this.shared = shared;
+      this.store = store;
+    }
+
+    /**
+     * Return the store of this use.
+     * 
+     * @return the store
+     */
+    public GazStore getStore() {
+      return store;
+    }
+
+    /**
+     * Return the number of PRs which are still registered for the shared 
+     * store of this use.
+     * 
+     * @return the number of registrations, 0 once the store has been released
+     */
+    public int getNrRegistrations() {
+      return shared.refcount.get();
+    }
+
+    // add a user, unless all users are already gone
+    boolean tryAcquire() {
+      int n;
+      do {
+        n = users.get();
+        if (n <= 0) {
+          return false;
+        }
+      } while (!users.compareAndSet(n, n + 1));
+      return true;
+    }
+  }
+
+  /**
+   * Get the gaz store for the configuration of this PR, loading it if no 
+   * other PR has loaded it yet, and register this PR as one of its users.
+   * 
+   * @throws ResourceInstantiationException 
+   */
+  public void incrementGazStore() throws ResourceInstantiationException {
     // System.err.println("DEBUG running incrementGazStore");
     String uniqueGazStoreKey = genUniqueGazStoreKey();
     logger.info("Creating gazetteer for " + getConfigFileURL());
@@ -197,25 +490,33 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
        before = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
     }
 
-    GazStore gs = loadedGazStores.get(uniqueGazStoreKey);
-    if (gs != null) {
-      // The FSM for this file/parm combination already has been compiled, just
-      // reuse it for this PR
-      gazStore = gs;
-      gazStore.refcount++;
-      logger.info("Reusing already generated GazStore for " + uniqueGazStoreKey);
-    } else {
-      try {
-        loadData();
-        gazStore.compact();
-      } catch (ResourceInstantiationException | IOException ex) {
-        throw new ResourceInstantiationException("Could not load gazetteer", ex);
+    boolean[] created = new boolean[1];
+    SharedGazStore shared = loadedGazStores.compute(uniqueGazStoreKey, (key, existing) -> {
+      if (existing == null) {
+        existing = new SharedGazStore(new FutureTask<>(this::loadGazStore));
+        created[0] = true;
       }
-
-      gazStore.refcount++;
-      loadedGazStores.put(uniqueGazStoreKey, gazStore);
-      // System.err.println("DEBUG addeed new gaz store with key " + uniqueGazStoreKey);
+      existing.refcount.incrementAndGet();
+      return existing;
+    });
+    // this does nothing if the store has already been loaded or is being loaded
+    // by some other PR, in that case we just wait for the result
+    shared.loader.run();
+    GazStore store;
+    try {
+      store = waitForGazStore(shared.loader);
+    } catch (ResourceInstantiationException ex) {
+      // if loading failed, all waiting PRs give up their registration, so 
+      // the entry gets removed and the next PR which needs the store tries again
+      release(uniqueGazStoreKey, shared);
+      throw ex;
+    }
+    setCurrentGazStore(new GazStoreUse(uniqueGazStoreKey, shared, store));
+    gazStore = store;
+    if (created[0]) {
       logger.info("New GazStore loaded for " + uniqueGazStoreKey);
+    } else {
+      logger.info("Reusing already generated GazStore for " + uniqueGazStoreKey);
     }
 
     if (profile) {
@@ -229,7 +530,19 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     }
   }
 
-  public synchronized void replaceGazStore() throws ResourceInstantiationException {
+  /**
+   * Re-load the gaz store for the configuration of this PR from the files
+   * and make it the shared store for that configuration. 
+   * 
+   * Documents which are being processed while the new store gets loaded
+   * are processed with the old store, this PR gives up its registration
+   * for the old store once they are finished. Other PRs which use the old
+   * store continue to use it until they get re-initialized themselves, PRs 
+   * initialized after this will get the new store. 
+   * 
+   * @throws ResourceInstantiationException 
+   */
+  public void replaceGazStore() throws ResourceInstantiationException {
     String uniqueGazStoreKey = genUniqueGazStoreKey();
     logger.info("Replacing gazetteer for " + getConfigFileURL());
 
@@ -243,13 +556,13 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
        before = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
     }
 
-    try {
-      loadData();
-      gazStore.compact();
-    } catch (ResourceInstantiationException | IOException ex) {
-      throw new ResourceInstantiationException("Could not load gazetteer", ex);
+    FutureTask<GazStore> loader = new FutureTask<>(this::loadGazStore);
+    loader.run();
+    GazStore newGazStore = waitForGazStore(loader);
+    synchronized (this) {
+      // pending changes are lost, so a running merge must not use its result
+      publishGazStore(loader, newGazStore);
     }
-    loadedGazStores.put(uniqueGazStoreKey, gazStore);
     logger.info("GazStore replaced for " + uniqueGazStoreKey);
 
     if (profile) {
@@ -259,25 +572,336 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
        logger.info("Gazetteer created in (secs):          " + ((endTime - startTime) / 1000.0));
        logger.info("Heap memory increase (estimate,MB):   "
                + String.format("%01.3f", ((after - before) / (1024.0 * 1024.0))));
-       logger.info(gazStore.statsString());
+       logger.info(newGazStore.statsString());
+    }
+  }
+
+  /**
+   * Re-load the gaz store like replaceGazStore, but in a background thread, 
+   * so documents can still be processed with the old store in the meantime.
+   * 
+   * @return the running re-load, which returns the new store
+   */
+  public Future<GazStore> replaceGazStoreInBackground() {
+    FutureTask<GazStore> reload = new FutureTask<>(() -> {
+      replaceGazStore();
+      return getGazStore();
+    });
+    Thread loader = new Thread(reload, "GazetteerReloader");
+    loader.setDaemon(true);
+    loader.start();
+    return reload;
+  }
+
+  /**
+   * Return the current gaz store of this PR. This can be a different store
+   * than the one used for the document which is being processed.
+   * 
+   * @return the store, or null if the PR has no store
+   */
+  public GazStore getGazStore() {
+    GazStoreUse use = currentGazStore.get();
+    return (use == null) ? null : use.store;
+  }
+
+  /**
+   * Get the current gaz store of this PR for processing a document and make 
+   * it the store used by the matching methods. The store does not get 
+   * released before releaseGazStore is called for the returned use.
+   * 
+   * @return the use of the store, to pass to releaseGazStore
+   */
+  protected GazStoreUse acquireGazStore() {
+    while (true) {
+      GazStoreUse use = currentGazStore.get();
+      if (use == null) {
+        throw new GateRuntimeException("The gazetteer has no store, it has not been initialized or was cleaned up");
+      }
+      // this only fails if the store was replaced and released in the meantime
+      if (use.tryAcquire()) {
+        gazStore = use.store;
+        return use;
+      }
+    }
+  }
+
+  /**
+   * Give up the use of a gaz store, which gets released if it has been
+   * replaced and this was the last document processed with it.
+   * 
+   * @param use the use returned by acquireGazStore
+   */
+  protected void releaseGazStore(GazStoreUse use) {
+    if (use.users.decrementAndGet() == 0) {
+      release(use.key, use.shared);
+    }
+  }
+
+  // Replace the current store of this PR and give up the old one.
+  private void setCurrentGazStore(GazStoreUse use) {
+    GazStoreUse old = currentGazStore.getAndSet(use);
+    if (old != null) {
+      releaseGazStore(old);
     }
   }
 
-  public synchronized void decrementGazStore() {
-    // System.err.println("DEBUG:  running decrementGazStore, map contains: " + loadedGazStores.keySet());
+  // Make the store the one used by this PR and the shared store for its
+  // configuration. The loader must already have run and returned the store.
+  private void publishGazStore(FutureTask<GazStore> loader, GazStore store) {
     String key = genUniqueGazStoreKey();
-    // System.err.println("DEBUG: key for finding the gaz store: " + key);
-    GazStore gs = loadedGazStores.get(key);
-    // System.err.println("DEBUG got a gaz store: " + gs);
-    gs.refcount--;
-    if (gs.refcount == 0) {
-      // System.err.println("DEBUG: removing gaz store key");
-      loadedGazStores.remove(key);
-      logger.info("Removing GazStore for " + key);
+    SharedGazStore replacement = new SharedGazStore(loader);
+    // only this PR is registered for the new store, all other PRs keep 
+    // their registration for the old one
+    replacement.refcount.set(1);
+    loadedGazStores.put(key, replacement);
+    setCurrentGazStore(new GazStoreUse(key, replacement, store));
+  }
+
+  /**
+   * Apply the additions and removals in a delta file to the entries of one
+   * of the list files of this gazetteer, without re-loading the gazetteer.
+   * <p>
+   * The delta file is read as UTF-8. Empty lines and lines starting with "#"
+   * are ignored, all other lines must start with "+" or "-", followed by an
+   * entry in the same format as in a lst file:
+   * <ul>
+   * <li>"+entry", optionally followed by the separator and feature=value
+   * pairs, adds a lookup with these features for the entry, unless the
+   * entry already has such a lookup for the list file</li>
+   * <li>"-entry" removes all lookups of the entry for the list file,
+   * anything after a separator is ignored</li>
+   * </ul>
+   * The changes are applied in the order of the lines. They become visible
+   * to this PR once all of them have been applied and are shown by an overlay
+   * over the loaded store. Applying them takes time in proportion to the 
+   * number of changes, not to the size of the store, and documents which are
+   * being processed keep using the store they were started with. As long as
+   * there are changes which have not been merged, Aho-Corasick matching falls
+   * back to matching with the trie, which finds the same matches. Once there
+   * are at least deltaMergeThreshold changes, they get merged into a new 
+   * store in the background.
+   * <p>
+   * The changes only exist in this PR: all other PRs for the same 
+   * configuration, including those created later, use the store without 
+   * them, and re-initializing or re-loading this PR loads the store from 
+   * the files without them. The changes are not written to the list files 
+   * or the cache file.
+   *
+   * @param listFileName the list file as it is given in the def or defyaml file
+   * @param deltaURL the URL of the delta file
+   * @return the number of changes applied
+   * @throws IOException
+   */
+  public int applyDelta(String listFileName, URL deltaURL) throws IOException {
+    URI listURI = normalizedURI(new URL(configFileURL.toURL(), listFileName).toString());
+    int listInfoIndex = -1;
+    int index = 0;
+    for (ListInfo info : getGazStore().getListInfos()) {
+      if (listURI != null && listURI.equals(normalizedURI(info.getSourceURL()))) {
+        listInfoIndex = index;
+      }
+      index++;
+    }
+    if (listInfoIndex < 0) {
+      throw new GateRuntimeException("No list file " + listFileName + " in gazetteer " + configFileURL);
+    }
+    List<GazStoreOverlay.Change> changes = new ArrayList<>();
+    String[] featureBuffer = new String[MAX_FEATURES_PER_ENTRY * 2];
+    try (BufferedReader deltaReader = new BomStrippingInputStreamReader(deltaURL.openStream(), UTF8)) {
+      String line;
+      int lineNr = 0;
+      while (null != (line = deltaReader.readLine())) {
+        lineNr++;
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        boolean addition = line.charAt(0) == '+';
+        if (!addition && line.charAt(0) != '-') {
+          throw new GateRuntimeException("Line does not start with + or - in delta file " + deltaURL + " line " + lineNr);
+        }
+        String entry = line.substring(1);
+        String[] entryFeatures = NO_FEATURES;
+        int sepIndex = entry.indexOf(unescapedSeparator);
+        if (sepIndex > -1) {
+          if (addition) {
+            entryFeatures = parseEntryFeatures(entry, sepIndex, unescapedSeparator,
+                    deltaURL.toString(), lineNr, featureBuffer);
+          }
+          entry = entry.substring(0, sepIndex);
+        }
+        for (String normalized : normalizeEntry(entry)) {
+          if (addition) {
+            changes.add(GazStoreOverlay.Change.addition(normalized, listInfoIndex, entryFeatures));
+          } else {
+            changes.add(GazStoreOverlay.Change.removal(normalized, listInfoIndex));
+          }
+        }
+      }
+    }
+    applyChanges(changes);
+    return changes.size();
+  }
+
+  // The normalized URI for a URL so that different spellings of the same
+  // list URL compare equal, or null if it is not a valid URI
+  private static URI normalizedURI(String url) {
+    try {
+      return new URL(url).toURI().normalize();
+    } catch (MalformedURLException | URISyntaxException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Apply changes to the gaz store of this PR, see applyDelta.
+   *
+   * @param changes the changes for normalized entries, in the order to apply them
+   */
+  public synchronized void applyChanges(List<GazStoreOverlay.Change> changes) {
+    GazStoreUse use = currentGazStore.get();
+    if (use == null) {
+      throw new GateRuntimeException("The gazetteer has no store, it has not been initialized or was cleaned up");
     }
+    GazStoreOverlay overlay = (use.store instanceof GazStoreOverlay)
+            ? (GazStoreOverlay) use.store : new GazStoreOverlay(use.store);
+    overlay = overlay.withChanges(changes);
+    publishOverlay(use, overlay);
+    int threshold = (deltaMergeThreshold == null) ? 0 : deltaMergeThreshold;
+    if (threshold > 0 && overlay.getNrChanges() >= threshold) {
+      mergeDeltas();
+    }
+  }
+
+  /**
+   * Start merging all the changes applied so far into a new gaz store in
+   * a background thread. Until the merge is finished, this PR keeps using
+   * the overlay store. Changes applied while the merge is running get
+   * applied to the merged store once it is finished.
+   *
+   * @return the running merge, which returns the new store, or null if there are no changes
+   */
+  public synchronized Future<GazStore> mergeDeltas() {
+    if (deltaMerge != null && !deltaMerge.isDone()) {
+      return deltaMerge;
+    }
+    GazStore current = getGazStore();
+    if (!(current instanceof GazStoreOverlay)) {
+      return null;
+    }
+    GazStoreOverlay overlay = (GazStoreOverlay) current;
+    if (deltaMerger == null) {
+      deltaMerger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GazetteerMerger");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    // nobody may ever ask for the result of a merge started because of the 
+    // threshold, so a failure has to get logged here
+    deltaMerge = deltaMerger.submit(() -> {
+      try {
+        return mergeOverlay(overlay);
+      } catch (RuntimeException | Error ex) {
+        logger.error("Could not merge the applied changes into a new GazStore, keeping the overlay", ex);
+        throw ex;
+      }
+    });
+    return deltaMerge;
   }
 
-  public synchronized void removeGazStore() {
+  // Run in the merge thread: create a new store from the overlay and use it
+  // instead of the overlay
+  private GazStore mergeOverlay(GazStoreOverlay overlay) {
+    long startTime = System.currentTimeMillis();
+    GazStore merged = newGazStore();
+    overlay.copyTo(merged);
+    merged.compact(getDenseThreshold());
+    // if the store has been used for Aho-Corasick matching, create the 
+    // automaton for the merged store here instead of when the next document
+    // gets processed
+    if (overlay.getBaseStore().hasAhoCorasickAutomaton()) {
+      merged.getAhoCorasickAutomaton();
+    }
+    synchronized (this) {
+      GazStoreUse use = currentGazStore.get();
+      GazStore current = (use == null) ? null : use.store;
+      if (!(current instanceof GazStoreOverlay)
+              || ((GazStoreOverlay) current).getBaseStore() != overlay.getBaseStore()) {
+        logger.info("GazStore re-loaded while merging changes, merged store not used");
+        return current;
+      }
+      // the changes applied since the merge started come after the merged ones
+      List<GazStoreOverlay.Change> changes = ((GazStoreOverlay) current).getChanges();
+      int nrMerged = overlay.getNrChanges();
+      GazStore replacement = merged;
+      if (changes.size() > nrMerged) {
+        replacement = new GazStoreOverlay(merged).withChanges(changes.subList(nrMerged, changes.size()));
+      }
+      publishMergedGazStore(merged, replacement);
+      logger.info("Merged " + nrMerged + " changes into a new GazStore in (secs): "
+              + ((System.currentTimeMillis() - startTime) / 1000.0));
+      return replacement;
+    }
+  }
+
+  // Make the overlay the store used by this PR. The overlay is never 
+  // registered for the configuration, but this PR keeps its registration
+  // for the store the overlay is shown over.
+  private void publishOverlay(GazStoreUse current, GazStoreOverlay overlay) {
+    loadedGazStores.compute(current.key, (k, registered) -> {
+      current.shared.refcount.incrementAndGet();
+      return registered;
+    });
+    setCurrentGazStore(new GazStoreUse(current.key, current.shared, overlay));
+  }
+
+  // Make the store, which is the merged store or an overlay over it, the 
+  // store used by this PR. The merged store is never registered for the
+  // configuration, so it only has this PR as its user.
+  private void publishMergedGazStore(GazStore merged, GazStore store) {
+    FutureTask<GazStore> loaded = new FutureTask<>(() -> merged);
+    loaded.run();
+    SharedGazStore own = new SharedGazStore(loaded);
+    own.refcount.set(1);
+    setCurrentGazStore(new GazStoreUse(genUniqueGazStoreKey() + " merged", own, store));
+  }
+
+  /**
+   * Unregister this PR as a user of its gaz store. The store is removed
+   * once no PR uses it any more and no document is being processed with it. 
+   * Does nothing if this PR does not have a store.
+   */
+  public void decrementGazStore() {
+    GazStoreUse use = currentGazStore.getAndSet(null);
+    if (use != null) {
+      releaseGazStore(use);
+    }
+    gazStore = null;
+  }
+
+  // Give up one registration for the shared store and remove it if there 
+  // are no users left and it is still the one registered for the key.
+  // Once there are no users left, no PR can get the store any more, either
+  // because it has just been removed or because it had already been replaced,
+  // so it gets closed.
+  private void release(String key, SharedGazStore shared) {
+    loadedGazStores.compute(key, (k, current) -> {
+      if (shared.refcount.decrementAndGet() <= 0 && current == shared) {
+        logger.info("Removing GazStore for " + key);
+        return null;
+      }
+      return current;
+    });
+    if (shared.refcount.get() <= 0) {
+      shared.close();
+    }
+  }
+
+  /**
+   * Remove the gaz store for the configuration of this PR, no matter how many
+   * PRs use it. PRs which already use the store continue to use it.
+   */
+  public void removeGazStore() {
     // System.err.println("DEBUG: running removeGazStore()");
     String key = genUniqueGazStoreKey();
     // System.err.println("DEBUG: removing gazstore key: " + key);
@@ -285,8 +909,52 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     logger.info("reInit(): force-removing GazStore for " + key);
   }
 
+  protected GazStore newGazStore() {
+    if (gazStoreType == GazStoreType.DoubleArray) {
+      return new GazStoreDoubleArray(isOffHeap());
+    } else if (gazStoreType == GazStoreType.Dawg) {
+      return new GazStoreDawg(isOffHeap());
+    } else {
+      return new GazStoreTrie3(isOffHeap());
+    }
+  }
+
+  // the class of the stores created by newGazStore, taken from an empty 
+  // store so that it cannot differ from the stores which actually get created
+  protected Class<? extends GazStore> getGazStoreClass() {
+    return newGazStore().getClass();
+  }
+
+  private boolean isOffHeap() {
+    return (offHeapStore != null) && offHeapStore;
+  }
+
+  private int getDenseThreshold() {
+    return (denseTransitionsThreshold == null) ? 0 : denseTransitionsThreshold;
+  }
+
+  // Used as the task for loading a shared gaz store
+  private GazStore loadGazStore() throws IOException, ResourceInstantiationException {
+    GazStore store = loadData();
+    store.compact(getDenseThreshold());
+    return store;
+  }
+
+  private static GazStore waitForGazStore(FutureTask<GazStore> loader) throws ResourceInstantiationException {
+    try {
+      return loader.get();
+    } catch (ExecutionException ex) {
+      throw new ResourceInstantiationException("Could not load gazetteer", ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ResourceInstantiationException("Interrupted while waiting for the gazetteer to load", ex);
+    }
+  }
+
+
   protected String genUniqueGazStoreKey() {
-    String key = " cs=" + caseSensitive + " url=" + configFileURL + " lang=" + caseConversionLanguage;
+    String key = " cs=" + caseSensitive + " url=" + configFileURL + " lang=" + caseConversionLanguage
+            + " type=" + gazStoreType + " offHeap=" + isOffHeap() + " dense=" + getDenseThreshold();
     // System.err.println("DEBUG: generating the gaz store key: " + key);
     return key;
   }
@@ -294,11 +962,21 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
   @Override
   public void cleanup() {
     // System.err.println("DEBUG: running cleanup()");
+    if (sourceFileWatcher != null) {
+      sourceFileWatcher.close();
+      sourceFileWatcher = null;
+    }
+    synchronized (this) {
+      if (deltaMerger != null) {
+        deltaMerger.shutdownNow();
+        deltaMerger = null;
+      }
+    }
     decrementGazStore();
   }
 
   public void save(File whereTo) throws IOException {
-    gazStore.save(whereTo);
+    getGazStore().save(whereTo);
   }
 
   @Override
@@ -311,7 +989,14 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     replaceGazStore();
   }
 
-  protected void loadData() throws UnsupportedEncodingException, IOException, ResourceInstantiationException {
+  /**
+   * Load the gaz store for the configuration of this PR, from the cache file
+   * if there is one, otherwise from the list files. This does not change the
+   * store used by this PR.
+   * 
+   * @return the loaded store
+   */
+  protected GazStore loadData() throws UnsupportedEncodingException, IOException, ResourceInstantiationException {
     // if we find the cache file, load it, else load the original files and create the cache file
 
     //!File configFile = gate.util.Files.fileFromURL(configFileURL);
@@ -327,9 +1012,9 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
       throw new GateRuntimeException("Config file must have a .def or .defyaml extension");
     }
     if (ext.equals("def")) {
-      loadDataFromDef(configFileURL.toURL());
+      return loadDataFromDef(configFileURL.toURL());
     } else {
-      loadDataFromYaml(configFileURL.toURL());
+      return loadDataFromYaml(configFileURL.toURL());
     }
   }
 
@@ -342,89 +1027,102 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     return csIndicator+"_"+ccl;
   }
     
+  // the cache file for a double array or dawg gaz store gets an additional suffix,
+  // the cache files for a trie have the same names as before
+  public static String makeCacheKey(boolean caseSensitive, String caseConversionLanguage, GazStoreType type) {
+    String key = makeCacheKey(caseSensitive, caseConversionLanguage);
+    if (type == GazStoreType.DoubleArray) {
+      key = key + "_dat";
+    } else if (type == GazStoreType.Dawg) {
+      key = key + "_dawg";
+    }
+    return key;
+  }
+
+  // a store compacted with dense transition tables gets saved differently, 
+  // so its cache file gets the threshold as an additional suffix
+  public static String makeCacheKey(boolean caseSensitive, String caseConversionLanguage, 
+          GazStoreType type, int denseThreshold) {
+    String key = makeCacheKey(caseSensitive, caseConversionLanguage, type);
+    if (denseThreshold > 0) {
+      key = key + "_d" + denseThreshold;
+    }
+    return key;
+  }
+
+  /**
+   * Return the cache file for the given config file and the current settings.
+   */
+  protected File getCacheFile(File configFile) {
+    String configFileName = configFile.getAbsolutePath();
+    String gazbinFileName = configFileName.replaceAll("(?:\\.def|\\.defyaml)$", "_"+getCacheKey()+".gazbin");
+    if (configFileName.equals(gazbinFileName)) {
+      throw new GateRuntimeException("Config file must have def or defyaml extension!");
+    }
+    return new File(gazbinFileName);
+  }
+
   private String getCacheKey() {
-    return makeCacheKey(caseSensitive, caseConversionLanguage);
+    return makeCacheKey(caseSensitive, caseConversionLanguage, gazStoreType, getDenseThreshold());
   }
   
   
   
-  protected void loadDataFromDef(URL configFileURL) throws IOException {
+  protected GazStore loadDataFromDef(URL configFileURL) throws IOException {
     String configFileName = configFileURL.toExternalForm();
     String gazbinFileName = configFileName.replaceAll("\\.def$", "_"+getCacheKey()+".gazbin");
     if (configFileName.equals(gazbinFileName)) {
       throw new GateRuntimeException("Config file must have def or defyaml extension, not " + configFileURL);
     }
     URL gazbinURL = new URL(gazbinFileName);
-    gazStore = null;
-    if (UrlUtils.exists(gazbinURL)) {
-      // if something goes wrong loading the cache, this will show a message and return null
-      try {
-        gazStore = GazStoreTrie3.load(gazbinURL);
-      } catch (GateRuntimeException ex) {
-        ex.printStackTrace(System.err);
-        System.err.println("WARNING: loading from original files, could not load gazbin file "+gazbinURL);        
-      }
-    } 
-    if(gazStore == null) {
-      gazStore = new GazStoreTrie3();
-      try (BufferedReader defReader = new BomStrippingInputStreamReader((configFileURL).openStream(), UTF8)) {
-        String line;
-        //logger.info("Loading data");
-        while (null != (line = defReader.readLine())) {
-          String[] fields = line.split(":");
-          if (fields.length == 0) {
-            System.err.println("Empty line in file " + configFileURL);
-          } else {
-            String listFileName;
-            String majorType = "";
-            String minorType = "";
-            String languages = "";
-            String annotationType = ANNIEConstants.LOOKUP_ANNOTATION_TYPE;
-            listFileName = fields[0];
-            if (fields.length > 1) {
-              majorType = fields[1];
-            }
-            if (fields.length > 2) {
-              minorType = fields[2];
-            }
-            if (fields.length > 3) {
-              languages = fields[3];
-            }
-            if (fields.length > 4) {
-              annotationType = fields[4];
-            }
-            if (fields.length > 5) {
-              throw new GateRuntimeException("Line has more that 5 fields in def file " + configFileURL);
-            }
-            logger.debug("Reading from " + listFileName + ", " + majorType + "/" + minorType + "/" + languages + "/" + annotationType);
-            //logger.info("DEBUG: loading data from "+listFileName);
-            loadListFile(listFileName, majorType, minorType, languages, annotationType);
-          }
-        } //while
-      } // try
-      gazStore.compact();
-      logger.info("Gazetteer loaded from list files");
-
-      // only write the cache if we loaded the def file from an actual file, not
-      // some other URL
-      if (UrlUtils.isFile(gazbinURL)) {
-        File gazbinFile = Files.fileFromURL(gazbinURL);
-        if (gazbinFile.exists()) {
-          System.err.println("Warning: re-created cache but cache file already exists, please remove: " + gazbinURL);
+    // Always read the def file, the list files are needed to check the cache
+    List<ListFileSpec> listFiles = new ArrayList<>();
+    try (BufferedReader defReader = new BomStrippingInputStreamReader((configFileURL).openStream(), UTF8)) {
+      String line;
+      //logger.info("Loading data");
+      while (null != (line = defReader.readLine())) {
+        String[] fields = line.split(":");
+        if (fields.length == 0) {
+          System.err.println("Empty line in file " + configFileURL);
         } else {
-          try {
-            gazStore.save(gazbinFile);
-          } catch (IOException ex) {
-            ex.printStackTrace(System.err);
-            System.err.println("WARNING: error writing to " + gazbinURL + ", maybe not created or replaced or damaged!");
+          String listFileName;
+          String majorType = "";
+          String minorType = "";
+          String languages = "";
+          String annotationType = ANNIEConstants.LOOKUP_ANNOTATION_TYPE;
+          listFileName = fields[0];
+          if (fields.length > 1) {
+            majorType = fields[1];
           }
+          if (fields.length > 2) {
+            minorType = fields[2];
+          }
+          if (fields.length > 3) {
+            languages = fields[3];
+          }
+          if (fields.length > 4) {
+            annotationType = fields[4];
+          }
+          if (fields.length > 5) {
+            throw new GateRuntimeException("Line has more that 5 fields in def file " + configFileURL);
+          }
+          logger.debug("Reading from " + listFileName + ", " + majorType + "/" + minorType + "/" + languages + "/" + annotationType);
+          ListFileSpec spec = new ListFileSpec();
+          spec.listFileName = listFileName;
+          spec.majorType = majorType;
+          spec.minorType = minorType;
+          spec.languages = languages;
+          spec.annotationType = annotationType;
+          spec.gzipped = listFileName.endsWith(".gz");
+          listFiles.add(spec);
         }
-      }
-    } // gazbinFile exists ... else
+      } //while
+    } // try
+    return loadListFilesOrCache(gazbinURL, listFiles);
   }
 
   @SuppressWarnings("unchecked")
-  protected void loadDataFromYaml(URL configFileURL) throws IOException {
+  protected GazStore loadDataFromYaml(URL configFileURL) throws IOException {
     String configFileName = configFileURL.toExternalForm();
     String gazbinFileName = configFileName.replaceAll("\\.defyaml$", "_"+getCacheKey()+".gazbin");
     if (configFileName.equals(gazbinFileName)) {
@@ -438,9 +1136,11 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     // Always read the yaml file so we can get any special location of the cache
     // file or figure out that we should not try to load the cache file
     Yaml yaml = new Yaml();
-    BufferedReader yamlReader
-            = new BomStrippingInputStreamReader((configFileURL).openStream(), UTF8);
-    Object configObject = yaml.load(yamlReader);
+    Object configObject;
+    try (BufferedReader yamlReader
+            = new BomStrippingInputStreamReader((configFileURL).openStream(), UTF8)) {
+      configObject = yaml.load(yamlReader);
+    }
 
     List<Map<String, Object>> configListFiles = null;
     if (configObject instanceof Map) {
@@ -460,146 +1160,697 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     } else {
       throw new GateRuntimeException("Strange YAML format for the defyaml file " + configFileURL);
     }
+    if (configListFiles == null) {
+      throw new GateRuntimeException("No list files specified in the defyaml file " + configFileURL);
+    }
 
-    gazStore = null;
-    // if we want to load the cache and it exists, load it
-    if (UrlUtils.exists(gazbinURL) ) {
+    // go through all the list and tsv files to load
+    List<ListFileSpec> listFiles = new ArrayList<>();
+    for (Map<String, Object> configListFile : configListFiles) {
+      ListFileSpec spec = yaml2ListFileSpec(configListFile, configFileURL);
+      logger.debug("Reading from " + spec.listFileName + ", " + spec.format + "/" + spec.annotationType + "/" + spec.listFeatures);
+      listFiles.add(spec);
+    }
+    return loadListFilesOrCache(gazbinURL, listFiles);
+  }
+
+  /**
+   * Load the gaz store from the cache file if it has been created from the 
+   * same list files and settings, otherwise load the list files and replace
+   * the cache file with the new store.
+   * 
+   * @param gazbinURL the URL of the cache file
+   * @param listFiles the list files to load
+   * @return the loaded store
+   * @throws IOException 
+   */
+  protected GazStore loadListFilesOrCache(URL gazbinURL, List<ListFileSpec> listFiles) throws IOException {
+    String fingerprint = makeFingerprint(listFiles);
+    GazStore store = null;
+    if (UrlUtils.exists(gazbinURL)) {
+      // if something goes wrong loading the cache, show a message and re-create it
       try {
-        gazStore = GazStoreTrie3.load(gazbinURL);
-      } catch(GateRuntimeException ex) {
+        if (fingerprint.equals(GazStoreTrie3.readFingerprint(gazbinURL))) {
+          store = GazStoreTrie3.load(gazbinURL, isOffHeap());
+        } else {
+          logger.info("Cache file was created from different list files or settings, re-creating " + gazbinURL);
+        }
+      } catch (GateRuntimeException | IOException ex) {
         ex.printStackTrace(System.err);
         System.err.println("WARNING: loading from original files, could not load gazbin file "+gazbinURL);
       }
     }
-    if (gazStore == null) {
-      gazStore = new GazStoreTrie3();
-      // go through all the list and tsv files to load and load them
-      for (Map<String, Object> configListFile : configListFiles) {
-      } // TODO!!!
-      //logger.debug("Reading from "+listFileName+", "+majorType+"/"+minorType+"/"+languages+"/"+annotationType);
-      //logger.info("DEBUG: loading data from "+listFileName);
-      //loadListFile(listFileName,majorType,minorType,languages,annotationType);
-      //while
-      gazStore.compact();
+    if (store == null) {
+      store = newGazStore();
+      loadListFiles(store, listFiles);
+      store.compact(getDenseThreshold());
+      store.setFingerprint(fingerprint);
       logger.info("Gazetteer loaded from list files");
-
+      // only write the cache if we loaded the config file from an actual file, 
+      // not some other URL
       if (UrlUtils.isFile(gazbinURL)) {
-        File gazbinFile = Files.fileFromURL(gazbinURL);
-        if(gazbinFile.canWrite()) {
-          try {
-            if(gazbinFile.exists()) {
-              System.err.println("Warning: re-created cache but cache file already exists, please remove: "+gazbinURL);
-            } else {            
-              gazStore.save(gazbinFile);
-            }
-          } catch (IOException ex) {
-            ex.printStackTrace(System.err);
-            System.err.println("WARNING: error writing to "+gazbinURL+", not created or replaced!");            
-          }
+        saveCacheFile(store, Files.fileFromURL(gazbinURL));
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Save the store to the cache file, replacing any existing cache file. 
+   * The store is saved to a temporary file first which then gets moved 
+   * over the cache file, so that stores which still use the memory mapped 
+   * old cache file are not affected and a failed save does not leave a 
+   * damaged cache file behind.
+   */
+  private void saveCacheFile(GazStore store, File gazbinFile) {
+    File gazbinDirFile = gazbinFile.getAbsoluteFile().getParentFile();
+    if (gazbinDirFile == null || !gazbinDirFile.canWrite()) {
+      System.err.println("WARNING: cannot write to " + gazbinFile + ", not created or replaced!");
+      return;
+    }
+    File tmpFile = null;
+    try {
+      tmpFile = File.createTempFile(gazbinFile.getName(), ".tmp", gazbinDirFile);
+      store.save(tmpFile);
+      try {
+        java.nio.file.Files.move(tmpFile.toPath(), gazbinFile.toPath(), 
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        java.nio.file.Files.move(tmpFile.toPath(), gazbinFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace(System.err);
+      System.err.println("WARNING: error writing to " + gazbinFile + ", not created or replaced!");
+      if (tmpFile != null) {
+        tmpFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Create the fingerprint of the list files and all the settings which 
+   * influence the content of the gaz store. This includes the size and last
+   * modification time of each list file, so that a changed list file makes
+   * the cache file out of date.
+   * 
+   * @param listFiles the list files to load
+   * @return a hex encoded SHA-256 hash
+   * @throws IOException 
+   */
+  protected String makeFingerprint(List<ListFileSpec> listFiles) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("version=").append(GazStoreTrie3.GAZBIN_VERSION)
+            .append("\nclass=").append(getGazStoreClass().getName())
+            .append("\ncaseSensitive=").append(caseSensitive)
+            .append("\nlanguage=").append(caseConversionLanguage)
+            .append("\nseparator=").append(unescapedSeparator)
+            .append("\ndense=").append(getDenseThreshold());
+    for (ListFileSpec spec : listFiles) {
+      URL lurl = new URL(configFileURL.toURL(), spec.listFileName);
+      // sorted, so the order in which the features were set does not matter
+      Map<String, Object> listFeatures = new TreeMap<>();
+      for (Map.Entry<Object, Object> feature : spec.getListFeatures().entrySet()) {
+        listFeatures.put(String.valueOf(feature.getKey()), feature.getValue());
+      }
+      sb.append("\nlist=").append(lurl)
+              .append(" format=").append(spec.format)
+              .append(" gzipped=").append(spec.gzipped)
+              .append(" encoding=").append(spec.encoding)
+              .append(" type=").append(spec.annotationType)
+              .append(" features=").append(listFeatures)
+              .append(" separator=").append(spec.separator)
+              .append(" columns=").append(Arrays.toString(spec.columns))
+              .append(" entryColumn=").append(spec.entryColumn);
+      if (UrlUtils.isFile(lurl)) {
+        File listFile = Files.fileFromURL(lurl);
+        sb.append(" size=").append(listFile.length())
+                .append(" modified=").append(listFile.lastModified());
+      } else {
+        // only the headers are needed: for http(s), a HEAD request is made, 
+        // for other URLs the connection gets opened, but nothing is read 
+        // and the connection is closed again
+        URLConnection connection = lurl.openConnection();
+        if (connection instanceof HttpURLConnection) {
+          ((HttpURLConnection) connection).setRequestMethod("HEAD");
+        }
+        sb.append(" size=").append(connection.getContentLengthLong())
+                .append(" modified=").append(connection.getLastModified());
+        if (connection instanceof HttpURLConnection) {
+          ((HttpURLConnection) connection).disconnect();
         } else {
-          System.err.println("WARNING: cannot write to "+gazbinURL+", not created or replaced!");
+          connection.getInputStream().close();
         }
       }
     }
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(UTF8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : hash) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new GateRuntimeException("Could not create the fingerprint of the list files", ex);
+    }
   }
 
-  void loadListFile(String listFileName, String majorType, String minorType,
-          String languages, String annotationType)
-          throws MalformedURLException, IOException {
-
-    //logger.info("Loading list file "+listFileName);
-    URL lurl = new URL(configFileURL.toURL(), listFileName);
+  /**
+   * The information about one list file to load, from one line of a def
+   * file or one entry of a defyaml file.
+   */
+  protected static class ListFileSpec {
+    /** The list file, relative to the config file. */
+    String listFileName;
+    /** For a def file: the major type, minor type and languages of the list. */
+    String majorType;
+    String minorType;
+    String languages;
+    String annotationType = ANNIEConstants.LOOKUP_ANNOTATION_TYPE;
+    /** One of lst, tsv or csv. */
+    String format = "lst";
+    boolean gzipped;
+    String encoding = UTF8;
+    /** For a defyaml file: the features of the list. */
     FeatureMap listFeatures = Factory.newFeatureMap();
-    listFeatures.put(LOOKUP_MAJOR_TYPE_FEATURE_NAME, majorType);
-    listFeatures.put(LOOKUP_MINOR_TYPE_FEATURE_NAME, minorType);
-    if (languages != null) {
-      listFeatures.put(LOOKUP_LANGUAGE_FEATURE_NAME, languages);
-    }
-    int infoIndex = gazStore.addListInfo(annotationType, lurl.toString(), listFeatures);
-    //Lookup defaultLookup = new Lookup(listFileName, majorType, minorType, 
-    //        languages, annotationType);
-    BufferedReader listReader;
-    if (listFileName.endsWith(".gz")) {
-      listReader = new BufferedReader(new InputStreamReader(new GZIPInputStream(lurl.openStream()), UTF8));
-    } else {
-      listReader = new BomStrippingInputStreamReader(lurl.openStream(), UTF8);
+    /** The separator to use, if null, the default for the format. */
+    String separator;
+    /** For tsv/csv: the names of the columns, if null, taken from the first row. */
+    String[] columns;
+    /** For tsv/csv: the name or (0-based) number of the column containing the entry. */
+    Object entryColumn = 0;
+
+    /**
+     * Return the features of the list: the major type, minor type and 
+     * languages which are set, followed by the list features.
+     * 
+     * @return a new feature map
+     */
+    FeatureMap getListFeatures() {
+      FeatureMap features = Factory.newFeatureMap();
+      if (majorType != null) {
+        features.put(LOOKUP_MAJOR_TYPE_FEATURE_NAME, majorType);
+      }
+      if (minorType != null) {
+        features.put(LOOKUP_MINOR_TYPE_FEATURE_NAME, minorType);
+      }
+      if (languages != null) {
+        features.put(LOOKUP_LANGUAGE_FEATURE_NAME, languages);
+      }
+      features.putAll(listFeatures);
+      return features;
+    }
+  }
+
+  /**
+   * Receives the entries of a list file as they are read.
+   * 
+   * The entryFeatures array can be re-used by the caller for the next entry, 
+   * so it must be copied if it needs to be kept after returning.
+   */
+  protected interface ListEntryConsumer {
+    void accept(String entry, String[] entryFeatures) throws InterruptedException;
+  }
+
+  @SuppressWarnings("unchecked")
+  protected ListFileSpec yaml2ListFileSpec(Map<String, Object> config, URL configFileURL) {
+    Object file = config.get("file");
+    if (file == null) {
+      throw new GateRuntimeException("List file entry without a file in the defyaml file " + configFileURL + ": " + config);
+    }
+    ListFileSpec spec = new ListFileSpec();
+    spec.listFileName = file.toString();
+    spec.gzipped = spec.listFileName.endsWith(".gz");
+    for (Map.Entry<String, Object> setting : config.entrySet()) {
+      String key = setting.getKey();
+      Object value = setting.getValue();
+      switch (key) {
+        case "file":
+          break;
+        case "format":
+          spec.format = value.toString();
+          if (!(spec.format.equals("lst") || spec.format.equals("tsv") || spec.format.equals("csv"))) {
+            throw new GateRuntimeException("Format must be one of lst, tsv or csv for " + file + " in defyaml file " + configFileURL);
+          }
+          break;
+        case "gzip":
+          spec.gzipped = Boolean.parseBoolean(value.toString());
+          break;
+        case "encoding":
+          spec.encoding = value.toString();
+          break;
+        case "annotationType":
+          spec.annotationType = value.toString();
+          break;
+        case "features":
+          if (!(value instanceof Map)) {
+            throw new GateRuntimeException("Features must be a map for " + file + " in defyaml file " + configFileURL);
+          }
+          spec.listFeatures.putAll((Map<Object, Object>) value);
+          break;
+        case "separator":
+          spec.separator = Strings.unescape(value.toString());
+          break;
+        case "columns":
+          if (!(value instanceof List)) {
+            throw new GateRuntimeException("Columns must be a list for " + file + " in defyaml file " + configFileURL);
+          }
+          List<Object> columns = (List<Object>) value;
+          spec.columns = new String[columns.size()];
+          for (int i = 0; i < spec.columns.length; i++) {
+            spec.columns[i] = columns.get(i).toString();
+          }
+          break;
+        case "entryColumn":
+          spec.entryColumn = value;
+          break;
+        default:
+          throw new GateRuntimeException("Unknown setting " + key + " for " + file + " in defyaml file " + configFileURL);
+      }
     }
+    if (spec.format.equals("lst") && (spec.columns != null || config.containsKey("entryColumn"))) {
+      throw new GateRuntimeException("Columns can only be specified for tsv or csv files: " + file + " in defyaml file " + configFileURL);
+    }
+    return spec;
+  }
+
+  /**
+   * Load all the given list files into the store. 
+   * 
+   * If more than one loading thread is configured, the list files get read
+   * and parsed in parallel, but the entries are still added to the store by 
+   * the calling thread, one list file after the other in the order of the 
+   * def file, so the result is identical to loading the files sequentially.
+   * In both cases, each entry gets added with addLookup(GazStore, ...).
+   * 
+   * @param store the store to add the lists to
+   * @param listFiles
+   * @throws IOException 
+   */
+  protected void loadListFiles(GazStore store, List<ListFileSpec> listFiles) throws IOException {
+    int nrThreads = (loadingThreads == null) ? 1 : loadingThreads;
+    try {
+      if (nrThreads <= 1 || listFiles.size() < 2) {
+        for (ListFileSpec spec : listFiles) {
+          URL lurl = new URL(configFileURL.toURL(), spec.listFileName);
+          int infoIndex = store.addListInfo(spec.annotationType, lurl.toString(), spec.getListFeatures());
+          int lines = readListFile(spec, lurl, (entry, entryFeatures) -> addLookup(store, entry, infoIndex, entryFeatures));
+          logger.debug("Lines read: " + lines);
+        }
+      } else {
+        loadListFilesParallel(store, listFiles, Math.min(nrThreads, listFiles.size()));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new GateRuntimeException("Interrupted while loading list files", ex);
+    }
+  }
+
+  private void loadListFilesParallel(GazStore store, List<ListFileSpec> listFiles, int nrThreads) 
+          throws IOException, InterruptedException {
+    logger.info("Loading " + listFiles.size() + " list files using " + nrThreads + " threads");
+    final AtomicInteger threadNr = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(nrThreads, r -> {
+      Thread t = new Thread(r, "GazetteerLoader-" + threadNr.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      // The tasks are started in the order of the list files and consumed in
+      // the same order, so the list file we are waiting for is always either
+      // already finished or running
+      List<Integer> infoIndices = new ArrayList<>(listFiles.size());
+      List<BlockingQueue<EntryBatch>> queues = new ArrayList<>(listFiles.size());
+      for (ListFileSpec spec : listFiles) {
+        URL lurl = new URL(configFileURL.toURL(), spec.listFileName);
+        infoIndices.add(store.addListInfo(spec.annotationType, lurl.toString(), spec.getListFeatures()));
+        BlockingQueue<EntryBatch> queue = new ArrayBlockingQueue<>(LOADING_QUEUE_BATCHES);
+        queues.add(queue);
+        pool.execute(() -> parseListFile(spec, lurl, queue));
+      }
+      for (int i = 0; i < listFiles.size(); i++) {
+        int infoIndex = infoIndices.get(i);
+        BlockingQueue<EntryBatch> queue = queues.get(i);
+        EntryBatch batch;
+        do {
+          batch = queue.take();
+          if (batch.error != null) {
+            if (batch.error instanceof IOException) {
+              throw (IOException) batch.error;
+            } else if (batch.error instanceof RuntimeException) {
+              throw (RuntimeException) batch.error;
+            } else {
+              throw new GateRuntimeException("Error loading list file " + listFiles.get(i).listFileName, batch.error);
+            }
+          }
+          for (int j = 0; j < batch.size; j++) {
+            addLookup(store, batch.entries[j], infoIndex, batch.features[j]);
+          }
+        } while (!batch.last);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * A batch of entries passed from a loading thread to the thread that adds
+   * them to the store. 
+   */
+  private static final class EntryBatch {
+    final String[] entries = new String[LOADING_BATCH_SIZE];
+    final String[][] features = new String[LOADING_BATCH_SIZE][];
+    int size = 0;
+    boolean last = false;
+    Throwable error;
+  }
+
+  // Run in a loading thread: read and parse the entries of a list file and 
+  // pass them on in batches. Any error is passed on as the last batch.
+  private void parseListFile(ListFileSpec spec, URL lurl, BlockingQueue<EntryBatch> queue) {
+    EntryBatch[] batch = new EntryBatch[]{new EntryBatch()};
+    try {
+      int lines = readListFile(spec, lurl, (entry, entryFeatures) -> {
+        // the features array may get re-used by the reader, so we need our own copy
+        String[] features = (entryFeatures.length == 0) ? NO_FEATURES : entryFeatures.clone();
+        EntryBatch current = batch[0];
+        if (current.size == LOADING_BATCH_SIZE) {
+          queue.put(current);
+          current = new EntryBatch();
+          batch[0] = current;
+        }
+        current.entries[current.size] = entry;
+        current.features[current.size] = features;
+        current.size++;
+      });
+      logger.debug("Lines read: " + lines);
+      batch[0].last = true;
+      queue.put(batch[0]);
+    } catch (InterruptedException ex) {
+      // the loading has been aborted, nobody is waiting for our batches any more
+      Thread.currentThread().interrupt();
+    } catch (Throwable ex) {
+      EntryBatch errorBatch = new EntryBatch();
+      errorBatch.error = ex;
+      errorBatch.last = true;
+      try {
+        queue.put(errorBatch);
+      } catch (InterruptedException ex2) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Read all the entries from a list file and pass them on to the consumer.
+   * 
+   * @param spec the list file and how to read it
+   * @param lurl the URL of the list file
+   * @param consumer receives the entries and their features 
+   * @return the number of lines read
+   * @throws IOException
+   * @throws InterruptedException if the consumer was interrupted
+   */
+  protected int readListFile(ListFileSpec spec, URL lurl, ListEntryConsumer consumer) 
+          throws IOException, InterruptedException {
+    try (BufferedReader listReader = openListFile(lurl, spec)) {
+      if (spec.format.equals("lst")) {
+        return readLstEntries(spec, listReader, consumer);
+      } else {
+        return readColumnEntries(spec, listReader, consumer);
+      }
+    }
+  }
+
+  private int readLstEntries(ListFileSpec spec, BufferedReader listReader, ListEntryConsumer consumer) 
+          throws IOException, InterruptedException {
+    String separator = (spec.separator != null) ? spec.separator : unescapedSeparator;
     String line;
     int lines = 0;
-    String[] entryFeatures;
+    String[] featureBuffer = new String[MAX_FEATURES_PER_ENTRY * 2];
     while (null != (line = listReader.readLine())) {
-      entryFeatures = new String[0];
       lines++;
       String entry = line;
+      String[] entryFeatures = NO_FEATURES;
       // check if we have a separator in the line, if yes, we should take
       // the part before the first separator to be the entry and extract
       // the features from everything that comes after it.
       // All this only, if the separator is set at all
-      if (unescapedSeparator != null) {
-        int firstSepIndex = line.indexOf(unescapedSeparator);
+      if (separator != null) {
+        int firstSepIndex = line.indexOf(separator);
         if (firstSepIndex > -1) {          
           entry = line.substring(0, firstSepIndex);          
-          // split the rest of the line real fast
-          int lastSepIndex = firstSepIndex;
-          int nrFeatures = 0;
-          String[] featureBuffer = new String[MAX_FEATURES_PER_ENTRY * 2];
-          int nextSepIndex = 0;
-          do {
-            //logger.info("Feature nr: "+(nrFeatures+1));
-            // check if we already have maximum number of features allows
-            if (nrFeatures == MAX_FEATURES_PER_ENTRY) {
-              throw new GateRuntimeException(
-                      "More than " + MAX_FEATURES_PER_ENTRY + " features in gazetteer entry in list " + listFileName
-                      + " line " + lines);
-            }
-            // get the index of the next separator
-            nextSepIndex = line.indexOf(unescapedSeparator, lastSepIndex + 1);
-            if (nextSepIndex < 0) { // if none found, use beyond end of String
-              nextSepIndex = line.length();
-            }
-            // first of all, check if the field between the last and next seps is zero length, if yes
-            // just ignore it (see issue #24
-            if (nextSepIndex-lastSepIndex == 1) {
-              lastSepIndex = nextSepIndex;
-              continue;
-            }
-            // find the first equals character in the string section for this feature
-            int equalsIndex = line.indexOf('=', lastSepIndex + 1);
-            //logger.info("lastSepIndex="+lastSepIndex+", nextSepIndex="+nextSepIndex+", equalsIndex="+equalsIndex);
-            // if we do not find one or only after the end of this feature string,
-            // make a fuss about it
-            if (equalsIndex < 0 || equalsIndex >= nextSepIndex) {
-              throw new GateRuntimeException(
-                      "Not a proper feature=value in gazetteer list " + listFileName
-                      + " line " + lines + "\nlooking at " + line.substring(lastSepIndex, nextSepIndex)
-                      + " lastSepIndex is " + lastSepIndex
-                      + " nextSepIndex is " + nextSepIndex
-                      + " equals at " + equalsIndex);
+          entryFeatures = parseEntryFeatures(line, firstSepIndex, separator, spec.listFileName, lines, featureBuffer);
+        }
+      } // have separator 
+      consumer.accept(entry, entryFeatures);
+    } // while
+    return lines;
+  }
+
+  // Read a tsv or csv file: one column is the entry, all other columns are
+  // features named after the column. The features array is re-used for all rows.
+  private int readColumnEntries(ListFileSpec spec, BufferedReader listReader, ListEntryConsumer consumer) 
+          throws IOException, InterruptedException {
+    boolean csv = spec.format.equals("csv");
+    String separator = spec.separator;
+    if (separator == null) {
+      separator = csv ? "," : "\t";
+    }
+    if (csv && separator.length() != 1) {
+      throw new GateRuntimeException("The separator for a csv file must be a single character: " + spec.listFileName);
+    }
+    List<String> fields = new ArrayList<>();
+    int lines = 0;
+    String[] columns = spec.columns;
+    String line;
+    if (columns == null) {
+      line = listReader.readLine();
+      if (line == null) {
+        return lines;
+      }
+      lines++;
+      splitRow(line, separator, csv, fields);
+      columns = fields.toArray(new String[fields.size()]);
+    }
+    int entryColumn = -1;
+    if (spec.entryColumn instanceof Integer) {
+      entryColumn = (Integer) spec.entryColumn;
+    } else {
+      for (int i = 0; i < columns.length; i++) {
+        if (columns[i].equals(spec.entryColumn.toString())) {
+          entryColumn = i;
+        }
+      }
+    }
+    if (entryColumn < 0 || entryColumn >= columns.length) {
+      throw new GateRuntimeException("Entry column " + spec.entryColumn + " not found in the columns of " + spec.listFileName);
+    }
+    String[] entryFeatures = new String[(columns.length - 1) * 2];
+    for (int i = 0, k = 0; i < columns.length; i++) {
+      if (i != entryColumn) {
+        entryFeatures[k] = columns[i];
+        k += 2;
+      }
+    }
+    while (null != (line = listReader.readLine())) {
+      lines++;
+      if (line.isEmpty()) {
+        continue;
+      }
+      splitRow(line, separator, csv, fields);
+      if (fields.size() > columns.length) {
+        throw new GateRuntimeException("More than " + columns.length + " columns in list file " 
+                + spec.listFileName + " line " + lines);
+      }
+      if (entryColumn >= fields.size()) {
+        throw new GateRuntimeException("No entry in list file " + spec.listFileName + " line " + lines);
+      }
+      for (int i = 0, k = 1; i < columns.length; i++) {
+        if (i != entryColumn) {
+          entryFeatures[k] = (i < fields.size()) ? fields.get(i) : "";
+          k += 2;
+        }
+      }
+      consumer.accept(fields.get(entryColumn), entryFeatures);
+    }
+    return lines;
+  }
+
+  /**
+   * Split a row of a tsv or csv file into the fields list. For csv, fields 
+   * can be quoted with double quotes and a double quote inside a quoted field
+   * is written as two double quotes. Fields cannot span several lines.
+   * 
+   * @param line the row
+   * @param separator the field separator
+   * @param csv if quoting should be recognized
+   * @param fields the list to receive the fields, will get cleared first
+   */
+  protected static void splitRow(String line, String separator, boolean csv, List<String> fields) {
+    fields.clear();
+    if (!csv) {
+      int from = 0;
+      int to;
+      while ((to = line.indexOf(separator, from)) >= 0) {
+        fields.add(line.substring(from, to));
+        from = to + separator.length();
+      }
+      fields.add(line.substring(from));
+      return;
+    }
+    char sep = separator.charAt(0);
+    int i = 0;
+    int len = line.length();
+    while (true) {
+      if (i < len && line.charAt(i) == '"') {
+        StringBuilder sb = new StringBuilder();
+        i++;
+        while (i < len) {
+          char c = line.charAt(i);
+          if (c == '"') {
+            if (i + 1 < len && line.charAt(i + 1) == '"') {
+              sb.append('"');
+              i += 2;
+            } else {
+              i++;
+              break;
             }
-            // add the key/value to the features string array: 
-            // key to even positions, starting with 0, value to uneven starting with 1 
-            nrFeatures++;
-            featureBuffer[nrFeatures * 2 - 2] = line.substring(lastSepIndex + 1, equalsIndex);
-            featureBuffer[nrFeatures * 2 - 1] = line.substring(equalsIndex + 1, nextSepIndex);
-            lastSepIndex = nextSepIndex;
-          } while (nextSepIndex < line.length());
-          if (nrFeatures > 0) {
-            entryFeatures = new String[nrFeatures * 2];
-            System.arraycopy(featureBuffer, 0, entryFeatures, 0, entryFeatures.length);
           } else {
-            entryFeatures = new String[0];
+            sb.append(c);
+            i++;
           }
         }
-      } // have separator 
-      // entry Features are passed as null if there are no entry features
-      addLookup(entry, infoIndex, entryFeatures);
-    } // while
-    listReader.close();
-    //logger.info("DEBUG: lines read "+lines);
-    logger.debug("Lines read: " + lines);
+        // anything between the closing quote and the next separator is ignored
+        int next = line.indexOf(sep, i);
+        fields.add(sb.toString());
+        if (next < 0) {
+          return;
+        }
+        i = next + 1;
+      } else {
+        int next = line.indexOf(sep, i);
+        if (next < 0) {
+          fields.add(line.substring(i));
+          return;
+        }
+        fields.add(line.substring(i, next));
+        i = next + 1;
+      }
+    }
+  }
+
+  private BufferedReader openListFile(URL lurl, ListFileSpec spec) throws IOException {
+    if (spec.gzipped) {
+      return new BufferedReader(new InputStreamReader(new GZIPInputStream(lurl.openStream()), spec.encoding));
+    } else {
+      return new BomStrippingInputStreamReader(lurl.openStream(), spec.encoding);
+    }
+  }
+
+  /**
+   * Parse the features which follow the entry in a line of a list file. 
+   * 
+   * The featureBuffer is used as scratch space and can be re-used for all
+   * lines of a list file, the returned array is always a new one. 
+   * 
+   * @param line the line of the list file
+   * @param firstSepIndex the index of the separator after the entry 
+   * @param separator the separator between the entry and the features
+   * @param listFileName the list file name, for error messages
+   * @param lineNr the line number, for error messages
+   * @param featureBuffer scratch buffer of MAX_FEATURES_PER_ENTRY*2 elements 
+   * @return the alternating keys and values of the features
+   */
+  protected String[] parseEntryFeatures(String line, int firstSepIndex, String separator,
+          String listFileName, int lineNr, String[] featureBuffer) {
+    // split the rest of the line real fast
+    int lastSepIndex = firstSepIndex;
+    int nrFeatures = 0;
+    int nextSepIndex = 0;
+    do {
+      //logger.info("Feature nr: "+(nrFeatures+1));
+      // check if we already have maximum number of features allows
+      if (nrFeatures == MAX_FEATURES_PER_ENTRY) {
+        throw new GateRuntimeException(
+                "More than " + MAX_FEATURES_PER_ENTRY + " features in gazetteer entry in list " + listFileName
+                + " line " + lineNr);
+      }
+      // get the index of the next separator
+      nextSepIndex = line.indexOf(separator, lastSepIndex + 1);
+      if (nextSepIndex < 0) { // if none found, use beyond end of String
+        nextSepIndex = line.length();
+      }
+      // first of all, check if the field between the last and next seps is zero length, if yes
+      // just ignore it (see issue #24
+      if (nextSepIndex-lastSepIndex == 1) {
+        lastSepIndex = nextSepIndex;
+        continue;
+      }
+      // find the first equals character in the string section for this feature
+      int equalsIndex = line.indexOf('=', lastSepIndex + 1);
+      //logger.info("lastSepIndex="+lastSepIndex+", nextSepIndex="+nextSepIndex+", equalsIndex="+equalsIndex);
+      // if we do not find one or only after the end of this feature string,
+      // make a fuss about it
+      if (equalsIndex < 0 || equalsIndex >= nextSepIndex) {
+        throw new GateRuntimeException(
+                "Not a proper feature=value in gazetteer list " + listFileName
+                + " line " + lineNr + "\nlooking at " + line.substring(lastSepIndex, nextSepIndex)
+                + " lastSepIndex is " + lastSepIndex
+                + " nextSepIndex is " + nextSepIndex
+                + " equals at " + equalsIndex);
+      }
+      // add the key/value to the features string array: 
+      // key to even positions, starting with 0, value to uneven starting with 1 
+      nrFeatures++;
+      featureBuffer[nrFeatures * 2 - 2] = line.substring(lastSepIndex + 1, equalsIndex);
+      featureBuffer[nrFeatures * 2 - 1] = line.substring(equalsIndex + 1, nextSepIndex);
+      lastSepIndex = nextSepIndex;
+    } while (nextSepIndex < line.length());
+    if (nrFeatures > 0) {
+      String[] entryFeatures = new String[nrFeatures * 2];
+      System.arraycopy(featureBuffer, 0, entryFeatures, 0, entryFeatures.length);
+      return entryFeatures;
+    } else {
+      return NO_FEATURES;
+    }
   }
 
   public void addLookup(String text, int listInfoIndex, String[] entryFeatures) {
+    // the store used for the current document may already have been replaced
+    GazStore store = getGazStore();
+    if (store == null) {
+      throw new GateRuntimeException("The gazetteer has no store, it has not been initialized or was cleaned up");
+    }
+    addLookup(store, text, listInfoIndex, entryFeatures);
+  } // addLookup
+
+  /**
+   * Add the lookup for an entry of a list file to the store. All entries get
+   * added with this method, also when the list files are loaded by several 
+   * threads, and always from the thread which loads the gazetteer.
+   * 
+   * @param store the store to add the lookup to
+   * @param text the entry as found in the list file
+   * @param listInfoIndex the index of the list info of the list file
+   * @param entryFeatures the features of the entry as key/value pairs
+   */
+  protected void addLookup(GazStore store, String text, int listInfoIndex, String[] entryFeatures) {
+    for (String entry : normalizeEntry(text)) {
+      store.addLookup(entry, listInfoIndex, entryFeatures);
+    }
+  }
+
+  /**
+   * Return the strings that should get added to the store for an entry.
+   * 
+   * This is an empty array if nothing should get added, otherwise one or 
+   * two normalized versions of the entry. This does not modify any state and 
+   * can be used from several threads at once.
+   * 
+   * @param text the entry as found in the list file
+   * @return the normalized entries to add
+   */
+  protected String[] normalizeEntry(String text) {
     // 1) instead of translating every character that is not within a word
     // on the fly when adding states, first normalize the text string and then
     // trim it. If the resulting word is empty, skip the whole processing because
@@ -615,7 +1866,7 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     textNormalized = ws_pattern.matcher(textNormalized).replaceAll(" ");
     if (textNormalized.isEmpty()) {
       //logger.info("Ignoring, is empty");
-      return;
+      return NO_ENTRIES;
     }
 
     // TODO: at some point this should get changed to allow for both totally
@@ -632,22 +1883,20 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
     if (!caseSensitive) {
       String textNormalizedUpper = textNormalized.toUpperCase(caseConversionLocale);
       if (textNormalizedUpper.length() != textNormalized.length()) {
-        gazStore.addLookup(textNormalizedUpper, listInfoIndex, entryFeatures);
         char[] textChars2 = new char[textNormalized.length()];
         for (int i = 0; i < textNormalized.length(); i++) {
           textChars2[i] = Character.toUpperCase(textNormalized.charAt(i));
         }
-        gazStore.addLookup(new String(textChars2), listInfoIndex, entryFeatures);
+        return new String[]{textNormalizedUpper, new String(textChars2)};
       } else {
         // if both version are of the same length, it is sufficient to add the 
         // upper case version
-        gazStore.addLookup(textNormalizedUpper, listInfoIndex, entryFeatures);
+        return new String[]{textNormalizedUpper};
       }
     } else {
-      gazStore.addLookup(textNormalized, listInfoIndex, entryFeatures);
+      return new String[]{textNormalized};
     }
-
-  } // addLookup
+  } // normalizeEntry
 
   /**
    * For a given lookups iterator, return a list of feature maps filled with the
@@ -703,14 +1952,7 @@ public abstract class GazetteerBase extends AbstractLanguageAnalyser implements
           if (!UrlUtils.isFile(cfgURL)) {
             System.err.println("Could not re-initialize, not a file URL");
           }
-          File configFile = gate.util.Files.fileFromURL(cfgURL);
-          String configFileName = configFile.getAbsolutePath();
-          String gazbinFileName = configFileName.replaceAll("(?:\\.def$|\\.defyaml)", "_"+getCacheKey()+".gazbin");
-          if (configFileName.equals(gazbinFileName)) {
-            throw new GateRuntimeException("Config file must have def or defyaml extension!");
-          }
-          File gazbinFile = new File(gazbinFileName);
-          gazbinFile.delete();
+          getCacheFile(gate.util.Files.fileFromURL(cfgURL)).delete();
           try {
             reInit();
           } catch (ResourceInstantiationException ex) {
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI).
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.extendedgazetteer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.log4j.Logger;
+
+/**
+ * Watches a set of files and runs an action in its own thread once they
+ * have changed.
+ * <p>
+ * Changes are collected until no file has changed for the given delay, so
+ * that a list release which replaces many files only runs the action once.
+ * The directories of the files get watched, since a file which is replaced
+ * by moving another file over it does not get any events itself. After the
+ * action has run, the set of files is requested again, so files which have
+ * been added by the change get watched too.
+ */
+public class SourceFileWatcher implements Closeable {
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final Supplier<Collection<Path>> files;
+  private final Runnable action;
+  private final long delay;
+  private final WatchService watchService;
+  private final Thread thread;
+  // the absolute paths of the watched files and their watched directories
+  private final Set<Path> watchedFiles = new HashSet<>();
+  private final Set<Path> watchedDirs = new HashSet<>();
+
+  /**
+   * Start watching the files.
+   *
+   * @param name the name of the watcher thread
+   * @param files returns the files to watch, called again after each action
+   * @param action the action to run after the files have changed
+   * @param delay the time in milliseconds without further changes to wait
+   * for before running the action
+   * @throws IOException
+   */
+  public SourceFileWatcher(String name, Supplier<Collection<Path>> files, Runnable action, long delay)
+          throws IOException {
+    this.files = files;
+    this.action = action;
+    this.delay = delay;
+    watchService = FileSystems.getDefault().newWatchService();
+    watchFiles();
+    thread = new Thread(this::run, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void watchFiles() throws IOException {
+    // if the files cannot be found out, keep watching the old ones
+    Collection<Path> currentFiles = files.get();
+    watchedFiles.clear();
+    for (Path file : currentFiles) {
+      Path path = file.toAbsolutePath().normalize();
+      watchedFiles.add(path);
+      Path dir = path.getParent();
+      if (dir != null && watchedDirs.add(dir)) {
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+      }
+    }
+  }
+
+  private void run() {
+    boolean changed = false;
+    long lastChange = 0;
+    try {
+      while (true) {
+        WatchKey key;
+        if (changed) {
+          long wait = lastChange + delay - System.currentTimeMillis();
+          key = (wait > 0) ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+        } else {
+          key = watchService.take();
+        }
+        if (key == null) {
+          // nothing has changed for the delay
+          changed = false;
+          runAction();
+          continue;
+        }
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          // if events got lost, we cannot know which files have changed
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                  || watchedFiles.contains(dir.resolve((Path) event.context()))) {
+            changed = true;
+            lastChange = System.currentTimeMillis();
+          }
+        }
+        key.reset();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ex) {
+      // we have been closed
+    }
+  }
+
+  private void runAction() {
+    try {
+      action.run();
+    } catch (RuntimeException ex) {
+      logger.error("Error processing the changed files, still watching them", ex);
+    }
+    try {
+      watchFiles();
+    } catch (IOException | RuntimeException ex) {
+      // e.g. the store is gone after a cleanup or a failed re-load
+      logger.error("Could not watch all the changed files", ex);
+    }
+  }
+
+  /**
+   * Stop watching the files. An action which is already running is not
+   * interrupted.
+   */
+  @Override
+  public void close() {
+    try {
+      watchService.close();
+    } catch (IOException ex) {
+      logger.error("Could not close the watch service", ex);
+    }
+  }
+}
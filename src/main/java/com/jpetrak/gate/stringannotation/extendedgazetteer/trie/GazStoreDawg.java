@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.extendedgazetteer.trie;
+
+import gate.util.GateRuntimeException;
+import org.apache.log4j.Logger;
+
+/**
+ * A GazStore which stores the trie as a minimized acyclic automaton (DAWG).
+ * <p>
+ * The gaz store gets created in exactly the same way as a GazStoreTrie3, 
+ * but when it is compacted, all nodes which have the same lookups and 
+ * the same transitions to the same nodes get merged into one node, so 
+ * entries which end in the same suffix and have the same lookups share
+ * the nodes for that suffix. The minimized automaton is stored in a new 
+ * data store, using exactly the same state representation as the 
+ * GazStoreTrie3, so matching, saving and loading work in the same way.
+ * <p>
+ * Since a node can be reached by several different prefixes, the nodes
+ * of the automaton do not correspond to prefixes any more, which is why 
+ * this store should not be used with Aho-Corasick matching: the automaton
+ * for that gets created from the paths of the store and would be just as big
+ * as for the trie.
+ * <p>
+ * For the same reason, no lookups can be added once the store has been 
+ * compacted: the final node of an entry may be shared by other entries, 
+ * which would all get the new lookup. Changes to a compacted store have 
+ * to be applied with GazetteerBase.applyChanges, which shows them in a 
+ * GazStoreOverlay over the store.
+ */
+public class GazStoreDawg extends GazStoreTrie3 {
+
+  private static final long serialVersionUID = 6105482391650773417L;
+  
+  public GazStoreDawg() {
+  }
+  
+  public GazStoreDawg(boolean offHeap) {
+    super(offHeap);
+  }
+  
+  @Override
+  public void addLookup(String text, int infoIndex, String[] entryFeatures) {
+    if(statesStore.getCompactedCharMaps() != null) {
+      throw new GateRuntimeException("Cannot add a lookup to a compacted GazStoreDawg, use GazetteerBase.applyChanges or a GazStoreOverlay instead");
+    }
+    super.addLookup(text, infoIndex, entryFeatures);
+  }
+  
+  @Override
+  public void compact(int denseThreshold) {
+    if(statesStore.getCompactedCharMaps() == null) {
+      // the old trie must be compacted so we can get the transitions in 
+      // character order
+      statesStore.compact();
+      minimize(denseThreshold);
+    }
+    super.compact(denseThreshold);
+  }
+  
+  // Create the minimized automaton from the trie: the nodes of the trie get
+  // visited depth first, so that all the entries are processed in sorted 
+  // order, and each node gets replaced by an equivalent node of the new
+  // automaton once all its children have been replaced. Two nodes are 
+  // equivalent if they have the same lookups and the same transitions.
+  protected void minimize(int denseThreshold) {
+    long start = System.currentTimeMillis();
+    Logger logger = Logger.getLogger(this.getClass().getName());
+    int nrNodes = statesStore.nrNodes;
+    rebuild(denseThreshold, true);
+    long end = System.currentTimeMillis();
+    logger.info("Minimized trie from "+nrNodes+" to "+statesStore.nrNodes+
+            " nodes in (secs): "+((end-start)/1000.0));
+  }
+  
+}
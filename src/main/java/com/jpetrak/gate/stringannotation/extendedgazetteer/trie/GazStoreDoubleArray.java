@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2010- Austrian Research Institute for Artificial Intelligence (OFAI). 
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.extendedgazetteer.trie;
+
+import com.jpetrak.gate.stringannotation.extendedgazetteer.Lookup;
+import gate.util.GateRuntimeException;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import org.apache.log4j.Logger;
+
+/**
+ * A GazStore which uses a double-array trie for matching.
+ * <p>
+ * The gaz store gets created in exactly the same way as a GazStoreTrie3, 
+ * but when it is compacted, the trie gets converted into a double array: 
+ * each character is mapped to a code greater than zero and for a node s, 
+ * the transition for the character with code c goes to node t=base[s]+c 
+ * if check[t] == s. This needs just a few array accesses per character.
+ * The lookups are still stored in the data store of the GazStoreTrie3
+ * and the State based methods still use the states of the GazStoreTrie3.
+ * <p>
+ * Before compaction, the int state based methods use the states of the 
+ * GazStoreTrie3, afterwards they use the nodes of the double array, with
+ * node 0 being the initial state.
+ * <p>
+ * A lookup added after compaction gets added to the GazStoreTrie3 and the 
+ * node of the entry gets the new lookup index of its state.
+ */
+public class GazStoreDoubleArray extends GazStoreTrie3 {
+
+  private static final long serialVersionUID = 2873569436520127384L;
+  
+  // the code for each character, 0 for all characters which do not 
+  // occur in any transition
+  protected char[] charCodes;
+  protected int nrCodes;
+  // the double array, base and check, for each node
+  protected int[] base;
+  protected int[] check;
+  // for each node, the lookup index in the data store, or -1
+  protected int[] lookups;
+  // for each node, the state of the GazStoreTrie3, or -1 for unused entries
+  protected int[] trieStates;
+  
+  public GazStoreDoubleArray() {
+  }
+  
+  public GazStoreDoubleArray(boolean offHeap) {
+    super(offHeap);
+  }
+  
+  @Override
+  public void addLookup(String text, int infoIndex, String[] entryFeatures) {
+    super.addLookup(text, infoIndex, entryFeatures);
+    if(base == null) {
+      return;
+    }
+    // the state of the entry may have got a different list or may have
+    // become final, so update the lookups of its node. The compacted trie
+    // cannot get new states, so the node always exists.
+    int node = 0;
+    for(int i = 0; i < text.length(); i++) {
+      node = nextState(node, text.charAt(i));
+    }
+    lookups[node] = statesStore.getLookupIndex(trieStates[node]);
+  }
+  
+  @Override
+  public int getInitialStateIndex() {
+    if(base == null) {
+      return super.getInitialStateIndex();
+    }
+    return 0;
+  }
+  
+  @Override
+  public int nextState(int state, char c) {
+    int[] b = base;
+    if(b == null) {
+      return super.nextState(state, c);
+    }
+    int code = charCodes[c];
+    if(code == 0) {
+      return -1;
+    }
+    int next = b[state] + code;
+    return check[next] == state ? next : -1;
+  }
+  
+  @Override
+  public boolean isFinal(int state) {
+    if(base == null) {
+      return super.isFinal(state);
+    }
+    return lookups[state] >= 0;
+  }
+  
+  @Override
+  public Iterator<Lookup> getLookups(int state) {
+    if(base == null) {
+      return super.getLookups(state);
+    }
+    return new OurLookupIterator(lookups[state]);
+  }
+  
+  @Override
+  public int addLookupRefs(int state, IntArrayList refs) {
+    if(base == null) {
+      return super.addLookupRefs(state, refs);
+    }
+    return dataStore.addListDataIndices(lookups[state], refs);
+  }
+  
+  @Override
+  public int addTransitions(int state, CharArrayList chars, IntArrayList states) {
+    if(base == null) {
+      return super.addTransitions(state, chars, states);
+    }
+    // get the characters from the trie, in character order, and find the 
+    // nodes in the double array
+    int from = chars.size();
+    int n = super.addTransitions(trieStates[state], chars, states);
+    for(int i = from; i < from+n; i++) {
+      states.set(i, base[state] + charCodes[chars.getChar(i)]);
+    }
+    return n;
+  }
+  
+  @Override
+  public int getStateIndexLimit() {
+    if(base == null) {
+      return super.getStateIndexLimit();
+    }
+    return base.length;
+  }
+  
+  @Override
+  public void compact(int denseThreshold) {
+    super.compact(denseThreshold);
+    if(base == null) {
+      createDoubleArray();
+    }
+  }
+  
+  @Override
+  public String statsString() {
+    String stats = super.statsString();
+    if(base != null) {
+      stats = stats + "\nDouble array size: "+base.length+", character codes: "+nrCodes;
+    }
+    return stats;
+  }
+  
+  // Create the double array from the compacted trie
+  protected void createDoubleArray() {
+    long start = System.currentTimeMillis();
+    CharArrayList chars = new CharArrayList();
+    IntArrayList states = new IntArrayList();
+    // First assign the codes: the most frequent characters get the smallest 
+    // codes, which makes it easier to pack the array.
+    int[] frequencies = new int[Character.MAX_VALUE+1];
+    IntArrayList queue = new IntArrayList();
+    queue.add(initialState);
+    for(int i = 0; i < queue.size(); i++) {
+      chars.clear();
+      states.clear();
+      int n = super.addTransitions(queue.getInt(i), chars, states);
+      for(int j = 0; j < n; j++) {
+        frequencies[chars.getChar(j)]++;
+        queue.add(states.getInt(j));
+      }
+    }
+    Integer[] byFrequency = new Integer[frequencies.length];
+    for(int c = 0; c < byFrequency.length; c++) {
+      byFrequency[c] = c;
+    }
+    Arrays.sort(byFrequency, (c1, c2) -> Integer.compare(frequencies[c2], frequencies[c1]));
+    charCodes = new char[Character.MAX_VALUE+1];
+    nrCodes = 0;
+    for(Integer c : byFrequency) {
+      if(frequencies[c] == 0) {
+        break;
+      }
+      nrCodes++;
+      charCodes[c] = (char)nrCodes;
+    }
+    // Now place the nodes breadth-first: for each node, find the smallest
+    // base such that the entries for all its transitions are still unused.
+    int size = Math.max(16, queue.size()*2);
+    base = new int[size];
+    check = new int[size];
+    lookups = new int[size];
+    trieStates = new int[size];
+    Arrays.fill(check, -1);
+    Arrays.fill(lookups, -1);
+    Arrays.fill(trieStates, -1);
+    BitSet used = new BitSet(size);
+    used.set(0);
+    trieStates[0] = initialState;
+    lookups[0] = statesStore.getLookupIndex(initialState);
+    int firstFree = 1;
+    int maxBase = 0;
+    IntArrayList nodes = new IntArrayList();
+    nodes.add(0);
+    for(int i = 0; i < nodes.size(); i++) {
+      int node = nodes.getInt(i);
+      chars.clear();
+      states.clear();
+      int n = super.addTransitions(trieStates[node], chars, states);
+      if(n == 0) {
+        continue;
+      }
+      int minCode = Integer.MAX_VALUE;
+      for(int j = 0; j < n; j++) {
+        minCode = Math.min(minCode, charCodes[chars.getChar(j)]);
+      }
+      firstFree = used.nextClearBit(firstFree);
+      int b;
+      for(int pos = Math.max(firstFree, minCode); ; pos = used.nextClearBit(pos+1)) {
+        b = pos - minCode;
+        boolean fits = true;
+        for(int j = 0; j < n; j++) {
+          if(used.get(b + charCodes[chars.getChar(j)])) {
+            fits = false;
+            break;
+          }
+        }
+        if(fits) {
+          break;
+        }
+      }
+      base[node] = b;
+      maxBase = Math.max(maxBase, b);
+      ensureSize(b + nrCodes + 1);
+      for(int j = 0; j < n; j++) {
+        int child = b + charCodes[chars.getChar(j)];
+        int childState = states.getInt(j);
+        used.set(child);
+        check[child] = node;
+        trieStates[child] = childState;
+        lookups[child] = statesStore.getLookupIndex(childState);
+        nodes.add(child);
+      }
+    }
+    // make sure base[s]+c is a valid index for every node s and code c
+    int finalSize = Math.max(used.length(), maxBase + nrCodes + 1);
+    base = Arrays.copyOf(base, finalSize);
+    check = Arrays.copyOf(check, finalSize);
+    lookups = Arrays.copyOf(lookups, finalSize);
+    trieStates = Arrays.copyOf(trieStates, finalSize);
+    long end = System.currentTimeMillis();
+    Logger.getLogger(this.getClass().getName()).info("Double array with "+nodes.size()+
+            " nodes and size "+finalSize+" created in (secs): "+((end-start)/1000.0));
+  }
+  
+  private void ensureSize(int minSize) {
+    int size = base.length;
+    if(minSize <= size) {
+      return;
+    }
+    int newSize = Math.max(minSize, size + (size >> 1));
+    base = Arrays.copyOf(base, newSize);
+    check = Arrays.copyOf(check, newSize);
+    lookups = Arrays.copyOf(lookups, newSize);
+    trieStates = Arrays.copyOf(trieStates, newSize);
+    Arrays.fill(check, size, newSize, -1);
+    Arrays.fill(lookups, size, newSize, -1);
+    Arrays.fill(trieStates, size, newSize, -1);
+  }
+  
+  // The double array gets saved after the data of the GazStoreTrie3: 
+  // the number of character codes, the characters in code order, the size
+  // of the double array and the base, check, lookups and trieStates arrays.
+  
+  @Override
+  protected void writeExtraData(FileChannel out) throws IOException {
+    DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+    dout.writeInt(nrCodes);
+    char[] codeChars = new char[nrCodes+1];
+    for(int c = 0; c < charCodes.length; c++) {
+      codeChars[charCodes[c]] = (char)c;
+    }
+    for(int code = 1; code <= nrCodes; code++) {
+      dout.writeChar(codeChars[code]);
+    }
+    dout.writeInt(base.length);
+    for(int[] array : new int[][]{base, check, lookups, trieStates}) {
+      for(int value : array) {
+        dout.writeInt(value);
+      }
+    }
+    // do not close the stream, this would close the channel
+    dout.flush();
+  }
+  
+  @Override
+  protected void readExtraData(DataInputStream in, URL whereFrom) throws IOException {
+    nrCodes = in.readInt();
+    if(nrCodes < 0 || nrCodes > Character.MAX_VALUE) {
+      throw new GateRuntimeException("Invalid double array data, try removing the cache file "+whereFrom);
+    }
+    charCodes = new char[Character.MAX_VALUE+1];
+    for(int code = 1; code <= nrCodes; code++) {
+      charCodes[in.readChar()] = (char)code;
+    }
+    int size = in.readInt();
+    int[][] arrays = new int[4][size];
+    for(int[] array : arrays) {
+      for(int i = 0; i < size; i++) {
+        array[i] = in.readInt();
+      }
+    }
+    base = arrays[0];
+    check = arrays[1];
+    lookups = arrays[2];
+    trieStates = arrays[3];
+  }
+  
+}
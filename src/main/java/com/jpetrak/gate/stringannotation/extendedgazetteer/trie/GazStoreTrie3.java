@@ -25,20 +25,36 @@ import static org.junit.Assert.assertEquals;
 import gate.FeatureMap;
 import gate.util.GateRuntimeException;
 import gate.util.MethodNotImplementedException;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
+import gate.Factory;
+import gate.util.Files;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
 
@@ -46,6 +62,7 @@ import com.jpetrak.gate.stringannotation.extendedgazetteer.GazStore;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.ListInfo;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.Lookup;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.Visitor;
+import com.jpetrak.gate.stringannotation.utils.UrlUtils;
 import java.net.URL;
 
 
@@ -54,31 +71,92 @@ public class GazStoreTrie3 extends GazStore {
   private static final long serialVersionUID = -7324853400352212338L;
   
   public GazStoreTrie3() {
+    this(false);
     //System.out.println("DEBUG: Creating a GazStoreTrie3!!");
   }
   
+  /**
+   * Create a gaz store which keeps the characters of all nodes and lookups 
+   * either on the Java heap or in direct buffers outside of the heap.
+   * 
+   * @param offHeap if true, keep the data store outside of the Java heap
+   */
+  public GazStoreTrie3(boolean offHeap) {
+    dataStore = new StoreArrayOfCharArrays(offHeap);
+    statesStore = new StoreStates(dataStore);
+    initialState = statesStore.initialState;
+    lookupHashes = new Long2IntOpenHashMap();
+    lookupHashes.defaultReturnValue(-1);
+    lastLookups = new Int2IntOpenHashMap();
+    sharedLookups = new Long2IntOpenHashMap();
+    sharedLookups.defaultReturnValue(-1);
+    valueHashes = new Long2IntOpenHashMap();
+    valueHashes.defaultReturnValue(-1);
+  }
+  
   // Ultimately, this is where we store all information about lookups:
   // - the mapping between key index numbers and key strings
   // - the set of per-entry key/value features
   // - the list of lookups per node
-  StoreArrayOfCharArrays dataStore = new StoreArrayOfCharArrays();
+  StoreArrayOfCharArrays dataStore;
   
   // this is necessary during the creation of the lookup store to
   // keep trak of which key is mapped to which index
   HashMap<String,Integer> keyIndices = new HashMap<>();
   
+  // the reverse mapping from key index to key string, created once the
+  // store is compacted or loaded so that the key strings do not have to be 
+  // re-created from the store for each lookup. This is never modified after
+  // creation and can therefore be shared between threads.
+  transient Int2ObjectOpenHashMap<String> keyNames;
+  
+  // the index of the lookups added so far, used while the store is created to 
+  // find duplicate lookups without scanning the lookup list: this maps the 
+  // reference of a lookup list and the hash of a lookup chunk to the reference
+  // of the first lookup in that list with that hash. Also the reference of the
+  // last lookup of each list, so that new lookups can be appended directly. 
+  // Both get discarded when the store is compacted.
+  transient Long2IntOpenHashMap lookupHashes;
+  transient Int2IntOpenHashMap lastLookups;
+  // Also used only while the store is created: the lists with just one lookup,
+  // by the hash of the lookup chunk, so that states with identical lookups can
+  // share the same list, and the values of entry features in the store, by 
+  // their hash, so that each value only gets stored once.
+  // Lists which are shared are not in lastLookups and get copied before 
+  // another lookup is added.
+  transient Long2IntOpenHashMap sharedLookups;
+  transient Long2IntOpenHashMap valueHashes;
+  // Only used when lookups get added after the store has been compacted or
+  // loaded, see getListUsers
+  transient Int2IntOpenHashMap listUsers;
+  
   // TODO: very ultimately, we will store all nodes in an array
   // of chars too. This could be another StoreSrrayOfChars, but
   // maybe a separate, specific implementation with equal length
   // chunks for each node is better?
   
-  StoreStates statesStore = new StoreStates(dataStore);
+  StoreStates statesStore;
 
   @Override
   public IntegerState getInitialState() {
     return new IntegerState(statesStore,initialState);
   }
   
+  @Override
+  public int getInitialStateIndex() {
+    return initialState;
+  }
+  
+  @Override
+  public int nextState(int state, char c) {
+    return statesStore.nextState(state, c);
+  }
+  
+  @Override
+  public boolean isFinal(int state) {
+    return statesStore.isFinal(state);
+  }
+  
   
   
   
@@ -159,6 +237,7 @@ public class GazStoreTrie3 extends GazStore {
   if(newIndex >=  0) {  // returns >= 0 if the features are not already in the store
     statesStore.setLookupIndex(currentState,newIndex);
   } 
+  invalidateAutomaton();
   //return currentState;
   //System.out.println("text=>"+text + "<, " + lookup.majorType + "|" + lookup.minorType);
 
@@ -167,13 +246,239 @@ public class GazStoreTrie3 extends GazStore {
   
   @Override
   public void compact() {
-    statesStore.compact();
+    compact(0);
   }
   
+  @Override
+  public void compact(int denseThreshold) {
+    if(statesStore.getCompactedCharMaps() == null) {
+      // the old trie must be compacted so we can get the transitions in 
+      // character order
+      statesStore.compact();
+      rebuild(denseThreshold, false);
+    }
+    listUsers = null;
+    discardLookupIndex();
+    initKeyNames();
+  }
+  
+  // Copy the trie to a new data store: the lookup lists get stored with all 
+  // their elements one after the other and lists with the same content only 
+  // once, and nothing which was only needed while the trie was built, like 
+  // the blocks of lists which got copied when they were extended, gets 
+  // copied. The nodes of the trie get visited depth first, so the lists of
+  // neighbouring states end up close to each other. If minimize is true, 
+  // a node which is equivalent to a node which has already been copied gets
+  // replaced by that node, see GazStoreDawg. The states of the trie must 
+  // already be compacted, so we can get the transitions in character order.
+  protected void rebuild(int denseThreshold, boolean minimize) {
+    StoreArrayOfCharArrays newStore = new StoreArrayOfCharArrays(dataStore.isOffHeap());
+    HashMap<String,Integer> newKeyIndices = new HashMap<>();
+    Int2IntOpenHashMap keyMap = new Int2IntOpenHashMap();
+    for(Map.Entry<String,Integer> entry : keyIndices.entrySet()) {
+      int index = newStore.addData(entry.getKey().toCharArray());
+      newKeyIndices.put(entry.getKey(), index);
+      keyMap.put(entry.getValue().intValue(), index);
+    }
+    Int2IntOpenHashMap valueMap = new Int2IntOpenHashMap();
+    valueMap.defaultReturnValue(-1);
+    // values which are used by just one lookup list do not need to be stored 
+    // separately and get copied into the lookups instead
+    for(int index : getListUsers().keySet()) {
+      countValues(index, valueMap);
+    }
+    StoreStates newStates = new StoreStates(newStore);
+    // the lookup lists which have already been copied, by content
+    Object2IntOpenHashMap<String> lookupRegister = new Object2IntOpenHashMap<>();
+    lookupRegister.defaultReturnValue(-1);
+    // the nodes of the new trie, by lookup index and transitions
+    Object2IntOpenHashMap<String> nodeRegister = null;
+    if(minimize) {
+      nodeRegister = new Object2IntOpenHashMap<>();
+      nodeRegister.defaultReturnValue(-1);
+    }
+    
+    CharArrayList chars = new CharArrayList();
+    IntArrayList states = new IntArrayList();
+    ArrayList<Node> stack = new ArrayList<>();
+    stack.add(new Node(initialState, chars, states));
+    int newInitialState = -1;
+    while(!stack.isEmpty()) {
+      Node node = stack.get(stack.size()-1);
+      if(node.pos < node.chars.length) {
+        stack.add(new Node(node.states[node.pos], chars, states));
+        continue;
+      }
+      stack.remove(stack.size()-1);
+      int lookup = statesStore.getLookupIndex(node.state);
+      if(lookup >= 0) {
+        lookup = copyLookups(lookup, newStore, keyMap, valueMap, lookupRegister);
+      }
+      int newState;
+      if(stack.isEmpty()) {
+        // the initial state cannot be reached from any other state, so it 
+        // never gets shared
+        newState = newStates.initialState;
+        putNode(newStates, newState, node, lookup);
+        newInitialState = newState;
+      } else {
+        String signature = minimize ? node.signature(lookup) : null;
+        newState = minimize ? nodeRegister.getInt(signature) : -1;
+        if(newState < 0) {
+          if(node.chars.length > 1) {
+            newState = newStates.newCharMapState();
+          } else {
+            newState = newStates.newSingleCharState();
+          }
+          putNode(newStates, newState, node, lookup);
+          if(minimize) {
+            nodeRegister.put(signature, newState);
+          }
+        }
+        Node parent = stack.get(stack.size()-1);
+        parent.states[parent.pos] = newState;
+        parent.pos++;
+      }
+    }
+    newStates.nrInput = statesStore.nrInput;
+    newStates.nrChars = statesStore.nrChars;
+    newStates.compact(denseThreshold);
+    dataStore = newStore;
+    statesStore = newStates;
+    keyIndices = newKeyIndices;
+    initialState = newInitialState;
+  }
+  
+  private static void putNode(StoreStates newStates, int state, Node node, int lookup) {
+    for(int i = 0; i < node.chars.length; i++) {
+      newStates.put(state, node.chars[i], node.states[i]);
+    }
+    if(lookup >= 0) {
+      newStates.setLookupIndex(state, lookup);
+    }
+  }
+  
+  private static final int VALUE_USED_ONCE = -2;
+  private static final int VALUE_USED_MORE = -3;
+  
+  // Count how often the values which are stored separately are used by the 
+  // lookups of the list at the given index: each value is marked as used 
+  // once or used more than once in the value map.
+  private void countValues(int index, Int2IntOpenHashMap valueMap) {
+    ArrayList<char[]> chunks = new ArrayList<>();
+    int size = dataStore.getListData(index, chunks);
+    for(int i = 0; i < size; i++) {
+      char[] chunk = chunks.get(i);
+      int nrEntries = Utils.twoChars2Int(chunk[0],chunk[1]);
+      int curindex = 4;
+      for(int j = 0; j < nrEntries; j++) {
+        int length = Utils.twoChars2Int(chunk[curindex],chunk[curindex+1]);
+        if(length < 0) {
+          int valueRef = -length-1;
+          valueMap.put(valueRef, valueMap.get(valueRef) == -1 ? VALUE_USED_ONCE : VALUE_USED_MORE);
+          length = 4;
+        }
+        curindex += length;
+      }
+    }
+  }
+  
+  private static void addTwoChars(CharArrayList chars, int value) {
+    char[] c2 = Utils.int2TwoChars(value);
+    chars.add(c2[0]);
+    chars.add(c2[1]);
+  }
+  
+  // Copy the lookup list at the given index of the old data store to the
+  // new data store, unless a list with the same content has already been 
+  // copied, and return the index of the list in the new data store.
+  // Values which are used by just one lookup list get copied into the lookup,
+  // the other values which are stored separately get copied to the new data 
+  // store the first time they are used by a lookup.
+  private int copyLookups(int index, StoreArrayOfCharArrays newStore, 
+          Int2IntOpenHashMap keyMap, Int2IntOpenHashMap valueMap, 
+          Object2IntOpenHashMap<String> lookupRegister) {
+    ArrayList<char[]> chunks = new ArrayList<>();
+    int size = dataStore.getListData(index, chunks);
+    StringBuilder content = new StringBuilder();
+    CharArrayList copy = new CharArrayList();
+    for(int i = 0; i < size; i++) {
+      char[] chunk = chunks.get(i);
+      // replace the key indices and value references of the old store by 
+      // the ones of the new store
+      copy.clear();
+      copy.addElements(0, chunk, 0, 4);
+      int nrEntries = Utils.twoChars2Int(chunk[0],chunk[1]);
+      int curindex = 4;
+      for(int j = 0; j < nrEntries; j++) {
+        int keyIndex = Utils.twoChars2Int(chunk[curindex+2],chunk[curindex+3]);
+        int length = Utils.twoChars2Int(chunk[curindex],chunk[curindex+1]);
+        if(length < 0) {
+          int valueRef = -length-1;
+          int newValueRef = valueMap.get(valueRef);
+          if(newValueRef == VALUE_USED_ONCE) {
+            char[] value = dataStore.getData(valueRef);
+            addTwoChars(copy, value.length+4);
+            addTwoChars(copy, keyMap.get(keyIndex));
+            copy.addElements(copy.size(), value);
+          } else {
+            if(newValueRef < 0) {
+              newValueRef = newStore.addData(dataStore.getData(valueRef));
+              valueMap.put(valueRef, newValueRef);
+            }
+            addTwoChars(copy, -newValueRef-1);
+            addTwoChars(copy, keyMap.get(keyIndex));
+          }
+          length = 4;
+        } else {
+          addTwoChars(copy, length);
+          addTwoChars(copy, keyMap.get(keyIndex));
+          copy.addElements(copy.size(), chunk, curindex+4, length-4);
+        }
+        curindex += length;
+      }
+      chunk = copy.toCharArray();
+      chunks.set(i, chunk);
+      content.append((char)chunk.length).append((char)(chunk.length >>> 16)).append(chunk);
+    }
+    String key = content.toString();
+    int newIndex = lookupRegister.getInt(key);
+    if(newIndex < 0) {
+      newIndex = newStore.addListData(chunks);
+      lookupRegister.put(key, newIndex);
+    }
+    return newIndex;
+  }
+  
+  // A node of the trie while it gets copied: the transitions of the node and
+  // the number of transitions for which the target has already been replaced
+  // by a node of the new automaton.
+  private class Node {
+    int state;
+    char[] chars;
+    int[] states;
+    int pos = 0;
+    Node(int state, CharArrayList charsBuffer, IntArrayList statesBuffer) {
+      this.state = state;
+      charsBuffer.clear();
+      statesBuffer.clear();
+      statesStore.addTransitions(state, charsBuffer, statesBuffer);
+      chars = charsBuffer.toCharArray();
+      states = statesBuffer.toIntArray();
+    }
+    String signature(int lookup) {
+      StringBuilder sb = new StringBuilder(2+3*chars.length);
+      sb.append((char)lookup).append((char)(lookup >>> 16));
+      for(int i = 0; i < chars.length; i++) {
+        sb.append(chars[i]).append((char)states[i]).append((char)(states[i] >>> 16));
+      }
+      return sb.toString();
+    }
+  }
   
   // public CharMapState initialState = new CharMapState(new StoreCharMapPhase1(lookupStore));
   
-  public int initialState = statesStore.initialState;
+  public int initialState;
 
   protected ArrayList<ListInfo> listInfos = new ArrayList<>();  
   
@@ -205,7 +510,52 @@ public class GazStoreTrie3 extends GazStore {
   @Override
   public Iterator<Lookup> getLookups(com.jpetrak.gate.stringannotation.extendedgazetteer.State matchingState) {
     Trie3State s = (Trie3State)matchingState;
-    return new OurLookupIterator(s);
+    return new OurLookupIterator(s.getLookupIndex());
+  }
+  
+  @Override
+  public Iterator<Lookup> getLookups(int state) {
+    return new OurLookupIterator(statesStore.getLookupIndex(state));
+  }
+  
+  @Override
+  public int addTransitions(int state, CharArrayList chars, IntArrayList states) {
+    return statesStore.addTransitions(state, chars, states);
+  }
+  
+  @Override
+  public int getStateIndexLimit() {
+    // states are references into the store
+    return dataStore.getRefLimit();
+  }
+  
+  @Override
+  public int addLookupRefs(int state, IntArrayList refs) {
+    // the reference of a lookup is the index of its list element data in the store
+    return dataStore.addListDataIndices(statesStore.getLookupIndex(state), refs);
+  }
+  
+  @Override
+  public int getListInfoIndex(int lookupRef) {
+    return dataStore.getInt(lookupRef, 2);
+  }
+  
+  @Override
+  public void addLookupEntryFeatures(FeatureMap fm, int lookupRef) {
+    // same as addToFmFromChunk, but reads the chunk directly from the store
+    int nrEntries = dataStore.getInt(lookupRef, 0);
+    int curoffset = 4;
+    for(int i = 0; i<nrEntries; i++) {
+      int thisLength = dataStore.getInt(lookupRef, curoffset);
+      int thisKeyIndex = dataStore.getInt(lookupRef, curoffset+2);
+      if(thisLength < 0) {
+        fm.put(getKeyName(thisKeyIndex), getValue(-thisLength-1));
+        curoffset += 4;
+      } else {
+        fm.put(getKeyName(thisKeyIndex), dataStore.getString(lookupRef, curoffset+4, thisLength-4));
+        curoffset += thisLength;
+      }
+    }
   }
   
   @Override
@@ -236,6 +586,11 @@ public class GazStoreTrie3 extends GazStore {
     return listInfos.get(lookupIndex);            
   }
   
+  @Override
+  public ListInfo getListInfo(int listInfoIndex) {
+    return listInfos.get(listInfoIndex);
+  }
+  
   @Override
   public int getListInfoIndex(Lookup lookup) {
     OurLookup l = (OurLookup)lookup;
@@ -259,17 +614,69 @@ public class GazStoreTrie3 extends GazStore {
     char[] chunk = lookup2chunk(lookupInfoIndex, keyvals);
     int chunknr;
     
-    if(storeIndex < 0) {
-      // no entry was there yet, just add
-      chunknr = dataStore.addListData(chunk);
+    if(lookupHashes == null) {
+      // the index is not available any more once the store has been compacted
+      // or loaded, so check for duplicates by scanning the list. A list which
+      // is only used by this state gets extended in place, a list which is 
+      // shared by several states gets copied with the additional lookup.
+      if(storeIndex < 0) {
+        chunknr = dataStore.addListData(chunk);
+      } else if(getListUsers().get(storeIndex) <= 1) {
+        chunknr = dataStore.addListDataIfAbsent(storeIndex, chunk);
+      } else {
+        ArrayList<char[]> chunks = new ArrayList<>();
+        dataStore.getListData(storeIndex, chunks);
+        boolean found = false;
+        for(char[] other : chunks) {
+          found = found || Arrays.equals(other, chunk);
+        }
+        if(found) {
+          chunknr = -1;
+        } else {
+          chunks.add(chunk);
+          chunknr = dataStore.addListData(chunks);
+          listUsers.addTo(storeIndex, -1);
+        }
+      }
+    } else if(storeIndex < 0) {
+      // no entry was there yet: use the shared list with just this lookup,
+      // if there is one, otherwise add it
+      long hash = hash64(chunk);
+      chunknr = sharedLookups.get(hash);
+      if(chunknr < 0) {
+        chunknr = dataStore.addListData(chunk);
+        sharedLookups.put(hash, chunknr);
+      } else if(!isLookupEqual(dataStore.getListDataRef(chunknr), chunk)) {
+        // a different lookup with the same hash, do not share this list
+        chunknr = dataStore.addListData(chunk);
+        addToLookupIndex(chunknr, dataStore.getListDataRef(chunknr), chunk);
+      }
+    } else if(!lastLookups.containsKey(storeIndex)) {
+      // a shared list with one lookup: unless the lookup is the same, create
+      // a new list for the state with the existing and the new lookup
+      int lookupRef = dataStore.getListDataRef(storeIndex);
+      if(isLookupEqual(lookupRef, chunk)) {
+        chunknr = -1;
+      } else {
+        char[] first = dataStore.getListData(storeIndex, 0);
+        chunknr = dataStore.addListData(first);
+        addToLookupIndex(chunknr, dataStore.getListDataRef(chunknr), first);
+        lookupRef = dataStore.appendListData(chunknr, lastLookups.get(chunknr), chunk);
+        addToLookupIndex(chunknr, lookupRef, chunk);
+      }
     } else {
       // before we add the chunk, check if we do not already have a list
-      // entry with the same chunk
-      if(dataStore.findListData(storeIndex, chunk) < 0) {        
-        chunknr = dataStore.addListData(storeIndex, chunk);
-      } else {
-        //chunknr = dataStore.addListData(storeIndex, chunk);
+      // entry with the same chunk: only if there already is a lookup with the
+      // same hash and that lookup is different, all lookups need to get checked
+      long key = lookupHashKey(storeIndex, chunk);
+      int lookupRef = lookupHashes.get(key);
+      if(lookupRef >= 0 && (isLookupEqual(lookupRef, chunk) || 
+              dataStore.findListData(storeIndex, chunk) >= 0)) {
         chunknr = -1;
+      } else {
+        lookupRef = dataStore.appendListData(storeIndex, lastLookups.get(storeIndex), chunk);
+        addToLookupIndex(storeIndex, lookupRef, chunk);
+        chunknr = storeIndex;
       }
     }
     
@@ -285,6 +692,92 @@ public class GazStoreTrie3 extends GazStore {
     return chunknr;
   }
   
+  // The number of states which use each lookup list, counted the first time
+  // a lookup gets added after the store has been compacted or loaded. Lists 
+  // which are added after that are not in the map and used by just one state.
+  private Int2IntOpenHashMap getListUsers() {
+    if(listUsers == null) {
+      listUsers = new Int2IntOpenHashMap();
+      CharArrayList chars = new CharArrayList();
+      IntArrayList states = new IntArrayList();
+      IntArrayList queue = new IntArrayList();
+      // the states of a minimized automaton can be reached in several ways
+      IntOpenHashSet seen = new IntOpenHashSet();
+      queue.add(initialState);
+      seen.add(initialState);
+      for(int i = 0; i < queue.size(); i++) {
+        int state = queue.getInt(i);
+        int lookup = statesStore.getLookupIndex(state);
+        if(lookup >= 0) {
+          listUsers.addTo(lookup, 1);
+        }
+        chars.clear();
+        states.clear();
+        statesStore.addTransitions(state, chars, states);
+        for(int j = 0; j < states.size(); j++) {
+          if(seen.add(states.getInt(j))) {
+            queue.add(states.getInt(j));
+          }
+        }
+      }
+    }
+    return listUsers;
+  }
+  
+  private static long lookupHashKey(int storeIndex, char[] chunk) {
+    long hash = hash64(chunk);
+    return ((long)storeIndex << 32) | ((hash ^ (hash >>> 32)) & 0xFFFFFFFFL);
+  }
+  
+  // Remember the lookup as the last one in the list which is not shared
+  private void addToLookupIndex(int storeIndex, int lookupRef, char[] chunk) {
+    long key = lookupHashKey(storeIndex, chunk);
+    if(!lookupHashes.containsKey(key)) {
+      lookupHashes.put(key, lookupRef);
+    }
+    lastLookups.put(storeIndex, lookupRef);
+  }
+  
+  // Chunks contain ints stored as two chars, so the hash uses a large multiplier:
+  // with a small one like 31, many pairs of chars have the same hash.
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  
+  private static long hash64(char[] chars) {
+    long h = 0;
+    for(char c : chars) {
+      h = (h + c) * HASH_MULTIPLIER;
+    }
+    return h;
+  }
+  
+  private static long hash64(String str) {
+    long h = 0;
+    for(int i = 0; i < str.length(); i++) {
+      h = (h + str.charAt(i)) * HASH_MULTIPLIER;
+    }
+    return h;
+  }
+  
+  // Check if the lookup at the given reference has the same data as the chunk.
+  // Since a lookup chunk contains the number and lengths of its entries, the
+  // lookup cannot be longer than the chunk if all characters of the chunk match.
+  protected boolean isLookupEqual(int lookupRef, char[] chunk) {
+    for(int i = 0; i < chunk.length; i++) {
+      if(dataStore.getChar(lookupRef, i) != chunk[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  // The index of the lookups is only needed while the store gets created
+  protected void discardLookupIndex() {
+    lookupHashes = null;
+    lastLookups = null;
+    sharedLookups = null;
+    valueHashes = null;
+  }
+  
   protected String keyVals2String(String[] keyvals) {
     StringBuilder sb = new StringBuilder();
     for(int i=0; i<keyvals.length; i++) {
@@ -296,7 +789,11 @@ public class GazStoreTrie3 extends GazStore {
   /**
    * Convert an array of alternating key/value strings to a single character
    * array representing those key-values. The keys are represented as integers
-   * of the entry actually holding the key characters.
+   * of the entry actually holding the key characters. While the store is 
+   * created, the values are also stored only once and represented by the 
+   * reference of the entry holding the value characters. When the store gets
+   * compacted, only values which are used by more than one lookup list stay
+   * separate.
    * 
    * @param keyvalues
    * @return
@@ -305,13 +802,17 @@ public class GazStoreTrie3 extends GazStore {
     // the length we need is, if 2*n is the number of elements in keyvalues 
     // 2 char for the initial int that holds the number of key/value pairs
     // 2 char for the int that holds the listInfo
-    // n*2 char for n entry lengths
+    // n*2 char for n entry lengths or value references
     // n*2 char for n key indices
-    // the sum of all the lengths of the odd entries in keyvalues (just the values)
+    // the sum of all the lengths of the values which are not stored separately
     int n = keyvalues.length/2;
+    int[] valueRefs = new int[n];
     int length = 4 + 4*n;
     for(int i=1; i<keyvalues.length; i=i+2) {
-      length += keyvalues[i].length();
+      valueRefs[i/2] = addValue(keyvalues[i]);
+      if(valueRefs[i/2] < 0) {
+        length += keyvalues[i].length();
+      }
     }
     char[] ret = new char[length];
     char[] c2  = Utils.int2TwoChars(keyvalues.length/2);
@@ -323,7 +824,13 @@ public class GazStoreTrie3 extends GazStore {
     ret[curindex++] = c2[1];    
     for(int i=0; i<keyvalues.length; i=i+2) {
       //System.out.println("Adding key/value: "+(keyvalues[i]+"/"+keyvalues[i+1]));
-      c2 = Utils.int2TwoChars(keyvalues[i+1].length()+4); // total length including length and key index
+      int valueRef = valueRefs[i/2];
+      if(valueRef >= 0) {
+        // a value stored separately is represented by a negative entry length
+        c2 = Utils.int2TwoChars(-valueRef-1);
+      } else {
+        c2 = Utils.int2TwoChars(keyvalues[i+1].length()+4); // total length including length and key index
+      }
       //System.out.println("Setting length to "+(keyvalues[i+1].length()+4));
       ret[curindex++] = c2[0];
       ret[curindex++] = c2[1];
@@ -332,9 +839,11 @@ public class GazStoreTrie3 extends GazStore {
       c2 = Utils.int2TwoChars(keyIndex);
       ret[curindex++] = c2[0];
       ret[curindex++] = c2[1];
-      int l = keyvalues[i+1].length();
-      System.arraycopy(keyvalues[i+1].toCharArray(), 0, ret, curindex, l);
-      curindex += l;
+      if(valueRef < 0) {
+        int l = keyvalues[i+1].length();
+        keyvalues[i+1].getChars(0, l, ret, curindex);
+        curindex += l;
+      }
     }
     return ret;
   }
@@ -352,10 +861,14 @@ public class GazStoreTrie3 extends GazStore {
       //System.out.println("Length of this chunk: "+thisLength);
       int thisKeyIndex = Utils.twoChars2Int(chunk[curindex+2],chunk[curindex+3]);
       //System.out.println("Key index is "+thisKeyIndex);
-      char[] val = new char[thisLength-4];
-      System.arraycopy(chunk, curindex+4, val, 0, thisLength-4);
-      fm.put(getKey(thisKeyIndex), new String(val));
-      curindex += thisLength;
+      if(thisLength < 0) {
+        // the value is stored separately
+        fm.put(getKeyName(thisKeyIndex), getValue(-thisLength-1));
+        curindex += 4;
+      } else {
+        fm.put(getKeyName(thisKeyIndex), new String(chunk, curindex+4, thisLength-4));
+        curindex += thisLength;
+      }
     }
   }
   
@@ -380,6 +893,45 @@ public class GazStoreTrie3 extends GazStore {
     }
   }
   
+  /**
+   * Adds a value to the store unless it is already there and returns the 
+   * reference of the value in the store. Once the store has been compacted, 
+   * values do not get stored separately any more and -1 is returned.
+   * @param value
+   * @return 
+   */
+  protected int addValue(String value) {
+    if(valueHashes == null) {
+      return -1;
+    }
+    long hash = hash64(value);
+    int ref = valueHashes.get(hash);
+    if(ref < 0) {
+      ref = dataStore.addData(value.toCharArray());
+      valueHashes.put(hash, ref);
+    } else if(!isValueEqual(ref, value)) {
+      // a different value with the same hash: store the value in the chunk
+      ref = -1;
+    }
+    return ref;
+  }
+  
+  private boolean isValueEqual(int ref, String value) {
+    if(dataStore.getInt(ref, 0) != value.length()) {
+      return false;
+    }
+    for(int i = 0; i < value.length(); i++) {
+      if(dataStore.getChar(ref, i+2) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  protected String getValue(int ref) {
+    return dataStore.getString(ref, 2, dataStore.getInt(ref, 0));
+  }
+  
   protected char[] getKeyChars(int index) {
     return dataStore.getData(index);
   }
@@ -388,6 +940,19 @@ public class GazStoreTrie3 extends GazStore {
     return new String(getKeyChars(index));
   }
   
+  protected String getKeyName(int index) {
+    String name = keyNames == null ? null : keyNames.get(index);
+    return name != null ? name : getKey(index);
+  }
+  
+  protected void initKeyNames() {
+    Int2ObjectOpenHashMap<String> names = new Int2ObjectOpenHashMap<>(keyIndices.size());
+    for(Map.Entry<String,Integer> entry : keyIndices.entrySet()) {
+      names.put(entry.getValue().intValue(), entry.getKey());
+    }
+    keyNames = names;
+  }
+  
   
   @Test
   public void runImplementationTests() {
@@ -454,10 +1019,13 @@ public class GazStoreTrie3 extends GazStore {
     int storeIndex;  // the index of the list of lookups in the store
     int curLookup;   // the index of the current lookup within the list
     int nrEntries;
+    // the data of all the lookups, retrieved in one go so that the list
+    // only needs to get traversed once
+    ArrayList<char[]> chunks = new ArrayList<>();
     
-    public OurLookupIterator(Trie3State theState) {
-      storeIndex = theState.getLookupIndex();
-      nrEntries = dataStore.getListSize(storeIndex);
+    public OurLookupIterator(int lookupIndex) {
+      storeIndex = lookupIndex;
+      nrEntries = dataStore.getListData(storeIndex, chunks);
       curLookup = 0;
     }
     
@@ -470,7 +1038,7 @@ public class GazStoreTrie3 extends GazStore {
     public OurLookup next() {
       if(curLookup < nrEntries) {
         //System.out.println("Trying to get list index "+storeIndex+" curlookup "+curLookup);
-        char[] chunk = dataStore.getListData(storeIndex, curLookup);
+        char[] chunk = chunks.get(curLookup);
         curLookup++;
         return new OurLookup(chunk);
       } else {
@@ -500,17 +1068,73 @@ public class GazStoreTrie3 extends GazStore {
   // After this, we need to create and/or initialize the following:
   // = statesStore: this should know how to save/restore itself?
   // = initialState
+  //
+  // The gazbin file has the following layout, all numbers are big endian:
+  // = the preamble of PREAMBLE_LENGTH bytes: 
+  //   magic (int), version (int), length of the metadata (int), number of charmaps (int),
+  //   byte position of the charmap chunk indices (long), 
+  //   byte position of the character data (long), number of characters (long)
+  // = the metadata, written with a DataOutputStream: the implementation class, 
+  //   the fingerprint, the fields of the states store, the key indices and 
+  //   the list infos
+  // = the charmap chunk indices, one int for each charmap, aligned to 8 bytes
+  // = the character data of the dataStore, two bytes per character, aligned to 8 bytes
+  // = optionally, additional data of a subclass, aligned to 8 bytes
+  // The character data is never copied onto the heap when loading from a file: 
+  // it gets memory mapped and the compacted trie is used directly from the mapping.
+  // For backwards compatibility, load can still read the old format which 
+  // was just the gzip-compressed serialized GazStoreTrie3 object.
+  
+  /**
+   * Drop the memory mapping of the character data if the store was loaded
+   * from a cache file, so it gets released by the garbage collector. The 
+   * store must not be used any more after this.
+   */
+  @Override
+  public void close() {
+    dataStore.close();
+  }
+  
+  public static final int GAZBIN_MAGIC = 0x47415A42; // "GAZB"
+  // Version 2 added entry feature values which are stored separately from 
+  // the lookups, files with version 1 can still be read. Version 3 added the
+  // fingerprint of the sources, files without it never match a fingerprint.
+  public static final int GAZBIN_VERSION = 3;
+  private static final int PREAMBLE_LENGTH = 40;
   
   @Override
   public void save(File whereTo) throws IOException {
     compact();
     System.out.println("Saving cache file to "+whereTo);
     long start = System.currentTimeMillis();
-    OutputStream output = new FileOutputStream(whereTo);
-    output = new GZIPOutputStream(output);
-    try (ObjectOutputStream outobject = new ObjectOutputStream(output)) {
-      outobject.writeObject(this);
-      outobject.flush();
+    int[] chunkIndices = statesStore.getCompactedCharMaps().getChunkIndices();
+    ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+    try (DataOutputStream meta = new DataOutputStream(metaBytes)) {
+      writeMetadata(meta);
+    }
+    long chunkIndicesPos = align8(PREAMBLE_LENGTH + metaBytes.size());
+    long charsPos = align8(chunkIndicesPos + 4L * chunkIndices.length);
+    try (FileChannel out = FileChannel.open(whereTo.toPath(), 
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_LENGTH);
+      preamble.putInt(GAZBIN_MAGIC);
+      preamble.putInt(GAZBIN_VERSION);
+      preamble.putInt(metaBytes.size());
+      preamble.putInt(chunkIndices.length);
+      preamble.putLong(chunkIndicesPos);
+      preamble.putLong(charsPos);
+      preamble.putLong(dataStore.size());
+      preamble.flip();
+      writeFully(out, preamble);
+      writeFully(out, ByteBuffer.wrap(metaBytes.toByteArray()));
+      out.position(chunkIndicesPos);
+      ByteBuffer indices = ByteBuffer.allocate(4 * chunkIndices.length);
+      indices.asIntBuffer().put(chunkIndices);
+      writeFully(out, indices);
+      out.position(charsPos);
+      dataStore.writeChars(out);
+      out.position(align8(charsPos + 2L * dataStore.size()));
+      writeExtraData(out);
     }
     long end = System.currentTimeMillis();
     System.out.println("Cache saved in (secs): "+((end-start)/1000.0));    
@@ -518,25 +1142,336 @@ public class GazStoreTrie3 extends GazStore {
   
   // @Override
   public static GazStore load(URL whereFrom) throws IOException {
+    return load(whereFrom, false);
+  }
+  
+  /**
+   * Load the gaz store from a cache file. If the URL is a file, the character
+   * data is always memory mapped, otherwise it gets read into heap buffers or, 
+   * if offHeap is true, into direct buffers outside of the heap.
+   * 
+   * @param whereFrom the URL of the cache file
+   * @param offHeap if true, do not read the character data onto the heap
+   * @return the gaz store
+   * @throws IOException 
+   */
+  public static GazStore load(URL whereFrom, boolean offHeap) throws IOException {
     System.out.println("Loading cache file from "+whereFrom);
     long start = System.currentTimeMillis();
+    GazStoreTrie3 gs;
+    try (InputStream ins = new BufferedInputStream(whereFrom.openStream())) {
+      ins.mark(4);
+      int b1 = ins.read();
+      int b2 = ins.read();
+      ins.reset();
+      if(b1 == 0x1f && b2 == 0x8b) {
+        // gzip compressed, so this is a cache file in the old format
+        gs = loadSerialized(whereFrom, ins);
+      } else if(UrlUtils.isFile(whereFrom)) {
+        try (FileChannel channel = FileChannel.open(Files.fileFromURL(whereFrom).toPath(), StandardOpenOption.READ)) {
+          gs = loadMapped(whereFrom, channel);
+        }
+      } else {
+        gs = loadStream(whereFrom, ins, offHeap);
+      }
+    }
+    long end = System.currentTimeMillis();
+    System.out.println("Cache loaded in (secs): "+((end-start)/1000.0));
+    return gs;
+  }
+  
+  // Load from the gazbin file by memory-mapping the character data 
+  private static GazStoreTrie3 loadMapped(URL whereFrom, FileChannel channel) throws IOException {
+    ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_LENGTH);
+    readFully(channel, preamble, whereFrom);
+    preamble.flip();
+    int version = checkPreamble(preamble, whereFrom);
+    int metaLength = preamble.getInt();
+    int nrCharMaps = preamble.getInt();
+    long chunkIndicesPos = preamble.getLong();
+    long charsPos = preamble.getLong();
+    long nrChars = preamble.getLong();
+    ByteBuffer metaBytes = ByteBuffer.allocate(metaLength);
+    readFully(channel, metaBytes, whereFrom);
+    int[] chunkIndices = new int[nrCharMaps];
+    if(nrCharMaps > 0) {
+      // the chunk indices get copied anyway, so they are read instead of 
+      // mapped, which would keep the file mapped until garbage collection
+      ByteBuffer indexBytes = ByteBuffer.allocate(4 * nrCharMaps);
+      channel.position(chunkIndicesPos);
+      readFully(channel, indexBytes, whereFrom);
+      indexBytes.flip();
+      indexBytes.asIntBuffer().get(chunkIndices);
+    }
+    StoreArrayOfCharArrays store = StoreArrayOfCharArrays.map(channel, charsPos, nrChars);
+    GazStoreTrie3 gs;
+    try (DataInputStream meta = new DataInputStream(new ByteArrayInputStream(metaBytes.array()))) {
+      gs = restore(whereFrom, version, meta, store, chunkIndices);
+    }
+    // the stream must not be closed since that would close the channel
+    channel.position(align8(charsPos + 2L * nrChars));
+    gs.readExtraData(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))), whereFrom);
+    return gs;
+  }
+  
+  // Load from the gazbin file by reading the whole content into buffers, used for 
+  // URLs which are not files and can therefore not be mapped.
+  private static GazStoreTrie3 loadStream(URL whereFrom, InputStream ins, boolean offHeap) throws IOException {
+    DataInputStream in = new DataInputStream(ins);
+    byte[] preambleBytes = new byte[PREAMBLE_LENGTH];
+    in.readFully(preambleBytes);
+    ByteBuffer preamble = ByteBuffer.wrap(preambleBytes);
+    int version = checkPreamble(preamble, whereFrom);
+    int metaLength = preamble.getInt();
+    int nrCharMaps = preamble.getInt();
+    long chunkIndicesPos = preamble.getLong();
+    long charsPos = preamble.getLong();
+    long nrChars = preamble.getLong();
+    byte[] metaBytes = new byte[metaLength];
+    in.readFully(metaBytes);
+    in.skipBytes((int)(chunkIndicesPos - PREAMBLE_LENGTH - metaLength));
+    int[] chunkIndices = new int[nrCharMaps];
+    for(int i = 0; i < nrCharMaps; i++) {
+      chunkIndices[i] = in.readInt();
+    }
+    in.skipBytes((int)(charsPos - chunkIndicesPos - 4L * nrCharMaps));
+    StoreArrayOfCharArrays store = StoreArrayOfCharArrays.read(Channels.newChannel(in), nrChars, offHeap);
+    GazStoreTrie3 gs;
+    try (DataInputStream meta = new DataInputStream(new ByteArrayInputStream(metaBytes))) {
+      gs = restore(whereFrom, version, meta, store, chunkIndices);
+    }
+    in.skipBytes((int)(align8(charsPos + 2L * nrChars) - charsPos - 2L * nrChars));
+    gs.readExtraData(in, whereFrom);
+    return gs;
+  }
+  
+  // Load a cache file in the old format 
+  private static GazStoreTrie3 loadSerialized(URL whereFrom, InputStream ins) throws IOException {
     Object object = null;
-    try (InputStream ins = whereFrom.openStream();
-         GZIPInputStream ing = new GZIPInputStream(ins);
+    try (GZIPInputStream ing = new GZIPInputStream(ins);
          ObjectInputStream ino = new ObjectInputStream(ing)) {
       object = ino.readObject();
     } catch (ClassNotFoundException ex) {      
       throw new GateRuntimeException("Could not re-load gazetteer cache file, please remove: "+whereFrom,ex);
     }
     if(object == null) throw new GateRuntimeException("Still null: Could not re-load gazstore object, try removing "+whereFrom);
-    GazStoreTrie3 gs = null;
     if(object instanceof GazStoreTrie3) {
-      gs = (GazStoreTrie3)object;
+      GazStoreTrie3 gs = (GazStoreTrie3)object;
+      gs.initKeyNames();
+      return gs;
     } else {
       throw new GateRuntimeException("Could not re-load gazstore object: invalid class "+object.getClass()+" try removing the cache file "+whereFrom);
     }
-    long end = System.currentTimeMillis();
-    System.out.println("Cache loaded in (secs): "+((end-start)/1000.0));
+  }
+  
+  /**
+   * Read the fingerprint of the sources from a cache file without loading 
+   * the store.
+   * 
+   * @param whereFrom the URL of the cache file
+   * @return the fingerprint, or null if the file has none
+   * @throws IOException 
+   */
+  public static String readFingerprint(URL whereFrom) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(whereFrom.openStream()))) {
+      byte[] preambleBytes = new byte[PREAMBLE_LENGTH];
+      in.readFully(preambleBytes);
+      ByteBuffer preamble = ByteBuffer.wrap(preambleBytes);
+      if(preamble.getInt(0) != GAZBIN_MAGIC) {
+        // also for the old serialized format
+        return null;
+      }
+      int version = checkPreamble(preamble, whereFrom);
+      if(version < 3) {
+        return null;
+      }
+      in.readUTF(); // the implementation class
+      String fingerprint = readString(in);
+      return fingerprint.isEmpty() ? null : fingerprint;
+    }
+  }
+  
+  private static int checkPreamble(ByteBuffer preamble, URL whereFrom) {
+    int magic = preamble.getInt();
+    if(magic != GAZBIN_MAGIC) {
+      throw new GateRuntimeException("Not a gazbin file, try removing the cache file "+whereFrom);
+    }
+    int version = preamble.getInt();
+    if(version < 1 || version > GAZBIN_VERSION) {
+      throw new GateRuntimeException("Unsupported gazbin version "+version+", try removing the cache file "+whereFrom);
+    }
+    return version;
+  }
+  
+  /**
+   * Save any additional data of a subclass. The channel is positioned after 
+   * all the data saved for the GazStoreTrie3.
+   * 
+   * @param out
+   * @throws IOException 
+   */
+  protected void writeExtraData(FileChannel out) throws IOException {
+  }
+  
+  /**
+   * Read the additional data written by writeExtraData. This is called after 
+   * all other fields have been restored.
+   * 
+   * @param in
+   * @param whereFrom
+   * @throws IOException 
+   */
+  protected void readExtraData(DataInputStream in, URL whereFrom) throws IOException {
+  }
+  
+  protected void writeMetadata(DataOutputStream out) throws IOException {
+    out.writeUTF(getClass().getName());
+    writeString(out, getFingerprint() == null ? "" : getFingerprint());
+    out.writeInt(initialState);
+    out.writeInt(statesStore.nrNodes);
+    out.writeInt(statesStore.mapNodes);
+    out.writeInt(statesStore.charNodes);
+    out.writeInt(statesStore.changedNodes);
+    out.writeInt(statesStore.finalNodes);
+    out.writeInt(statesStore.nrChars);
+    out.writeInt(statesStore.nrInput);
+    // the keys themselves are in the data store, so we only need their indices
+    out.writeInt(keyIndices.size());
+    for(int keyIndex : keyIndices.values()) {
+      out.writeInt(keyIndex);
+    }
+    out.writeInt(listInfos.size());
+    for(ListInfo info : listInfos) {
+      writeString(out, info.getAnnotationType());
+      writeString(out, info.getSourceURL());
+      FeatureMap fm = info.getFeatures();
+      out.writeInt(fm.size());
+      for(Object key : fm.keySet()) {
+        writeString(out, key.toString());
+        writeValue(out, fm.get(key));
+      }
+    }
+  }
+  
+  private static GazStoreTrie3 restore(URL whereFrom, int version, DataInputStream in, 
+          StoreArrayOfCharArrays store, int[] chunkIndices) throws IOException {
+    String className = in.readUTF();
+    GazStoreTrie3 gs;
+    if(className.equals(GazStoreTrie3.class.getName())) {
+      gs = new GazStoreTrie3();
+    } else if(className.equals(GazStoreDoubleArray.class.getName())) {
+      gs = new GazStoreDoubleArray();
+    } else if(className.equals(GazStoreDawg.class.getName())) {
+      gs = new GazStoreDawg();
+    } else {
+      throw new GateRuntimeException("Cache file was created for unknown class "+className+
+              ", try removing the cache file "+whereFrom);
+    }
+    if(version >= 3) {
+      String fingerprint = readString(in);
+      gs.setFingerprint(fingerprint.isEmpty() ? null : fingerprint);
+    }
+    gs.dataStore = store;
+    gs.initialState = in.readInt();
+    gs.statesStore = new StoreStates(store, new StoreCharMapPhase2(store, chunkIndices), gs.initialState);
+    gs.statesStore.nrNodes = in.readInt();
+    gs.statesStore.mapNodes = in.readInt();
+    gs.statesStore.charNodes = in.readInt();
+    gs.statesStore.changedNodes = in.readInt();
+    gs.statesStore.finalNodes = in.readInt();
+    gs.statesStore.nrChars = in.readInt();
+    gs.statesStore.nrInput = in.readInt();
+    int nrKeys = in.readInt();
+    for(int i = 0; i < nrKeys; i++) {
+      int keyIndex = in.readInt();
+      gs.keyIndices.put(gs.getKey(keyIndex), keyIndex);
+    }
+    int nrListInfos = in.readInt();
+    for(int i = 0; i < nrListInfos; i++) {
+      String type = readString(in);
+      String source = readString(in);
+      FeatureMap fm = Factory.newFeatureMap();
+      int nrFeatures = in.readInt();
+      for(int j = 0; j < nrFeatures; j++) {
+        String key = readString(in);
+        fm.put(key, readValue(in));
+      }
+      gs.listInfos.add(new ListInfo(type, source, fm));
+    }
+    gs.discardLookupIndex();
+    gs.initKeyNames();
     return gs;
   }
+  
+  // Strings are written as the number of chars followed by the chars, because
+  // writeUTF cannot handle strings longer than 64k 
+  private static void writeString(DataOutputStream out, String str) throws IOException {
+    out.writeInt(str.length());
+    out.writeChars(str);
+  }
+  
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    char[] chars = new char[length];
+    for(int i = 0; i < length; i++) {
+      chars[i] = in.readChar();
+    }
+    return new String(chars);
+  }
+  
+  // List feature values are normally strings, but could be something else 
+  // if they come from a defyaml file. We preserve the basic types and
+  // convert everything else to a string.
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if(value == null) {
+      out.writeByte('N');
+    } else if(value instanceof Integer) {
+      out.writeByte('I');
+      out.writeInt((Integer)value);
+    } else if(value instanceof Long) {
+      out.writeByte('L');
+      out.writeLong((Long)value);
+    } else if(value instanceof Double) {
+      out.writeByte('D');
+      out.writeDouble((Double)value);
+    } else if(value instanceof Boolean) {
+      out.writeByte('B');
+      out.writeBoolean((Boolean)value);
+    } else {
+      out.writeByte('S');
+      writeString(out, value.toString());
+    }
+  }
+  
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch(type) {
+      case 'N': return null;
+      case 'I': return in.readInt();
+      case 'L': return in.readLong();
+      case 'D': return in.readDouble();
+      case 'B': return in.readBoolean();
+      case 'S': return readString(in);
+      default:
+        throw new GateRuntimeException("Invalid feature value type in cache file: "+type);
+    }
+  }
+  
+  private static long align8(long position) {
+    return (position + 7) & ~7L;
+  }
+  
+  private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+    while(buf.hasRemaining()) {
+      out.write(buf);
+    }
+  }
+  
+  private static void readFully(FileChannel in, ByteBuffer buf, URL whereFrom) throws IOException {
+    while(buf.hasRemaining()) {
+      if(in.read(buf) < 0) {
+        throw new GateRuntimeException("Cache file is truncated, try removing "+whereFrom);
+      }
+    }
+  }
 }
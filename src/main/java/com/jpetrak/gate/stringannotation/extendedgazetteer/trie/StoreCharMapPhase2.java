@@ -22,6 +22,8 @@ package com.jpetrak.gate.stringannotation.extendedgazetteer.trie;
 
 import com.jpetrak.gate.stringannotation.utils.StoreArrayOfCharArrays;
 import gate.util.GateRuntimeException;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 public class StoreCharMapPhase2 extends StoreCharMapBase {
 
@@ -36,15 +38,44 @@ public class StoreCharMapPhase2 extends StoreCharMapBase {
   // chunkIndices array contains the index of the chunk as stored in the store.
   protected int[] chunkIndices = null;
 
+  // A char map with many entries can additionally get stored as a dense 
+  // table which directly contains the state (as two chars) for each 
+  // character below DENSE_TABLE_SIZE, or -1. The table is immediately followed 
+  // by the normal chunk, which is still used for all other characters. 
+  // For such char maps, the chunkIndices array contains -(tableIndex+1) 
+  // instead of the index of the chunk. The table and the chunk are added 
+  // to the store together, so that the chunk can be accessed from the 
+  // reference of the table.
+  protected static final int DENSE_TABLE_SIZE = 256;
+  protected static final int DENSE_TABLE_LENGTH = DENSE_TABLE_SIZE*2;
+
   public StoreCharMapPhase2(StoreCharMapBase previousStore) {
+    this(previousStore, 0);
+  }
+  
+  /**
+   * Create the compacted char map store from the phase 1 store. Char maps
+   * with at least denseThreshold entries for characters below 256 are 
+   * additionally stored as dense tables, so that the transition for such a 
+   * character can be found without a search. 
+   * 
+   * @param previousStore the phase 1 store
+   * @param denseThreshold minimum number of entries for a dense table, 0 to never use dense tables
+   */
+  public StoreCharMapPhase2(StoreCharMapBase previousStore, int denseThreshold) {
     if (previousStore instanceof StoreCharMapPhase1) {
       StoreCharMapPhase1 oldStore = (StoreCharMapPhase1) previousStore;
       store = oldStore.store;
       chunkIndices = new int[oldStore.storeKeysAndStates.size()];
       for (int i = 0; i < chunkIndices.length; i++) {
         char[] chunk = oldStore.storeKeysAndStates.get(i);
-        int index = store.addData(chunk);
-        chunkIndices[i] = index;
+        if (denseThreshold > 0 && nrDenseEntries(chunk) >= denseThreshold) {
+          int tableIndex = store.addFixedLengthData(denseTable(chunk));
+          chunkIndices[i] = -(tableIndex+1);
+        } else {
+          int index = store.addData(chunk);
+          chunkIndices[i] = index;
+        }
       }
     } else {
       throw new GateRuntimeException(
@@ -52,10 +83,29 @@ public class StoreCharMapPhase2 extends StoreCharMapBase {
     }
   }
   
+  /**
+   * Re-create a compacted charmap store from the saved chunk indices.
+   * 
+   * @param store the store which contains the charmap chunks
+   * @param chunkIndices the indices of the charmap chunks in the store
+   */
+  public StoreCharMapPhase2(StoreArrayOfCharArrays store, int[] chunkIndices) {
+    this.store = store;
+    this.chunkIndices = chunkIndices;
+  }
+  
   // Kryo needs this!
   public StoreCharMapPhase2() {
     
   }
+  
+  /**
+   * Return the indices of the charmap chunks in the store, indexed by charmap index.
+   * @return 
+   */
+  public int[] getChunkIndices() {
+    return chunkIndices;
+  }
 
   @Override
   public int put(int mapIndex, char key, int state) {
@@ -73,13 +123,106 @@ public class StoreCharMapPhase2 extends StoreCharMapBase {
     if(mapIndex < 0) {
       return -1;
     }
-    char[] entries = store.getData(chunkIndices[mapIndex]);
-    if (entries == null) return -1;
-    int index = binarySearchInEntries(entries,chr);
-    if (index<0)
-        return -1;
-    int ret = Utils.twoChars2Int(entries[index+1],entries[index+2]);
-    return ret;    
+    // search the entries directly in the store instead of getting a copy 
+    // of the whole char map: the chunk starts with two chars for the length,
+    // followed by the entries of three chars each
+    int chunkIndex = chunkIndices[mapIndex];
+    int offset = 0;
+    if(chunkIndex < 0) {
+      chunkIndex = -chunkIndex-1;
+      if(chr < DENSE_TABLE_SIZE) {
+        return store.getInt(chunkIndex, chr*2);
+      }
+      offset = DENSE_TABLE_LENGTH;
+    }
+    int nrentries = store.getInt(chunkIndex, offset) / 3;
+    int entriesOffset = offset + 2;
+    int low = 0;
+    int high = nrentries - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midVal = store.getChar(chunkIndex, entriesOffset + mid*3);
+      if (midVal < chr) {
+        low = mid + 1;
+      } else if (midVal > chr) {
+        high = mid - 1;
+      } else {
+        return store.getInt(chunkIndex, entriesOffset + mid*3 + 1);
+      }
+    }
+    return -1;
+  }
+ 
+  /**
+   * Add the characters and states of all entries of the char map to the 
+   * given lists, in character order.
+   * 
+   * @param mapIndex the index of the char map
+   * @param chars receives the characters
+   * @param states receives the states
+   * @return the number of entries added
+   */
+  public int addEntries(int mapIndex, CharArrayList chars, IntArrayList states) {
+    if(mapIndex < 0) {
+      return 0;
+    }
+    int chunkIndex = chunkIndices[mapIndex];
+    int offset = 0;
+    if(chunkIndex < 0) {
+      chunkIndex = -chunkIndex-1;
+      offset = DENSE_TABLE_LENGTH;
+    }
+    int nrentries = store.getInt(chunkIndex, offset) / 3;
+    int entriesOffset = offset + 2;
+    for(int i = 0; i < nrentries; i++) {
+      chars.add(store.getChar(chunkIndex, entriesOffset + i*3));
+      states.add(store.getInt(chunkIndex, entriesOffset + i*3 + 1));
+    }
+    return nrentries;
+  }
+ 
+  /**
+   * Return the number of dense char map tables.
+   * @return 
+   */
+  public int getNrDenseTables() {
+    int n = 0;
+    for(int chunkIndex : chunkIndices) {
+      if(chunkIndex < 0) {
+        n++;
+      }
+    }
+    return n;
+  }
+  
+  // the number of entries of the phase 1 chunk that would be in a dense table
+  protected static int nrDenseEntries(char[] entries) {
+    int n = 0;
+    for(int i = 0; i < entries.length; i += 3) {
+      if(entries[i] < DENSE_TABLE_SIZE) {
+        n++;
+      }
+    }
+    return n;
+  }
+  
+  // create the dense table from the entries of the phase 1 chunk, followed
+  // by the length and the entries of the chunk, just like they get stored
+  // by addData
+  protected static char[] denseTable(char[] entries) {
+    char[] table = new char[DENSE_TABLE_LENGTH + 2 + entries.length];
+    Utils.setTwoCharsFromInt(entries.length, table, DENSE_TABLE_LENGTH);
+    System.arraycopy(entries, 0, table, DENSE_TABLE_LENGTH + 2, entries.length);
+    for(int c = 0; c < DENSE_TABLE_SIZE; c++) {
+      Utils.setTwoCharsFromInt(-1, table, c*2);
+    }
+    for(int i = 0; i < entries.length; i += 3) {
+      if(entries[i] < DENSE_TABLE_SIZE) {
+        table[entries[i]*2] = entries[i+1];
+        table[entries[i]*2+1] = entries[i+2];
+      }
+    }
+    return table;
   }
  
   // A modification of binary search that only looks at the indices 
@@ -28,6 +28,8 @@ import java.lang.management.ManagementFactory;
 
 
 import gate.util.GateRuntimeException;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.apache.log4j.Logger;
 
 /**
@@ -83,7 +85,45 @@ public class StoreStates implements Serializable {
     logger = Logger.getLogger(this.getClass().getName());
   }
   
+  /**
+   * Re-create the states for a compacted trie which has been saved earlier: 
+   * the store must already contain all the states and the given charmap store
+   * must be the compacted charmap store for it.
+   * 
+   * @param store
+   * @param charMaps
+   * @param initialState 
+   */
+  public StoreStates(StoreArrayOfCharArrays store, StoreCharMapPhase2 charMaps, int initialState) {
+    logger = Logger.getLogger(this.getClass().getName());
+    dataStore = store;
+    charMapStore = charMaps;
+    this.initialState = initialState;
+  }
+  
+  /**
+   * Return the compacted charmap store or null if the states have not been compacted yet.
+   * @return 
+   */
+  public StoreCharMapPhase2 getCompactedCharMaps() {
+    if(charMapStore instanceof StoreCharMapPhase2) {
+      return (StoreCharMapPhase2)charMapStore;
+    } else {
+      return null;
+    }
+  }
+  
   public void compact() {
+    compact(0);
+  }
+  
+  /**
+   * Compact the states, storing char maps which have at least denseThreshold
+   * entries for characters below 256 also as dense tables. 
+   * 
+   * @param denseThreshold minimum number of entries for a dense table, 0 to never use dense tables
+   */
+  public void compact(int denseThreshold) {
     if(charMapStore instanceof StoreCharMapPhase2) {
       // alsready compacted, do nothing
     } else {
@@ -103,7 +143,11 @@ public class StoreStates implements Serializable {
          before = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
       }
 
-      charMapStore = new StoreCharMapPhase2(charMapStore);
+      StoreCharMapPhase2 compacted = new StoreCharMapPhase2(charMapStore, denseThreshold);
+      charMapStore = compacted;
+      if (denseThreshold > 0) {
+        logger.info("Char maps stored as dense tables: "+compacted.getNrDenseTables());
+      }
 
       if (profile) {
          long endTime = System.currentTimeMillis();
@@ -214,13 +258,12 @@ public class StoreStates implements Serializable {
   
   /**
    * Check if the given state is final.
+   * This reads the lookup field directly from the store and does not create any objects.
    * @param state
    * @return
    */
   public boolean isFinal(int state) {
-    char[] chunk = dataStore.getFixedLengthData(state, 5);
-    int l = getLookupFromChars(chunk);
-    return l >= 0;
+    return getLookupIndex(state) >= 0;
   }
   
   /**
@@ -230,29 +273,64 @@ public class StoreStates implements Serializable {
    * @return
    */
   public int next(int state, char chr) {
-    char[] chunk = dataStore.getFixedLengthData(state, 5);
-    if(getIsSingleCharState(chunk)) {
-      char storedchr = chunk[4];
-      if(storedchr == chr) {
-        int ret = getNextStateFromChars(chunk);
-        //logger.info("Returning "+ret);
-        return ret;
+    return nextState(state, chr);
+  }
+  
+  /**
+   * Return the state for the given character or a negative index if no such state exists.
+   * Unlike the methods which work on a copy of the state chunk, this reads
+   * the fields of the state directly from the store and does not create any 
+   * objects, so it can be used in the inner matching loop.
+   * 
+   * @param state
+   * @param chr
+   * @return
+   */
+  public int nextState(int state, char chr) {
+    if((dataStore.getChar(state, 1) & 0x1) == 0) {
+      // single char state
+      if(dataStore.getChar(state, 4) == chr) {
+        return dataStore.getInt(state, 2);
       } else {
-        //logger.info("Returning -1 because storedchr="+storedchr+" and char="+chr);
         return -1;
       }
     } else { // charmap state
-      int charmapindex = getCharMapFromChars(chunk);
-      int ret =  charMapStore.next(charmapindex, chr);
-      //logger.info("Returning from charmapindex: "+charmapindex+" for "+chr+": "+ret);
-      return ret;
+      return charMapStore.next(dataStore.getInt(state, 2), chr);
     }
   }
   
 
+  /**
+   * Add the characters and target states of all transitions of the state
+   * to the given lists, in character order. This can only be used after the
+   * states have been compacted.
+   * 
+   * @param state
+   * @param chars receives the characters
+   * @param states receives the target states
+   * @return the number of transitions added
+   */
+  public int addTransitions(int state, CharArrayList chars, IntArrayList states) {
+    if(!(charMapStore instanceof StoreCharMapPhase2)) {
+      throw new GateRuntimeException("Transitions can only be retrieved after compaction");
+    }
+    if((dataStore.getChar(state, 1) & 0x1) == 0) {
+      // single char state, an empty state has no next state
+      int nextState = dataStore.getInt(state, 2);
+      if(nextState < 0) {
+        return 0;
+      }
+      chars.add(dataStore.getChar(state, 4));
+      states.add(nextState);
+      return 1;
+    } else {
+      return ((StoreCharMapPhase2)charMapStore).addEntries(dataStore.getInt(state, 2), chars, states);
+    }
+  }
+
   public int getLookupIndex(int state) {
-    char[] chunk = dataStore.getFixedLengthData(state, 5);
-    return getLookupFromChars(chunk);
+    // same as getLookupFromChars, but without getting a copy of the chunk
+    return lookupFromInt(dataStore.getInt(state, 0));
   }
   
   public void setLookupIndex(int state, int lookup) {
@@ -368,9 +446,15 @@ public class StoreStates implements Serializable {
   }
   
   protected int getLookupFromChars(char[] chunk) {
-    int tmp = (chunk[0] << 16) + chunk[1];
-    tmp = tmp & 0xfffffffe;
-    return tmp / 2;
+    return lookupFromInt((chunk[0] << 16) + chunk[1]);
+  }
+  
+  // The lookup index is stored shifted left by one bit, so it can use all 
+  // 31 remaining bits if we shift it back without the sign: -1 is then 
+  // stored as all ones.
+  protected static int lookupFromInt(int stored) {
+    int lookup = stored >>> 1;
+    return lookup == Integer.MAX_VALUE ? -1 : lookup;
   }
   
   protected void setCharMapIntoChars(char[] chunk, int charmapindex) {
@@ -20,6 +20,7 @@
  */
 package com.jpetrak.gate.stringannotation.regexp;
 
+import com.jpetrak.gate.stringannotation.utils.SortedAnnotations;
 import com.jpetrak.gate.stringannotation.utils.TextChunk;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -188,6 +189,12 @@ public class JavaRegexpAnnotator extends AbstractLanguageAnalyser
 
   protected Boolean debugMessages = false;
 
+  // re-used for all chunks made from annotations, each chunk is only needed
+  // until it has been annotated. The builder is not kept if it has grown
+  // larger than MAX_KEPT_CHUNK_CAPACITY characters.
+  private transient TextChunk.Builder chunkBuilder;
+  private static final int MAX_KEPT_CHUNK_CAPACITY = 1 << 20;
+
   List<PatternRule> rulesList;
   Pattern ruleStartPattern
           = Pattern.compile(
@@ -258,9 +265,12 @@ public class JavaRegexpAnnotator extends AbstractLanguageAnalyser
     // one chunk for each containing annotation, otherwise just one chunk for
     // the whole document
     TextChunk chunk;
+    if (chunkBuilder == null) {
+      chunkBuilder = new TextChunk.Builder();
+    }
     if (containingAnns == null) {
       if (indirect) {
-        chunk = TextChunk.makeChunk(document, 0, document.getContent().size(), false,
+        chunk = TextChunk.makeChunk(chunkBuilder, document, 0, document.getContent().size(), false,
                 processAnns, getInputAnnotationType(), getTextFeature(), getSpaceAnnotationType(),
                 false, false);
         //System.out.println("Created chunk notContaining/indirect: "+chunk);
@@ -270,10 +280,13 @@ public class JavaRegexpAnnotator extends AbstractLanguageAnalyser
       }
       annotateChunk(chunk, outputAS);
     } else {
-      for (Annotation containing : containingAnns) {
+      // sort the input annotations once instead of querying them for each
+      // containing annotation
+      SortedAnnotations sortedProcessAnns = indirect ? new SortedAnnotations(processAnns) : null;
+      for (Annotation containing : Utils.inDocumentOrder(containingAnns)) {
         if (indirect) {
-          chunk = TextChunk.makeChunk(document, containing, false,
-                  processAnns, getInputAnnotationType(), getTextFeature(), getSpaceAnnotationType(),
+          chunk = TextChunk.makeChunk(chunkBuilder, document, Utils.start(containing), Utils.end(containing), false,
+                  sortedProcessAnns, getInputAnnotationType(), getTextFeature(), getSpaceAnnotationType(),
                   false, false);
           //System.out.println("Created chunk containing/indirect: "+chunk);
         } else {
@@ -283,10 +296,13 @@ public class JavaRegexpAnnotator extends AbstractLanguageAnalyser
         annotateChunk(chunk, outputAS);
       }
     }
+    if (chunkBuilder.getCapacity() > MAX_KEPT_CHUNK_CAPACITY) {
+      chunkBuilder = null;
+    }
   }
 
   protected void annotateChunk(TextChunk chunk, AnnotationSet outputAS) {
-    String docText = chunk.getTextString();
+    CharSequence docText = chunk.getTextForMatching();
 
     boolean haveActive = false;
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.utils;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An annotation set sorted in document order once, so that the annotations
+ * within many ranges of the document can be found by a binary search
+ * instead of a range query and a sort of the annotation set for each range.
+ * <p>
+ * This is used to split a document into chunks: the word, space, split and
+ * containing annotations get sorted once per document and the chunks are
+ * made by sweeping over them.
+ */
+public class SortedAnnotations {
+
+  private final List<Annotation> anns;
+  private final long[] starts;
+  private final long[] ends;
+  // the largest end offset of all annotations up to and including each index
+  private final long[] maxEnds;
+
+  public SortedAnnotations(AnnotationSet annSet) {
+    anns = (annSet == null) ? Collections.<Annotation>emptyList() : Utils.inDocumentOrder(annSet);
+    int size = anns.size();
+    starts = new long[size];
+    ends = new long[size];
+    maxEnds = new long[size];
+    long maxEnd = Long.MIN_VALUE;
+    for (int i = 0; i < size; i++) {
+      Annotation ann = anns.get(i);
+      starts[i] = ann.getStartNode().getOffset();
+      ends[i] = ann.getEndNode().getOffset();
+      maxEnd = Math.max(maxEnd, ends[i]);
+      maxEnds[i] = maxEnd;
+    }
+  }
+
+  public int size() {
+    return anns.size();
+  }
+
+  public boolean isEmpty() {
+    return anns.isEmpty();
+  }
+
+  /**
+   * All the annotations in document order.
+   */
+  public List<Annotation> inDocumentOrder() {
+    return Collections.unmodifiableList(anns);
+  }
+
+  /**
+   * Get the annotations which overlap the range in document order.
+   * These are the same annotations AnnotationSet.get(from, to) returns:
+   * all annotations which start within the range and all annotations
+   * which start before the range and end after its start.
+   *
+   * @param from the start offset of the range
+   * @param to the end offset of the range
+   * @return the overlapping annotations, in document order
+   */
+  public List<Annotation> getOverlapping(long from, long to) {
+    int first = firstStartingAt(from);
+    int last = Math.max(first, firstStartingAt(to));
+    if (first == 0 || maxEnds[first - 1] <= from) {
+      return Collections.unmodifiableList(anns.subList(first, last));
+    }
+    // some annotation which starts before the range reaches into it,
+    // go back as far as the largest end offset tells us it could be there
+    int back = first - 1;
+    while (back > 0 && maxEnds[back - 1] > from) {
+      back--;
+    }
+    List<Annotation> result = new ArrayList<>(last - back);
+    for (int i = back; i < first; i++) {
+      if (ends[i] > from) {
+        result.add(anns.get(i));
+      }
+    }
+    result.addAll(anns.subList(first, last));
+    return result;
+  }
+
+  /**
+   * Get the annotations which are contained in the range in document order.
+   * These are the same annotations AnnotationSet.getContained(from, to) 
+   * returns: all annotations which start within the range and end at or 
+   * before its end.
+   *
+   * @param from the start offset of the range
+   * @param to the end offset of the range
+   * @return the contained annotations, in document order
+   */
+  public List<Annotation> getContained(long from, long to) {
+    int first = firstStartingAt(from);
+    int last = Math.max(first, firstStartingAt(to));
+    List<Annotation> result = null;
+    for (int i = first; i < last; i++) {
+      if (ends[i] > to) {
+        if (result == null) {
+          result = new ArrayList<>(anns.subList(first, i));
+        }
+      } else if (result != null) {
+        result.add(anns.get(i));
+      }
+    }
+    if (result == null) {
+      return Collections.unmodifiableList(anns.subList(first, last));
+    }
+    return result;
+  }
+
+  // the index of the first annotation which starts at or after the offset
+  private int firstStartingAt(long offset) {
+    int low = 0;
+    int high = starts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] < offset) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
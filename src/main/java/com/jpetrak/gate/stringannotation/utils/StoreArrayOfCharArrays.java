@@ -21,18 +21,42 @@
 package com.jpetrak.gate.stringannotation.utils;
 
 import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.Utils;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import gate.util.GateRuntimeException;
 import it.unimi.dsi.fastutil.chars.CharBigArrayBigList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This represents a store that can add and retrieve char[] elements. Each char[] chunk
- * is identified by an int index which is returned when adding the chunk and which
+ * is identified by an int reference which is returned when adding the chunk and which
  * must be used to get it back. The number of chunks in a store is limited to 2^31, and
  * the length of each chunk is also limited to 2^31, but the total amount of chars in
  * the store can exceed 2^32 (unsigned 32 bit).
  * <p>
+ * References below DIRECT_REFS are simply the index of the first character of
+ * the chunk, so for stores with fewer characters, a reference can also be
+ * used to access the characters of a chunk by adding an offset. Once the store
+ * grows beyond DIRECT_REFS characters, each reference above DIRECT_REFS
+ * stands for a position aligned to REF_ALIGN characters after the first DIRECT_REFS
+ * characters, so that up to about 9*2^30 characters can be stored. Clients must
+ * therefore always use the methods which take a reference and an offset to
+ * access the characters of a chunk.
+ * <p>
  *  The store supports storing the following:
  *  <ul>
  *  <li>Varying length chunks. Internally, these are stored by two characters representing
@@ -47,6 +71,16 @@ import it.unimi.dsi.fastutil.chars.CharBigArrayBigList;
  *   first element, the list size are included in chunk length, the chunk length field itself
  *   is not.
  *  </ul>
+ * <p>
+ * A store can also be created from the character data written by 
+ * {@link #writeChars(WritableByteChannel)}, either by memory mapping that data 
+ * from a file or by reading it into buffers. Such a store accesses the characters 
+ * in place and is read-only.
+ * <p>
+ * By default, the characters of a store which is created empty are kept in a 
+ * big list on the Java heap. Alternately, an empty store can be created which 
+ * keeps the characters in direct buffers outside of the Java heap, which are
+ * allocated as the store grows. Such a store cannot be serialized.
  * 
  * @author Johann Petrak
  *
@@ -58,21 +92,336 @@ public class StoreArrayOfCharArrays implements Serializable {
    */
   private static final long serialVersionUID = 1238979454339893943L;
   CharBigArrayBigList theList = new CharBigArrayBigList();
-  int curIndex = 0;
+  long curIndex = 0;
+  
+  private static final char[] zeroChars = Utils.int2TwoChars(0);
+  private static final char[] oneChars = Utils.int2TwoChars(1);
+
+  /**
+   * References below this are the index of the character they refer to.
+   */
+  public static final int DIRECT_REFS = 1 << 30;
+  // References from DIRECT_REFS on refer to positions which are aligned to
+  // REF_ALIGN characters
+  private static final int REF_ALIGN_BITS = 3;
+  private static final int REF_ALIGN = 1 << REF_ALIGN_BITS;
+  // DIRECT_REFS, except for stores created for testing with a lower limit,
+  // so that references beyond the limit can be tested with small stores
+  private transient int directRefs = DIRECT_REFS;
+  
+  // If the store was created from saved character data, the characters are not
+  // in theList but accessed directly from these buffers. Each buffer holds 
+  // SEGMENT_SIZE characters, except the last one which may hold fewer.
+  // We need several buffers because a single mapping is limited to 2^31 bytes.
+  private static final int SEGMENT_BITS = 29;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+  private transient CharBuffer[] segments = null;
+  // the mapped buffers the segments are views of, if the store was created by map
+  private transient ByteBuffer[] mappings = null;
+  private transient boolean readOnly = false;
+  private transient boolean offHeap = false;
+  
+  // If the store keeps the characters off the heap, the buffers are smaller 
+  // so that small stores do not allocate a lot of memory, and a new buffer 
+  // gets allocated whenever the last one is full.
+  private static final int OFFHEAP_SEGMENT_BITS = 20;
+  private transient int segmentBits = SEGMENT_BITS;
+  private transient int segmentMask = SEGMENT_MASK;
+  // the number of characters which have already been put into the buffers
+  private transient long nrSegmentChars = 0;
+
+  // The serialized form is still the one from before the store could hold
+  // more than 2^31 characters, so that cache files in the old format can still
+  // be loaded.
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("theList", CharBigArrayBigList.class),
+    new ObjectStreamField("curIndex", int.class)
+  };
+  
+  /**
+   * Create an empty store which keeps the characters on the Java heap.
+   */
+  public StoreArrayOfCharArrays() {
+  }
+  
+  /**
+   * Create an empty store on the Java heap in which references from 
+   * directRefs on refer to aligned positions, instead of from DIRECT_REFS on.
+   * This is only meant for testing: such a store behaves like a store with 
+   * more than DIRECT_REFS characters, but must not be saved.
+   * 
+   * @param directRefs the limit for references which are simply indices, must be a multiple of 8
+   */
+  StoreArrayOfCharArrays(int directRefs) {
+    this.directRefs = directRefs;
+  }
+  
+  /**
+   * Create an empty store which keeps the characters either on the Java heap
+   * or in direct buffers outside of the heap.
+   * 
+   * @param offHeap if true, keep the characters outside of the Java heap
+   */
+  public StoreArrayOfCharArrays(boolean offHeap) {
+    if(offHeap) {
+      this.offHeap = true;
+      theList = null;
+      segments = new CharBuffer[0];
+      segmentBits = OFFHEAP_SEGMENT_BITS;
+      segmentMask = (1 << OFFHEAP_SEGMENT_BITS) - 1;
+    }
+  }
+  
+  /**
+   * Create a read-only store which accesses the nrChars characters starting at 
+   * the given byte position of the file channel in place by memory mapping them.
+   * The channel can be closed once the store has been created.
+   * 
+   * @param channel the channel of the file which contains the character data
+   * @param position the byte position where the character data starts
+   * @param nrChars the number of characters in the store
+   * @return the store 
+   * @throws IOException 
+   */
+  public static StoreArrayOfCharArrays map(FileChannel channel, long position, long nrChars)
+          throws IOException {
+    StoreArrayOfCharArrays store = new StoreArrayOfCharArrays();
+    store.theList = null;
+    store.curIndex = nrChars;
+    store.readOnly = true;
+    store.offHeap = true;
+    store.segments = new CharBuffer[nrSegments(nrChars)];
+    store.mappings = new ByteBuffer[store.segments.length];
+    for(int i = 0; i < store.segments.length; i++) {
+      long size = segmentSize(nrChars, i);
+      store.mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, 
+              position + 2L * i * SEGMENT_SIZE, 2L * size);
+      store.segments[i] = store.mappings[i].asCharBuffer();
+    }
+    return store;
+  }
+  
+  /**
+   * Drop the references to the memory mapping of a store created by map, so
+   * that the mapping gets released by the garbage collector even if the store
+   * itself is still referenced somewhere. The mapping is not released right
+   * away: a thread which is still reading from the store keeps it alive and
+   * can finish safely. The store must not be used any more after this, 
+   * any access to its characters throws an exception. For stores which were
+   * not created by map, this does nothing.
+   */
+  public void close() {
+    if(mappings == null) {
+      return;
+    }
+    mappings = null;
+    segments = new CharBuffer[0];
+    curIndex = 0;
+  }
+  
+  /**
+   * Create a read-only store by reading nrChars characters from the channel
+   * into heap buffers. This is used if the character data cannot be memory mapped,
+   * e.g. because it is not coming from a file.
+   * 
+   * @param channel the channel to read from, positioned at the start of the character data
+   * @param nrChars the number of characters in the store
+   * @return the store
+   * @throws IOException 
+   */
+  public static StoreArrayOfCharArrays read(ReadableByteChannel channel, long nrChars)
+          throws IOException {
+    return read(channel, nrChars, false);
+  }
+  
+  /**
+   * Create a read-only store by reading nrChars characters from the channel
+   * into either heap buffers or direct buffers outside of the heap.
+   * 
+   * @param channel the channel to read from, positioned at the start of the character data
+   * @param nrChars the number of characters in the store
+   * @param offHeap if true, read into direct buffers
+   * @return the store
+   * @throws IOException 
+   */
+  public static StoreArrayOfCharArrays read(ReadableByteChannel channel, long nrChars, boolean offHeap)
+          throws IOException {
+    StoreArrayOfCharArrays store = new StoreArrayOfCharArrays();
+    store.theList = null;
+    store.curIndex = nrChars;
+    store.readOnly = true;
+    store.offHeap = offHeap;
+    store.segments = new CharBuffer[nrSegments(nrChars)];
+    for(int i = 0; i < store.segments.length; i++) {
+      int size = 2 * segmentSize(nrChars, i);
+      ByteBuffer bytes = offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+      while(bytes.hasRemaining()) {
+        if(channel.read(bytes) < 0) {
+          throw new IOException("Unexpected end of character data");
+        }
+      }
+      bytes.flip();
+      store.segments[i] = bytes.asCharBuffer();
+    }
+    return store;
+  }
+  
+  /**
+   * Write all the characters of the store to the channel, two bytes per 
+   * character, in the format expected by {@link #map(FileChannel, long, long)} and
+   * {@link #read(ReadableByteChannel, long)}.
+   * 
+   * @param channel
+   * @throws IOException 
+   */
+  public void writeChars(WritableByteChannel channel) throws IOException {
+    int bufSize = 65536;
+    char[] buf = new char[bufSize];
+    ByteBuffer bytes = ByteBuffer.allocate(2 * bufSize);
+    for(long from = 0; from < curIndex; from += bufSize) {
+      int n = (int)Math.min(bufSize, curIndex - from);
+      for(int i = 0; i < n; i++) {
+        buf[i] = charAt(from + i);
+      }
+      bytes.clear();
+      bytes.asCharBuffer().put(buf, 0, n);
+      bytes.limit(2 * n);
+      while(bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+  }
+  
+  /**
+   * Return the number of characters in the store.
+   * 
+   * @return number of characters
+   */
+  public long size() {
+    return curIndex;
+  }
   
-  private final char[] zeroChars = Utils.int2TwoChars(0); 
-  private final char[] oneChars = Utils.int2TwoChars(1);
+  /**
+   * Return true if the store accesses saved character data in place and cannot be 
+   * modified.
+   * 
+   * @return true if read-only
+   */
+  public boolean isReadOnly() {
+    return readOnly;
+  }
   
+  /**
+   * Return true if the characters of the store are kept outside of the Java
+   * heap, either in direct buffers or memory mapped from a file.
+   * 
+   * @return true if off-heap
+   */
+  public boolean isOffHeap() {
+    return offHeap;
+  }
+  
+  private static int nrSegments(long nrChars) {
+    return (int)((nrChars + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+  }
+  
+  private static int segmentSize(long nrChars, int segment) {
+    return (int)Math.min(SEGMENT_SIZE, nrChars - (long)segment * SEGMENT_SIZE);
+  }
+  
+  private void checkWritable() {
+    if(readOnly) {
+      throw new GateRuntimeException("Cannot modify a read-only store");
+    }
+  }
+  
+  //// REFERENCES
+
+  /**
+   * Return the index of the character a reference refers to.
+   *
+   * @param ref the reference
+   * @return the index of the character
+   */
+  public static long refToIndex(int ref) {
+    return refToIndex(ref, DIRECT_REFS);
+  }
+  
+  private static long refToIndex(int ref, int directRefs) {
+    if(ref < directRefs) {
+      return ref;
+    }
+    return directRefs + ((long)(ref - directRefs) << REF_ALIGN_BITS);
+  }
+
+  /**
+   * Return the reference for the character at the given index. For indices
+   * from DIRECT_REFS on, the index must be aligned.
+   *
+   * @param index the index of the character
+   * @return the reference
+   */
+  public static int indexToRef(long index) {
+    return indexToRef(index, DIRECT_REFS);
+  }
+  
+  private static int indexToRef(long index, int directRefs) {
+    if(index < directRefs) {
+      return (int)index;
+    }
+    long ref = directRefs + ((index - directRefs) >>> REF_ALIGN_BITS);
+    if(ref >= Integer.MAX_VALUE) {
+      throw new GateRuntimeException("The store is full, cannot add more than "+
+              refToIndex(Integer.MAX_VALUE-1, directRefs)+" characters");
+    }
+    return (int)ref;
+  }
+
+  /**
+   * Return a number which is larger than any reference to a character
+   * currently in the store.
+   *
+   * @return the limit for references
+   */
+  public int getRefLimit() {
+    if(curIndex <= directRefs) {
+      return (int)curIndex;
+    }
+    return (int)Math.min(Integer.MAX_VALUE,
+            directRefs + ((curIndex - directRefs + REF_ALIGN - 1) >>> REF_ALIGN_BITS));
+  }
+
+  // Before adding a chunk of the given length for which a reference to the
+  // character at refOffset will be returned, make sure that the reference
+  // can be represented: if the chunk does not completely fit below DIRECT_REFS,
+  // add padding so that the referenced character is at an aligned position.
+  private void startChunk(int length, int refOffset) {
+    if(curIndex + length <= directRefs) {
+      return;
+    }
+    long refIndex = Math.max(curIndex + refOffset, directRefs);
+    refIndex = (refIndex + REF_ALIGN - 1) & -REF_ALIGN;
+    // make sure we fail before adding anything if the reference is too big
+    indexToRef(refIndex, directRefs);
+    int padding = (int)(refIndex - refOffset - curIndex);
+    if(padding > 0) {
+      addChars(new char[padding]);
+      curIndex += padding;
+    }
+  }
+
   //// VARIABLE LENGTH DATA METHODS
   
   /**
-   * Add variable length data and get back the index under which we can get it back
+   * Add variable length data and get back the reference under which we can get it back
    * @param data the data to add
-   * @return index where the data is stored
+   * @return reference where the data is stored
    */
   public int addData(char[] data) {
+    startChunk(data.length+2, 0);
     // remember where we store the data
-    int oldIndex = curIndex;
+    long oldIndex = curIndex;
     // first store the length of the data
     // we split the int that represents the length into to chars
     int l = data.length;
@@ -82,30 +431,75 @@ public class StoreArrayOfCharArrays implements Serializable {
     // after storing, the new index is now moved by the length of the data
     // plus the two chars where we store the length
     curIndex += data.length+2;
-    return oldIndex;
+    return indexToRef(oldIndex, directRefs);
   }
 
   /** 
-   * Get variable length data from at the given index.
-   * @param index  the index for which data to get
+   * Get variable length data from at the given reference.
+   * @param ref  the reference for which data to get
    * @return char array of data
    */
-  public char[] getData(int index) {
+  public char[] getData(int ref) {
+    long index = refToIndex(ref, directRefs);
     // retrieve the length 
-    int l = Utils.twoChars2Int(theList.getChar(index), theList.getChar(index+1));
+    int l = Utils.twoChars2Int(charAt(index), charAt(index+1));
     // now retrieve the characters for this data block
     char data[] = new char[l];
     for(int i=0; i<l; i++) {
-      data[i] = theList.getChar(index+2+i);
+      data[i] = charAt(index+2+i);
     }
     return data;
   }
 
   
+  /**
+   * Get a single character from the store. 
+   * This reads the character directly from the backing list and is meant for
+   * clients which need to access the fields of some chunk without creating 
+   * a copy of the chunk.
+   * 
+   * @param ref the reference of the chunk
+   * @param offset the offset of the character in the chunk
+   * @return the character
+   */
+  public char getChar(int ref, int offset) {
+    return charAt(refToIndex(ref, directRefs) + offset);
+  }
+  
+  /**
+   * Get the int which is stored as two characters at the given offset of a chunk.
+   * 
+   * @param ref the reference of the chunk
+   * @param offset the offset of the first of the two characters in the chunk
+   * @return the int represented by the two characters
+   */
+  public int getInt(int ref, int offset) {
+    long index = refToIndex(ref, directRefs) + offset;
+    return Utils.twoChars2Int(charAt(index), charAt(index+1));
+  }
+  
+  /**
+   * Get the string made of length characters starting at the given offset of
+   * a chunk.
+   * 
+   * @param ref the reference of the chunk
+   * @param offset the offset of the first character in the chunk
+   * @param length number of characters
+   * @return the string
+   */
+  public String getString(int ref, int offset, int length) {
+    long index = refToIndex(ref, directRefs) + offset;
+    char[] chars = new char[length];
+    for(int i = 0; i < length; i++) {
+      chars[i] = charAt(index+i);
+    }
+    return new String(chars);
+  }
+  
   //// FIXED LENGTH DATA METHODS
   
   /**
-   * Add fixed length data and get back the index under which we can get it back. This will 
+   * Add fixed length data and get back the reference under which we can get it back. This will
    * add a chunk of data of known length to the store: no length is stored in the 
    * store for this chunk. This chunk can only be retrieved with the getFixedLengthData
    * method which will have to specify the length at retrieval time. The length
@@ -115,24 +509,26 @@ public class StoreArrayOfCharArrays implements Serializable {
    * @return
    */
   public int addFixedLengthData(char[] data) {
+    startChunk(data.length, 0);
     // remember where we store the data
-    int oldIndex = curIndex;
+    long oldIndex = curIndex;
     addChars(data);
     // after storing, the new index is now moved by the length of the data
     curIndex += data.length;
-    return oldIndex;
+    return indexToRef(oldIndex, directRefs);
   }
   
   /** 
-   * Get fixed length data of known length stored at the given index.
-   * @param index index
+   * Get fixed length data of known length stored at the given reference.
+   * @param ref reference
    * @param length length
    * @return
    */
-  public char[] getFixedLengthData(int index, int length) {
+  public char[] getFixedLengthData(int ref, int length) {
+    long index = refToIndex(ref, directRefs);
     char data[] = new char[length];
     for(int i=0; i<length; i++) {
-      data[i] = theList.getChar(index+i);
+      data[i] = charAt(index+i);
     }
     return data;
   }
@@ -140,39 +536,45 @@ public class StoreArrayOfCharArrays implements Serializable {
   /**
    * Replace fixed length data with new data. The length of the new date
    * must be identical to the length of the data that was originally stored
-   * at this index.
+   * at this reference.
    * 
-   * @param index index
+   * @param ref reference
    * @param data length
-   * @return the same index is passed
+   * @return the same reference is passed
    */
-  public int replaceFixedLengthData(int index, char[] data) {
+  public int replaceFixedLengthData(int ref, char[] data) {
+    checkWritable();
+    long index = refToIndex(ref, directRefs);
     for(int i = 0; i<data.length; i++) {
-      theList.set(index+i,data[i]);
+      setChar(index+i,data[i]);
     }
-    return index;
+    return ref;
   }
  
   /// LIST DATA METHODS
   /// These methods store elements of a list of elements in the store.
-  /// Each element is a char[] data block. Each list is stored at some index
+  /// Each element is a char[] data block. Each list is stored at some reference
   /// and has n > 0 elements which can be retrieved by the pair 
-  /// (index,element_number)
+  /// (reference,element_number)
+  /// Below DIRECT_REFS, the reference of a list and the next element references
+  /// refer to the start of the element, above they refer to the start of the
+  /// data of the element, so that the data of each element has a reference too.
   
   /**
-   * Add the first element of a new list to the store and return its index. 
+   * Add the first element of a new list to the store and return its reference.
    * After this, a list with length of 1 is stored.
    * 
    * @param data the first element of the list 
-   * @return the index of the list in the store
+   * @return the reference of the list in the store
    */
   public int addListData(char[] data) {
+    startChunk(data.length+6, 6);
     // create the special first list entry: 
     // = length of list (int=2 chars), set to 1
     // = index of next list entry (int=2 chars), set to 0
     // = actual data
     // remember where we store the data
-    int oldIndex = curIndex;
+    long oldIndex = curIndex;
     // first store the length of the data: for the first list entry
     // this also includes size and next element index, so add 4
     // we split the int that represents the length into to chars
@@ -185,82 +587,156 @@ public class StoreArrayOfCharArrays implements Serializable {
     // after storing, the new index is now moved by the length of the data
     // plus the two chars where we store the length
     curIndex += data.length+6;
-    return oldIndex;    
+    // if the element is not completely below DIRECT_REFS, its data is aligned
+    return curIndex > directRefs ? indexToRef(oldIndex+6, directRefs) : (int)oldIndex;
   }
   
   /**
    * Append an additional data blocks to a list that already exists.
-   * If there already is a list stored at the given index, the data will
-   * be added as a new element. If there is no list at the given index,
-   * the data will be added as the first element and the actual new index
+   * If there already is a list stored at the given reference, the data will
+   * be added as a new element. If there is no list at the given reference,
+   * the data will be added as the first element and the actual new reference
    * of that new list will be returned.
    * 
-   * @param index index of the list to which to add the new element
+   * @param ref reference of the list to which to add the new element
    * @param data the element to add
-   * @return the index of the existing list or a new index if a new list had to be created
+   * @return the reference of the existing list or a new reference if a new list had to be created
    */
-  // TODO: instead of doing getData to get the element indices, just directly access
-  // the characters
-  public int addListData(int index, char[] data) {
-    if(index <= 0) {
+  public int addListData(int ref, char[] data) {
+    if(ref <= 0) {
       return addListData(data);
     }
+    checkWritable();
 
-    int size = getListSize(index); 
+    long index = firstBlockIndex(ref);
+    int size = listSize(index);
     if(size < 1) {
       throw new GateRuntimeException("Adding to a list, but size is <1: "+size);
     }
-
     
-    // update the size
-    char sz[] = Utils.int2TwoChars(size+1);
-    theList.set(index+2,sz[0]); // just skip the data length characters: 2 characters
-    theList.set(index+3,sz[1]);
-    
-    
-    // store the new data
-    int newBlockIndex = addNewListBlock(data);
-    
-    // now add the index of that block to either the first block or 
-    // dereference until we are the correct block
-    
-    int curBlockIndex = index; 
-    // if we need to append not at the first block (size!=1, get the next block which
-    // corresponds to size=2    
-    // then if size > 2, iterate as often as still needed
+    // find the last block: if size!=1, get the next block which corresponds 
+    // to size=2, then if size > 2, iterate as often as still needed
+    long curBlockIndex = index;
     if(size > 1) {
-      curBlockIndex = getNextElementIndex4First(index);
+      curBlockIndex = otherBlockIndex(getNextElementRef4First(index));
       for(int i=2; i<size; i++) {
-        curBlockIndex = getNextElementIndex4Other(curBlockIndex);
+        curBlockIndex = otherBlockIndex(getNextElementRef4Other(curBlockIndex));
       }
     }
-    
-    // encode the new block index 
-    char idx[] = Utils.int2TwoChars(newBlockIndex);
-    
-    
-    if(size == 1) {
-      theList.set(index+4,idx[0]);
-      theList.set(index+5,idx[1]);            
-    } else {
-      theList.set(curBlockIndex+2,idx[0]);
-      theList.set(curBlockIndex+3,idx[1]);                  
+    appendListBlock(index, size, curBlockIndex, data);
+    return ref;
+  }
+  
+  /**
+   * Append the data as a new element to the list at the given reference, unless
+   * the list already contains an element with identical data. This is the same
+   * as calling findListData and then addListData, but only traverses the list once.
+   * If there is no list at the given reference, a new list is created and its 
+   * reference returned.
+   * 
+   * @param ref reference of the list to which to add the new element
+   * @param data the element to add
+   * @return the reference of the list or -1 if the data was already in the list
+   */
+  public int addListDataIfAbsent(int ref, char[] data) {
+    if(ref <= 0) {
+      return addListData(data);
     }
-    
-    
-    return index;
+    checkWritable();
+    long index = firstBlockIndex(ref);
+    int size = listSize(index);
+    if(size < 1) {
+      throw new GateRuntimeException("Adding to a list, but size is <1: "+size);
+    }
+    int length = Utils.twoChars2Int(charAt(index), charAt(index+1));
+    if(isChunkEqual(index+6, length-4, data)) {
+      return -1;
+    }
+    long curBlockIndex = index;
+    int nextBlockRef = getNextElementRef4First(index);
+    while(nextBlockRef != 0) {
+      curBlockIndex = otherBlockIndex(nextBlockRef);
+      length = Utils.twoChars2Int(charAt(curBlockIndex), charAt(curBlockIndex+1));
+      if(isChunkEqual(curBlockIndex+4, length-2, data)) {
+        return -1;
+      }
+      nextBlockRef = getNextElementRef4Other(curBlockIndex);
+    }
+    appendListBlock(index, size, curBlockIndex, data);
+    return ref;
+  }
+  
+  /**
+   * Append the data as a new element to the list at the given reference, if 
+   * the reference of the data of the current last element is already known. 
+   * Unlike addListData, this does not need to traverse the list.
+   * 
+   * @param ref reference of an existing list
+   * @param lastDataRef reference of the data of the last element of the list, 
+   * as returned by getListDataRef or this method
+   * @param data the element to add
+   * @return the reference of the data of the new element
+   */
+  public int appendListData(int ref, int lastDataRef, char[] data) {
+    checkWritable();
+    long index = firstBlockIndex(ref);
+    int size = listSize(index);
+    if(size < 1) {
+      throw new GateRuntimeException("Adding to a list, but size is <1: "+size);
+    }
+    long lastBlockIndex = size == 1 ? index : refToIndex(lastDataRef, directRefs) - 4;
+    int newBlockRef = appendListBlock(index, size, lastBlockIndex, data);
+    return newBlockRef < directRefs ? newBlockRef+4 : newBlockRef;
   }
   
   /**
-   * Return the list element at the given index.
+   * Add a new list with all the given elements to the store and return its
+   * reference. The elements are stored one after the other, so that the 
+   * list can be traversed without jumping around in the store.
    * 
-   * @param index index of the list
+   * @param elements the elements of the list, at least one
+   * @return the reference of the list in the store
+   */
+  public int addListData(List<char[]> elements) {
+    int ref = addListData(elements.get(0));
+    long index = firstBlockIndex(ref);
+    long curBlockIndex = index;
+    for(int i = 1; i < elements.size(); i++) {
+      curBlockIndex = otherBlockIndex(appendListBlock(index, i, curBlockIndex, elements.get(i)));
+    }
+    return ref;
+  }
+  
+  /**
+   * Copy the list at the given reference so that all its elements are stored
+   * one after the other and return the reference of the copy. The blocks of 
+   * the original list are not re-used. A list with just one element is
+   * already contiguous, so for such a list the reference is returned unchanged.
+   * 
+   * @param ref reference of the list
+   * @return the reference of the contiguous list
+   */
+  public int compactList(int ref) {
+    int size = getListSize(ref);
+    if(size <= 1) {
+      return ref;
+    }
+    ArrayList<char[]> elements = new ArrayList<>(size);
+    getListData(ref, elements);
+    return addListData(elements);
+  }
+  
+  /**
+   * Return the list element at the given reference.
+   * 
+   * @param ref reference of the list
    * @param element element number
    * @return element data
    */
-  public char[] getListData(int index, int element) {
+  public char[] getListData(int ref, int element) {
     // get the first block which must exist
-    int size = getListSize(index);
+    long index = firstBlockIndex(ref);
+    int size = listSize(index);
     if(size <= 0) {
       throw new GateRuntimeException("getting list data but size is <=0: "+size);
     }
@@ -277,46 +753,71 @@ public class StoreArrayOfCharArrays implements Serializable {
     }
     // if we need an element >0, 
     // de-reference the current block "element" times and get the data from there
-    int nextBlockIndex = getNextElementIndex4First(index);
+    long nextBlockIndex = otherBlockIndex(getNextElementRef4First(index));
     // we did already the first dereferencing from the first block, so if necessary
     // dereference element-1 more times
     for(int i=0;i<(element-1);i++) {
-      nextBlockIndex = getNextElementIndex4Other(nextBlockIndex);
+      nextBlockIndex = otherBlockIndex(getNextElementRef4Other(nextBlockIndex));
     }
     // we have the index of the block we want, return it
     return getDataWithout(nextBlockIndex,2);
   }
   
+  /**
+   * Add the data of all elements of the list at the given reference to the
+   * elements list, in element order. Unlike calling getListData for each element,
+   * this only traverses the list once.
+   * 
+   * @param ref reference of the list
+   * @param elements receives the data of each element
+   * @return the number of elements added
+   */
+  public int getListData(int ref, List<char[]> elements) {
+    long index = firstBlockIndex(ref);
+    elements.add(getDataWithout(index, 4));
+    int n = 1;
+    int nextBlockRef = getNextElementRef4First(index);
+    while(nextBlockRef != 0) {
+      long nextBlockIndex = otherBlockIndex(nextBlockRef);
+      elements.add(getDataWithout(nextBlockIndex, 2));
+      n++;
+      nextBlockRef = getNextElementRef4Other(nextBlockIndex);
+    }
+    return n;
+  }
+  
   /** 
-   * Find the chunk among all the list elements stored at index and 
+   * Find the chunk among all the list elements stored at ref and
    * return the index of the element (&gt;= 0) if found or -1 if not found.
    * 
-   * @param index index of the list in the store
+   * @param ref reference of the list in the store
    * @param chunk the chunk to find
    * @return the index of the chunk in the list or -1 if not found
    */
-  public int findListData(int index, char[] chunk) {
+  public int findListData(int ref, char[] chunk) {
     int elementIndex = 0;
     
     // if the list exists at all, there always must be at least one element, so
     // always check the first element.
     // Find the start and the length of the first element and compare
-    int length = Utils.twoChars2Int(theList.getChar(index), theList.getChar(index+1));
-    int chunkIndex = index+6;  // 2 for the chunk length, 2 for list size,, 2 for next element index
+    long index = firstBlockIndex(ref);
+    int length = Utils.twoChars2Int(charAt(index), charAt(index+1));
+    long chunkIndex = index+6;  // 2 for the chunk length, 2 for list size,, 2 for next element index
     if(isChunkEqual(chunkIndex,length-4,chunk)) {
       return elementIndex;
     }
     // get the next chunk pointer
-    int nextBlockIndex = getNextElementIndex4First(index);
-    while(nextBlockIndex != 0) {
+    int nextBlockRef = getNextElementRef4First(index);
+    while(nextBlockRef != 0) {
       elementIndex++;
       // now check the block at this index!
-      length = Utils.twoChars2Int(theList.getChar(nextBlockIndex), theList.getChar(nextBlockIndex+1));
+      long nextBlockIndex = otherBlockIndex(nextBlockRef);
+      length = Utils.twoChars2Int(charAt(nextBlockIndex), charAt(nextBlockIndex+1));
       chunkIndex = nextBlockIndex+4; // 2 for chunk length, 2 for next element index
       if(isChunkEqual(chunkIndex,length-2,chunk)) {
         return elementIndex;
       }
-      nextBlockIndex = getNextElementIndex4Other(nextBlockIndex);
+      nextBlockRef = getNextElementRef4Other(nextBlockIndex);
     }
     return -1;
   }
@@ -332,12 +833,12 @@ public class StoreArrayOfCharArrays implements Serializable {
    * @param chunk
    * @return
    */
-  protected boolean isChunkEqual(int index, int length, char[] chunk) {
+  protected boolean isChunkEqual(long index, int length, char[] chunk) {
     if(chunk.length != length) {
       return false;
     }
     for(int i = 0; i<length; i++) {
-      if(theList.getChar(index+i) != chunk[i]) {
+      if(charAt(index+i) != chunk[i]) {
         return false;
       }
     }
@@ -345,18 +846,66 @@ public class StoreArrayOfCharArrays implements Serializable {
   }
   
   /**
-   * Return the size of the list at the given index.
-   * If there is no list at this index, the data returned is some arbitrary
+   * Return the size of the list at the given reference.
+   * If there is no list at this reference, the data returned is some arbitrary
    * integer!
    * 
-   * @param index
-   * @return the size of the list stored at this index 
+   * @param ref
+   * @return the size of the list stored at this reference
    */
-  public int getListSize(int index) {
-   return Utils.twoChars2Int(theList.getChar(index+2), theList.getChar(index+3));
+  public int getListSize(int ref) {
+   return listSize(firstBlockIndex(ref));
+  }
+  
+  /**
+   * Add the references of the data of all elements of the list at the given reference
+   * to the refs list, in element order. The data of an element can then
+   * be accessed directly with getChar or getInt, without creating a copy. 
+   * 
+   * @param ref reference of the list
+   * @param refs receives the reference of the data of each element
+   * @return the number of elements added
+   */
+  public int addListDataIndices(int ref, IntArrayList refs) {
+    refs.add(getListDataRef(ref));
+    int n = 1;
+    int nextBlockRef = getNextElementRef4First(firstBlockIndex(ref));
+    while(nextBlockRef != 0) {
+      // for all other elements, the data comes after the length and the next element index
+      refs.add(nextBlockRef < directRefs ? nextBlockRef+4 : nextBlockRef);
+      n++;
+      nextBlockRef = getNextElementRef4Other(otherBlockIndex(nextBlockRef));
+    }
+    return n;
+  }
+  
+  /**
+   * Return the reference of the data of the first element of the list at
+   * the given reference.
+   * 
+   * @param ref reference of the list
+   * @return reference of the data of the first element
+   */
+  public int getListDataRef(int ref) {
+    // the data of the first element comes after the length, size and next element index
+    return ref < directRefs ? ref+6 : ref;
   }
   
   //*******************************************************************
+
+  // the index of the first block of the list with the given reference
+  private long firstBlockIndex(int ref) {
+    return ref < directRefs ? ref : refToIndex(ref, directRefs) - 6;
+  }
+
+  // the index of a block after the first block of a list
+  private long otherBlockIndex(int ref) {
+    return ref < directRefs ? ref : refToIndex(ref, directRefs) - 4;
+  }
+
+  private int listSize(long index) {
+    return Utils.twoChars2Int(charAt(index+2), charAt(index+3));
+  }
   
   /** 
    * Utility method to return the next list element after the first element.
@@ -365,16 +914,36 @@ public class StoreArrayOfCharArrays implements Serializable {
    * @param index
    * @return 
    */
-  private int getNextElementIndex4First(int index) {
-    return Utils.twoChars2Int(theList.getChar(index+4), theList.getChar(index+5));
+  private int getNextElementRef4First(long index) {
+    return Utils.twoChars2Int(charAt(index+4), charAt(index+5));
   }
   /**
    * Utility method to return the next list element after any but the first element.
    * @param index
    * @return 
    */
-  private int getNextElementIndex4Other(int index) {
-    return Utils.twoChars2Int(theList.getChar(index+2), theList.getChar(index+3));
+  private int getNextElementRef4Other(long index) {
+    return Utils.twoChars2Int(charAt(index+2), charAt(index+3));
+  }
+  
+  // Add the data as a new block after the last block of the list with the first
+  // block at index and the given size and return the reference of the new block.
+  private int appendListBlock(long index, int size, long lastBlockIndex, char[] data) {
+    // update the size
+    char sz[] = Utils.int2TwoChars(size+1);
+    setChar(index+2,sz[0]); // just skip the data length characters: 2 characters
+    setChar(index+3,sz[1]);
+    // store the new data and add the reference of that block to the last block
+    int newBlockRef = addNewListBlock(data);
+    char idx[] = Utils.int2TwoChars(newBlockRef);
+    if(size == 1) {
+      setChar(index+4,idx[0]);
+      setChar(index+5,idx[1]);            
+    } else {
+      setChar(lastBlockIndex+2,idx[0]);
+      setChar(lastBlockIndex+3,idx[1]);                  
+    }
+    return newBlockRef;
   }
   
   /**
@@ -392,21 +961,22 @@ public class StoreArrayOfCharArrays implements Serializable {
   // the ordinary get data, except the we have to skip to chars at the 
   // beginning which is the next element pointer, or the size and next element pointer
   // without is 2 or 4 for these.
-  private char[] getDataWithout(int index, int without) {
+  private char[] getDataWithout(long index, int without) {
     // retrieve the length 
-    int l = Utils.twoChars2Int(theList.getChar(index), theList.getChar(index+1));
+    int l = Utils.twoChars2Int(charAt(index), charAt(index+1));
     // now retrieve the characters for this data block
     char data[] = new char[l-without];
     for(int i=0; i<(l-without); i++) {
-      data[i] = theList.getChar(index+2+without+i);
+      data[i] = charAt(index+2+without+i);
     }
     return data;
   }
   
   // similar to addData but also adds the empty next block entry at the beginning 
   private int addNewListBlock(char[] data) {
+    startChunk(data.length+4, 4);
     // remember where we store the data
-    int oldIndex = curIndex;
+    long oldIndex = curIndex;
     // first store the length of the data
     // we split the int that represents the length into to chars
     int l = data.length+2;
@@ -417,15 +987,66 @@ public class StoreArrayOfCharArrays implements Serializable {
     // after storing, the new index is now moved by the length of the data
     // plus the two chars where we store the length
     curIndex += data.length+4;
-    return oldIndex;    
+    return curIndex > directRefs ? indexToRef(oldIndex+4, directRefs) : (int)oldIndex;
   }
   
+  private char charAt(long index) {
+    if(segments != null) {
+      return segments[(int)(index >>> segmentBits)].get((int)index & segmentMask);
+    }
+    return theList.getChar(index);
+  }
   
   private void addChars(char[] cs) {
-    for(char c : cs) {
-      theList.add(c);
+    checkWritable();
+    if(segments != null) {
+      for(char c : cs) {
+        int segment = (int)(nrSegmentChars >>> segmentBits);
+        if(segment == segments.length) {
+          segments = Arrays.copyOf(segments, segment+1);
+          segments[segment] = ByteBuffer.allocateDirect(2 << segmentBits)
+                  .order(ByteOrder.nativeOrder()).asCharBuffer();
+        }
+        segments[segment].put((int)nrSegmentChars & segmentMask, c);
+        nrSegmentChars++;
+      }
+    } else {
+      for(char c : cs) {
+        theList.add(c);
+      }
     }
   }
   
+  private void setChar(long index, char c) {
+    if(segments != null) {
+      segments[(int)(index >>> segmentBits)].put((int)index & segmentMask, c);
+    } else {
+      theList.set(index, c);
+    }
+  }
+  
+  // The characters in buffers do not get serialized, so only stores which 
+  // keep their characters in the list on the heap can be serialized.
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    if(segments != null) {
+      throw new NotSerializableException("Only a store on the Java heap can be serialized");
+    }
+    if(curIndex > Integer.MAX_VALUE) {
+      throw new NotSerializableException("Only a store with less than 2^31 characters can be serialized");
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("theList", theList);
+    fields.put("curIndex", (int)curIndex);
+    out.writeFields();
+  }
+  
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    theList = (CharBigArrayBigList)fields.get("theList", null);
+    curIndex = fields.get("curIndex", 0);
+    segmentBits = SEGMENT_BITS;
+    segmentMask = SEGMENT_MASK;
+    directRefs = DIRECT_REFS;
+  }
   
 }
@@ -26,6 +26,7 @@ import gate.Document;
 import gate.Utils;
 import gate.util.GateRuntimeException;
 
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -51,26 +52,20 @@ public class TextChunk {
   // of the match. If the text is created from the feature value of the word annotations,
   // then all offsets for all of the characters of the text from one annotation will
   // refer to the start offset of that annotation.
-  // NOTE: this int ALSO stores information about whether that location in the text
-  // indicates a word begginning. We use the sign bit for this and store the offset
-  // in the following way: 
-  // No word beginning: the offset, unchanged (which is always >= 0)
-  // Word beginning: -(offset+1) (offset 0->-1, offset 1->-2 etc.)
   private int[] startOffsets;
   // an array of offsets that indicate for each character in our text, at which 
   // offset an annotation would have to end, if this character were at the end
   // of the match. If the text is created from the feature value of the word annotations,
   // then all offsets for all of the characters of the text from one annotation will
   // refer to the end offset of that annotation.
-  // NOTE: this int ALSO stores information about whether that location in the text
-  // indicates a word ending. We use the sign bit for this and store the offset
-  // in the following way: 
-  // No word ending: the offset, unchanged (which is always >= 0)
-  // Word ending: -(offset+1) (offset 0->-1, offset 1->-2 etc.)
   private int[] endOffsets;
+  // bit sets with one bit for each character in our text, set if the character 
+  // can be the first (validMatchStarts) or last (validMatchEnds) character of 
+  // a match, e.g. because it is at the beginning or end of a word.
+  private long[] validMatchStarts;
+  private long[] validMatchEnds;
   
   private int length;
-  private int initialLength;
   private int from;
   private int to;
   
@@ -81,12 +76,7 @@ public class TextChunk {
    * @return
    */
   public int getStartOffset(int off) {
-    int tmp = startOffsets[off];
-    if(tmp < 0) {
-      return (-tmp)-1;
-    } else { 
-      return tmp;
-    }
+    return startOffsets[off];
   }
   /**
    * Get the original document end offset for this offset in the text
@@ -95,64 +85,17 @@ public class TextChunk {
    * @return
    */
   public int getEndOffset(int off) {
-    int tmp = endOffsets[off];
-    if(tmp < 0) {
-      return (-tmp)-1;
-    } else { 
-      return tmp;
-    }
-  }
-  
-  // store the original start offset for the text offset
-  private void putStartOffset(int textoff, int origoff) {
-    guardOffsetP(textoff);
-    startOffsets[textoff] = origoff;
-  }
-  // store the original end offset for the text offset
-  private void putEndOffset(int textoff, int origoff) {
-    guardOffsetP(textoff);
-    endOffsets[textoff] = origoff;
-  }
-  
-  private void putTextChar(int textoff, char ch) {
-    guardOffsetP(textoff);
-    text[textoff] = ch;
-  }
-  
-  
-  // set this text offset as a word start
-  private void setIsValidMatchStart(int textoff) {
-    guardOffsetP(textoff);
-    int tmp = startOffsets[textoff];
-    if(tmp >= 0) {
-      startOffsets[textoff] = -(tmp+1);
-    }
-  }
-  // set this text offset as a word end
-  private void setIsValidMatchEnd(int textoff) {
-    guardOffsetP(textoff);
-    int tmp = endOffsets[textoff];
-    if(tmp >= 0) {
-      endOffsets[textoff] = -(tmp+1);
-    }
+    return endOffsets[off];
   }
   
   public boolean isValidMatchStart(int offset) {
     guardOffset(offset);
-    if(startOffsets[offset] < 0) {
-      return true;
-    } else {
-      return false;
-    }
+    return (validMatchStarts[offset >>> 6] & (1L << offset)) != 0;
   }
 
   public boolean isValidMatchEnd(int offset) {
     guardOffset(offset);
-    if(endOffsets[offset] < 0) {
-      return true;
-    } else {
-      return false;
-    }
+    return (validMatchEnds[offset >>> 6] & (1L << offset)) != 0;
   }
   
   
@@ -161,88 +104,186 @@ public class TextChunk {
     return text[textoff];
   }
   
-  private void guardOffset(int off) {
+  protected void guardOffset(int off) {
     if(!(off < length) || off<0) {
       throw new GateRuntimeException("Attempt to use invalid chunk text offset: off="+off+" length="+length);
     }    
   }
-  // if necessary, enlarge our arrays to hold more data!
-  private void guardOffsetP(int off) {
-    if(!(off < text.length)) {
-      if(debug) {
-        System.out.println("enlarging arrays!");
-      }
-      int newLength = text.length+initialLength;
-      char[] newtext = new char[newLength];
-      System.arraycopy(text, 0, newtext, 0, text.length);
-      text = newtext;
-      int[] newStarts = new int[newLength];
-      System.arraycopy(startOffsets, 0, newStarts, 0, startOffsets.length);
-      startOffsets = newStarts;
-      int[] newEnds   = new int[newLength];
-      System.arraycopy(endOffsets, 0, newEnds, 0, endOffsets.length);
-      endOffsets = newEnds;
-    }    
+  private static int nrBitSetWords(int nrBits) {
+    return (nrBits + 63) >>> 6;
   }
   
+  /**
+   * Make a chunk for the document text between the offsets. The chunk is 
+   * a view of the document text: the text is not copied and all characters
+   * are valid match starts and ends. 
+   * 
+   * @param document the document
+   * @param fromOffset the start offset of the chunk
+   * @param toOffset the end offset of the chunk
+   * @return the chunk
+   */
   public static TextChunk makeChunk(
           Document document,
           long fromOffset, long toOffset          
           ) {
-    TextChunk chunk = new TextChunk();
-    String docText = document.getContent().toString();
     if((toOffset - fromOffset)<0) {
       throw new GateRuntimeException("Cannot annotate range of negative length");
     }
-    int length = (int)(toOffset - fromOffset);
-    chunk.initialLength = length;
-    chunk.from = (int)fromOffset;
-    chunk.to = (int)toOffset;
-    chunk.text = docText.substring(chunk.from, chunk.to).toCharArray();
-    chunk.endOffsets = new int[chunk.initialLength];
-    chunk.startOffsets = new int[chunk.initialLength];
-    for(int i = 0; i < chunk.to; i++) {
-      chunk.putStartOffset(i, chunk.from+i);
-      chunk.putEndOffset(i, chunk.from+i);
-      chunk.setIsValidMatchEnd(i);
-      chunk.setIsValidMatchStart(i);
+    return new TextWindow(document.getContent().toString(), (int)fromOffset, (int)toOffset);
+  }
+  
+  // A chunk which is a window of a CharSequence, e.g. the document text: 
+  // the offsets are computed from the position in the window, every 
+  // character is a valid match start and end.
+  private static final class TextWindow extends TextChunk {
+    private final CharSequence docText;
+    
+    TextWindow(CharSequence docText, int from, int to) {
+      this.docText = docText;
+      super.from = from;
+      super.to = to;
+      super.length = to - from;
+    }
+    
+    @Override
+    public int getStartOffset(int off) {
+      return super.from + off;
+    }
+    
+    @Override
+    public int getEndOffset(int off) {
+      return super.from + off;
+    }
+    
+    @Override
+    public boolean isValidMatchStart(int offset) {
+      guardOffset(offset);
+      return true;
+    }
+    
+    @Override
+    public boolean isValidMatchEnd(int offset) {
+      guardOffset(offset);
+      return true;
+    }
+    
+    @Override
+    public char getCharAt(int textoff) {
+      guardOffset(textoff);
+      return docText.charAt(super.from + textoff);
+    }
+    
+    @Override
+    public CharSequence getText() {
+      return CharBuffer.wrap(docText, super.from, super.to);
+    }
+    
+    @Override
+    public CharSequence getTextForMatching() {
+      return getText();
+    }
+    
+    @Override
+    public String getTextString(int from, int to) {
+      guardOffset(from);
+      guardOffset(to);
+      return docText.subSequence(super.from + from, super.from + to + 1).toString();
+    }
+    
+    @Override
+    public String getTextString() {
+      return docText.subSequence(super.from, super.to).toString();
     }
-    return chunk;
   }
   
+  public static TextChunk makeChunk(
+      Document document, 
+      long fromOffset, long toOffset,
+      boolean caseNormalize,
+      AnnotationSet processAnns, String wordAnnotationType, String wordAnnotationFeature, String spaceAnnotationType,
+      boolean startWithWordStart, boolean endWithWordEnd) {
+    return makeChunk(new Builder(), document, fromOffset, toOffset, caseNormalize, processAnns, 
+        wordAnnotationType, wordAnnotationFeature, spaceAnnotationType, 
+        startWithWordStart, endWithWordEnd);
+  }
   
+  /**
+   * Make a chunk like the other makeChunk methods, but re-use the buffers 
+   * of the builder. The returned chunk is only valid until the builder is
+   * used for the next chunk.
+   */
   public static TextChunk makeChunk(
+      Builder builder,
       Document document, 
       long fromOffset, long toOffset,
       boolean caseNormalize,
       AnnotationSet processAnns, String wordAnnotationType, String wordAnnotationFeature, String spaceAnnotationType,
       boolean startWithWordStart, boolean endWithWordEnd) {
     
-    // TODO: at the moment we do not do language specific case normalization here because this would
-    // make it more complex to keep track of the indices -- String.toUpper(locale) can change the size of the string!
-    // Instead we use char.toUpper which is not perfect but makes things easier!
-    TextChunk chunk = new TextChunk();
-    boolean haveFeature = !(wordAnnotationFeature == null || wordAnnotationFeature.equals(""));
-    // String doctext = document.getContent().toString();
-    chunk.initialLength = Math.max((int)(toOffset-fromOffset),500);
-    chunk.from = (int)fromOffset;
-    chunk.to = (int)toOffset;
-    chunk.text = new char[chunk.initialLength];
-    chunk.endOffsets = new int[chunk.initialLength];
-    chunk.startOffsets = new int[chunk.initialLength];
+    // the text of the chunk can only get longer than the span if the text 
+    // is taken from a feature
+    builder.reset((int)fromOffset, (int)toOffset, (int)(toOffset-fromOffset));
     AnnotationSet actualAnns = processAnns.get(fromOffset,toOffset);
-    AnnotationSet wordAnns = actualAnns.get(wordAnnotationType);
-    if(wordAnns.isEmpty()) {
-      chunk.length = 0;
-      return chunk;
+    if(debug) {
+      System.out.println("Number of total processAnns="+processAnns.size());
+      System.out.println("Number of anns in range="+actualAnns.size());
     }
-    List<Annotation> actualAnnsList = Utils.inDocumentOrder(actualAnns);
-    int i = 0; // index into the text, startOffsets and endOffsets arrays
-    boolean firstSpace = true;
+    if(actualAnns.get(wordAnnotationType).isEmpty()) {
+      return builder.build();
+    }
+    return addAnnotations(builder, document, caseNormalize, Utils.inDocumentOrder(actualAnns),
+        wordAnnotationType, wordAnnotationFeature, spaceAnnotationType,
+        startWithWordStart, endWithWordEnd);
+  }
+  
+  /**
+   * Make a chunk like the other makeChunk methods, but take the word and
+   * space annotations from annotations which have already been sorted in 
+   * document order. This avoids querying and sorting the annotation set 
+   * for each chunk when many chunks are made from the same document.
+   */
+  public static TextChunk makeChunk(
+      Builder builder,
+      Document document, 
+      long fromOffset, long toOffset,
+      boolean caseNormalize,
+      SortedAnnotations processAnns, String wordAnnotationType, String wordAnnotationFeature, String spaceAnnotationType,
+      boolean startWithWordStart, boolean endWithWordEnd) {
+    builder.reset((int)fromOffset, (int)toOffset, (int)(toOffset-fromOffset));
+    List<Annotation> actualAnns = processAnns.getOverlapping(fromOffset, toOffset);
     if(debug) {
       System.out.println("Number of total processAnns="+processAnns.size());
       System.out.println("Number of anns in range="+actualAnns.size());
     }
+    boolean haveWord = false;
+    for(Annotation actualAnn : actualAnns) {
+      if(actualAnn.getType().equals(wordAnnotationType)) {
+        haveWord = true;
+        break;
+      }
+    }
+    if(!haveWord) {
+      return builder.build();
+    }
+    return addAnnotations(builder, document, caseNormalize, actualAnns,
+        wordAnnotationType, wordAnnotationFeature, spaceAnnotationType,
+        startWithWordStart, endWithWordEnd);
+  }
+  
+  // Add the text of the word annotations and a single space for each 
+  // sequence of space annotations to the builder and build the chunk
+  private static TextChunk addAnnotations(
+      Builder builder, Document document, boolean caseNormalize,
+      List<Annotation> actualAnnsList, 
+      String wordAnnotationType, String wordAnnotationFeature, String spaceAnnotationType,
+      boolean startWithWordStart, boolean endWithWordEnd) {
+    // TODO: at the moment we do not do language specific case normalization here because this would
+    // make it more complex to keep track of the indices -- String.toUpper(locale) can change the size of the string!
+    // Instead we use char.toUpper which is not perfect but makes things easier!
+    boolean haveFeature = !(wordAnnotationFeature == null || wordAnnotationFeature.equals(""));
+    String docText = haveFeature ? null : document.getContent().toString();
+    boolean firstSpace = true;
     
     for(Annotation actualAnn : actualAnnsList) {
       int curStart = actualAnn.getStartNode().getOffset().intValue();
@@ -250,105 +291,215 @@ public class TextChunk {
       String curType = actualAnn.getType();
       if(curType.equals(spaceAnnotationType)) {
         if(firstSpace) {
-          // add a space 
-          chunk.putTextChar(i,' ');
-          // was: chunk.text[i] = ' ';
-          i++;
+          builder.addSpace();
           firstSpace = false;
         }        
       } else {
         // we have a word
         if(debug) {
           System.out.println("Add word annotation: "+actualAnn);
-          System.out.println("i="+i);
+          System.out.println("length="+builder.getLength());
         }
-        
-        String wordText = null;
-        
-        // unless we havent set the text already to 0 earlier
-        if (wordText == null) {
-          if (haveFeature) {
-            wordText = (String) actualAnn.getFeatures().get(
-                wordAnnotationFeature);
-            if (debug) {
-              System.out.println("Got feature value=" + wordText);
-            }
-          } else {
-            wordText = gate.Utils.stringFor(document, actualAnn);
-            if (debug) {
-              System.out.println("Got document text=" + wordText);
-            }
+        if(haveFeature) {
+          String wordText = (String) actualAnn.getFeatures().get(wordAnnotationFeature);
+          if(wordText == null || wordText.isEmpty()) {
+            continue;
           }
-        }
-        if(wordText == null || wordText.isEmpty()) {
-          if(debug) {
-            System.out.println("Skipping: no text!");
+          builder.addFeatureText(wordText, curStart, curEnd, 
+                  caseNormalize, startWithWordStart, endWithWordEnd);
+        } else {
+          if(curEnd <= curStart) {
+            continue;
           }
-          continue;
+          builder.addDocumentText(docText, curStart, curEnd, 
+                  caseNormalize, startWithWordStart, endWithWordEnd);
         }
-
-        // TODO: if the wordStartFeature is given, get its value and set the default
-        // for validMatchStart accordingly, otherwise set it to true.
-        // Same for wordEndFeature
-        boolean validMatchEndDefault = true;
-        boolean validMatchStartDefault = true;
-                
         firstSpace = true; 
-        // add the wordText
-        char[] wordTextChars = wordText.toCharArray();
-        for(int j=0;j<wordTextChars.length;j++) {
-          char c = wordTextChars[j];
-          if(caseNormalize) {
-            c = Character.toUpperCase(c);
-          }
-          chunk.putTextChar(i, c);
-          // was: chunk.text[i] = wordTextChars[j];
-          if(haveFeature) {
-            chunk.putStartOffset(i, curStart);
-            // was: chunk.startOffsets[i] = curStart; 
-            chunk.putEndOffset(i, curEnd-1);
-            // was: chunk.endOffsets[i] = curEnd-1;
-          } else {
-            chunk.putStartOffset(i, curStart+j);
-            // was: chunk.startOffsets[i] = curStart+j;
-            chunk.putEndOffset(i, curStart+j);
-            // chunk.endOffsets[i] = curStart+j;
-          }
-          
-
-          // If the word specifically set matchStartFeature to true,
-          // then set the default for this being a valid match to true,
-          // otherwise set it to false.
-          // Same for matchEndFeauture.
-          boolean validMatchStart = validMatchStartDefault;
-          boolean validMatchEnd = validMatchEndDefault;
-          
-          // if startWithWordStart is set, then make sure we do not have 
-          // a valid match start unless we are at the first character of the word
-          if(startWithWordStart && j!=0) {
-            validMatchStart = false;
-          }
-          // if startWithWordEnd is set, then make sure we do not have 
-          // a valid match end unless we are at the last character of the word
-          if(endWithWordEnd && j!=(wordTextChars.length-1)) {
-            validMatchEnd = false;
-          }
-          if(validMatchStart) {
-            chunk.setIsValidMatchStart(i);
-          }
-          if(validMatchEnd) {
-            chunk.setIsValidMatchEnd(i);
-          }
-          i++;
-        }
       }
     } // for actualAnn
+    TextChunk chunk = builder.build();
     if(debug) {
       System.out.println("Created chunk: "+chunk);
     }
-    chunk.length = i;
     return chunk;
   }
+  
+  /**
+   * Builds a chunk from the text of word annotations and single spaces. 
+   * The arrays are sized for the expected length of the text up front and 
+   * the text of each word is added at once, the arrays only grow if the text
+   * gets longer than expected.
+   * <p>
+   * A builder can be re-used for any number of chunks, it keeps its arrays
+   * and only ever makes them larger, so building a chunk does not allocate
+   * anything once the arrays are large enough. The chunk returned by build 
+   * shares the arrays, so it is only valid until the builder gets reset.
+   */
+  public static final class Builder {
+    private final TextChunk chunk = new TextChunk();
+    private int from;
+    private int to;
+    private char[] text = new char[0];
+    private int[] startOffsets = new int[0];
+    private int[] endOffsets = new int[0];
+    private long[] validMatchStarts = new long[0];
+    private long[] validMatchEnds = new long[0];
+    private int length;
+    
+    /**
+     * Start a new chunk, discarding the text added so far.
+     * 
+     * @param from the document offset where the chunk starts
+     * @param to the document offset where the chunk ends
+     * @param capacity the expected length of the chunk text
+     * @return this builder
+     */
+    public Builder reset(int from, int to, int capacity) {
+      // only the bits of the last chunk can be set
+      Arrays.fill(validMatchStarts, 0, nrBitSetWords(length), 0L);
+      Arrays.fill(validMatchEnds, 0, nrBitSetWords(length), 0L);
+      this.from = from;
+      this.to = to;
+      length = 0;
+      ensureCapacity(capacity);
+      return this;
+    }
+    
+    public int getLength() {
+      return length;
+    }
+    
+    /**
+     * Return the number of characters the arrays can hold without growing.
+     * 
+     * @return the capacity
+     */
+    public int getCapacity() {
+      return text.length;
+    }
+    
+    /**
+     * Add a space, which is not part of any word and has no offsets.
+     */
+    public void addSpace() {
+      ensureCapacity(length + 1);
+      text[length] = ' ';
+      startOffsets[length] = 0;
+      endOffsets[length] = 0;
+      length++;
+    }
+    
+    /**
+     * Add the text of a word which is taken from the document text: each 
+     * character gets its own offset.
+     * 
+     * @param docText the document text
+     * @param start the start offset of the word
+     * @param end the end offset of the word
+     * @param caseNormalize convert the text to upper case
+     * @param startWithWordStart if true, a match can only start at the first character
+     * @param endWithWordEnd if true, a match can only end at the last character
+     */
+    public void addDocumentText(String docText, int start, int end, 
+            boolean caseNormalize, boolean startWithWordStart, boolean endWithWordEnd) {
+      int n = end - start;
+      ensureCapacity(length + n);
+      docText.getChars(start, end, text, length);
+      for(int j = 0; j < n; j++) {
+        startOffsets[length + j] = start + j;
+        endOffsets[length + j] = start + j;
+      }
+      addWord(n, caseNormalize, startWithWordStart, endWithWordEnd);
+    }
+    
+    /**
+     * Add the text of a word which is taken from a feature: all characters 
+     * get the offsets of the whole word.
+     * 
+     * @param wordText the text of the word
+     * @param start the start offset of the word annotation
+     * @param end the end offset of the word annotation
+     * @param caseNormalize convert the text to upper case
+     * @param startWithWordStart if true, a match can only start at the first character
+     * @param endWithWordEnd if true, a match can only end at the last character
+     */
+    public void addFeatureText(String wordText, int start, int end, 
+            boolean caseNormalize, boolean startWithWordStart, boolean endWithWordEnd) {
+      int n = wordText.length();
+      ensureCapacity(length + n);
+      wordText.getChars(0, n, text, length);
+      Arrays.fill(startOffsets, length, length + n, start);
+      Arrays.fill(endOffsets, length, length + n, end - 1);
+      addWord(n, caseNormalize, startWithWordStart, endWithWordEnd);
+    }
+    
+    // finish adding the n characters of a word which have been copied already
+    private void addWord(int n, boolean caseNormalize, 
+            boolean startWithWordStart, boolean endWithWordEnd) {
+      if(caseNormalize) {
+        for(int i = length; i < length + n; i++) {
+          text[i] = Character.toUpperCase(text[i]);
+        }
+      }
+      if(startWithWordStart) {
+        setBits(validMatchStarts, length, length + 1);
+      } else {
+        setBits(validMatchStarts, length, length + n);
+      }
+      if(endWithWordEnd) {
+        setBits(validMatchEnds, length + n - 1, length + n);
+      } else {
+        setBits(validMatchEnds, length, length + n);
+      }
+      length += n;
+    }
+    
+    // set the bits from fromIndex (inclusive) to toIndex (exclusive)
+    private static void setBits(long[] bits, int fromIndex, int toIndex) {
+      int firstWord = fromIndex >>> 6;
+      int lastWord = (toIndex - 1) >>> 6;
+      long firstMask = -1L << fromIndex;
+      long lastMask = -1L >>> -toIndex;
+      if(firstWord == lastWord) {
+        bits[firstWord] |= firstMask & lastMask;
+      } else {
+        bits[firstWord] |= firstMask;
+        for(int i = firstWord + 1; i < lastWord; i++) {
+          bits[i] = -1L;
+        }
+        bits[lastWord] |= lastMask;
+      }
+    }
+    
+    private void ensureCapacity(int capacity) {
+      if(capacity > text.length) {
+        int newLength = Math.max(capacity, 2 * text.length);
+        text = Arrays.copyOf(text, newLength);
+        startOffsets = Arrays.copyOf(startOffsets, newLength);
+        endOffsets = Arrays.copyOf(endOffsets, newLength);
+        validMatchStarts = Arrays.copyOf(validMatchStarts, nrBitSetWords(newLength));
+        validMatchEnds = Arrays.copyOf(validMatchEnds, nrBitSetWords(newLength));
+      }
+    }
+    
+    /**
+     * Return the chunk for the text added since the last reset.
+     * 
+     * @return the chunk
+     */
+    public TextChunk build() {
+      chunk.from = from;
+      chunk.to = to;
+      chunk.text = text;
+      chunk.startOffsets = startOffsets;
+      chunk.endOffsets = endOffsets;
+      chunk.validMatchStarts = validMatchStarts;
+      chunk.validMatchEnds = validMatchEnds;
+      chunk.length = length;
+      return chunk;
+    }
+  }
+  
   public static TextChunk makeChunk(Document document, Annotation ann, boolean caseNormalise,
       AnnotationSet processAnns, String wordAnnotationType, String wordAnnotationFeature, String spaceAnnotationType,
       boolean startWithWordStart, boolean endWithWordEnd) {
@@ -356,6 +507,14 @@ public class TextChunk {
         wordAnnotationType,wordAnnotationFeature,spaceAnnotationType,
         startWithWordStart, endWithWordEnd);
   }
+  
+  public static TextChunk makeChunk(Builder builder, Document document, Annotation ann, boolean caseNormalise,
+      AnnotationSet processAnns, String wordAnnotationType, String wordAnnotationFeature, String spaceAnnotationType,
+      boolean startWithWordStart, boolean endWithWordEnd) {
+    return makeChunk(builder, document, ann.getStartNode().getOffset(),ann.getEndNode().getOffset(),caseNormalise, processAnns, 
+        wordAnnotationType,wordAnnotationFeature,spaceAnnotationType,
+        startWithWordStart, endWithWordEnd);
+  }
  
   public int getLength() {
     return length;
@@ -368,7 +527,28 @@ public class TextChunk {
   }
   
   public String getTextString() {
-    return new String(text);
+    return new String(text, 0, length);
+  }
+  
+  /**
+   * Return the text of the chunk without copying it.
+   * 
+   * @return the text
+   */
+  public CharSequence getText() {
+    return CharBuffer.wrap(text, 0, length);
+  }
+  
+  /**
+   * Return the text of the chunk for matching it many times, e.g. with 
+   * regular expressions. For a chunk of the document text, this is a view 
+   * of the document text, like getText. Otherwise the text gets copied once
+   * into a String, which is faster to access than a view of the arrays.
+   * 
+   * @return the text
+   */
+  public CharSequence getTextForMatching() {
+    return getTextString();
   }
   
   public String toString() {
@@ -376,7 +556,7 @@ public class TextChunk {
     sb.append("\nChunk: ");
     sb.append("from=").append(from).append(" to=").append(to).append(" length="+length);
     sb.append("\ntext=");
-    sb.append(new String(text));
+    sb.append(getText());
     sb.append("\nstartOffsets: ");
     for(int i=0; i<length; i++ ) {
       sb.append(getStartOffset(i)).append(",");
@@ -30,6 +30,8 @@ import gate.creole.ExecutionException;
 import gate.creole.ResourceInstantiationException;
 import gate.util.AnnotationDiffer;
 import gate.util.GateException;
+import gate.util.GateRuntimeException;
+import gate.util.InvalidOffsetException;
 import gate.test.GATEPluginTests;
 
 import java.io.File;
@@ -37,20 +39,37 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.jpetrak.gate.stringannotation.extendedgazetteer.AhoCorasickAutomaton;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.FeatureGazetteer;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.GazStore;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.GazStoreOverlay;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.GazStoreType;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.Lookup;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.State;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.Visitor;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreDawg;
+import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreDoubleArray;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.GazStoreTrie3;
+import com.jpetrak.gate.stringannotation.utils.SortedAnnotations;
 import com.jpetrak.gate.stringannotation.utils.StoreArrayOfCharArrays;
+import com.jpetrak.gate.stringannotation.utils.TextChunk;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.StoreCharMapPhase1;
 import com.jpetrak.gate.stringannotation.extendedgazetteer.trie.StoreStates;
 
@@ -135,6 +154,105 @@ public class Tests1 extends GATEPluginTests {
     assertEquals(1,j);
   }
   
+  @Test
+  public void testStoreListCompaction() {
+    StoreArrayOfCharArrays as = new StoreArrayOfCharArrays();
+    as.addData("x".toCharArray());
+    int i = as.addListData("e0".toCharArray());
+    for(int k = 1; k < 5; k++) {
+      // other data between the elements, as when the trie gets built
+      as.addData("between".toCharArray());
+      assertEquals(i, as.addListDataIfAbsent(i, ("e"+k).toCharArray()));
+    }
+    assertEquals(-1, as.addListDataIfAbsent(i, "e0".toCharArray()));
+    assertEquals(-1, as.addListDataIfAbsent(i, "e4".toCharArray()));
+    assertEquals(5, as.getListSize(i));
+
+    int j = as.compactList(i);
+    assertTrue(j != i);
+    List<char[]> elements = new ArrayList<>();
+    assertEquals(5, as.getListData(j, elements));
+    IntArrayList refs = new IntArrayList();
+    as.addListDataIndices(j, refs);
+    for(int k = 0; k < 5; k++) {
+      assertEquals("e"+k, new String(elements.get(k)));
+      assertEquals("e"+k, new String(as.getListData(j, k)));
+      assertEquals("e"+k, new String(as.getListData(i, k)));
+      if(k > 0) {
+        // each element directly follows the previous one
+        assertEquals(refs.getInt(k-1)+2+4, refs.getInt(k));
+      }
+    }
+    // a list with one element does not get copied
+    int l = as.addListData("single".toCharArray());
+    assertEquals(l, as.compactList(l));
+  }
+
+  @Test
+  public void testStoreReferences() {
+    int direct = StoreArrayOfCharArrays.DIRECT_REFS;
+    // below DIRECT_REFS, references are just indices
+    assertEquals(0L, StoreArrayOfCharArrays.refToIndex(0));
+    assertEquals(direct-1, StoreArrayOfCharArrays.indexToRef(direct-1));
+    // above, each reference stands for 8 characters
+    assertEquals((long)direct, StoreArrayOfCharArrays.refToIndex(direct));
+    assertEquals(direct+8L, StoreArrayOfCharArrays.refToIndex(direct+1));
+    long last = StoreArrayOfCharArrays.refToIndex(Integer.MAX_VALUE-1);
+    assertTrue(last > 8L * direct);
+    assertEquals(Integer.MAX_VALUE-1, StoreArrayOfCharArrays.indexToRef(last));
+    assertEquals(direct+1, StoreArrayOfCharArrays.indexToRef(direct+8L));
+  }
+  
+  @Test
+  public void testStoreOffHeap() throws IOException {
+    StoreArrayOfCharArrays heap = new StoreArrayOfCharArrays();
+    StoreArrayOfCharArrays offHeap = new StoreArrayOfCharArrays(true);
+    assertFalse(heap.isOffHeap());
+    assertTrue(offHeap.isOffHeap());
+    // a list at index 0 cannot be extended, so add some other data first
+    heap.addData("first".toCharArray());
+    offHeap.addData("first".toCharArray());
+    // add enough data to need several off-heap buffers
+    IntArrayList indices = new IntArrayList();
+    for(int k = 0; k < 3000; k++) {
+      char[] data = ("entry "+k+" ").toCharArray();
+      char[] chunk = new char[500];
+      for(int c = 0; c < chunk.length; c++) {
+        chunk[c] = data[c % data.length];
+      }
+      int i1 = heap.addListData(chunk);
+      int i2 = offHeap.addListData(chunk);
+      assertEquals(i1, i2);
+      heap.addListData(i1, data);
+      offHeap.addListData(i2, data);
+      indices.add(i1);
+    }
+    assertTrue(offHeap.size() > 1 << 20);
+    assertEquals(heap.size(), offHeap.size());
+    for(int i = 0; i < indices.size(); i++) {
+      int index = indices.getInt(i);
+      assertEquals(2, offHeap.getListSize(index));
+      assertEquals(new String(heap.getListData(index, 0)), new String(offHeap.getListData(index, 0)));
+      assertEquals(new String(heap.getListData(index, 1)), new String(offHeap.getListData(index, 1)));
+    }
+    
+    GazStoreTrie3 gs = new GazStoreTrie3(true);
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    gs.addLookup("asdf", info1, new String[]{"e","asdf"});
+    gs.addLookup("as", info1, new String[0]);
+    gs.compact();
+    File cacheFile = File.createTempFile("testStoreOffHeap", ".gazbin");
+    cacheFile.deleteOnExit();
+    gs.save(cacheFile);
+    for(GazStore store : new GazStore[]{gs, GazStoreTrie3.load(cacheFile.toURI().toURL())}) {
+      assertNull(store.match("asd"));
+      assertNotNull(store.match("as"));
+      FeatureMap fm = Factory.newFeatureMap();
+      store.addLookupEntryFeatures(fm, store.match("asdf").next());
+      assertEquals("asdf", fm.get("e"));
+    }
+  }
+  
   
   @Test
   public void testLookupTrie3() {
@@ -165,7 +283,676 @@ public class Tests1 extends GATEPluginTests {
     }
     assertEquals(1,nrLookups);
   }
+
+  @Test
+  public void testTrie3DuplicateLookups() {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    // lookups which have already been added must be ignored, in whatever
+    // order they get added again
+    String[] values = new String[]{"Aa","BB","Aa","C#","BB","x","C#","Aa"};
+    for(String value : values) {
+      gs.addLookup("paris", info1, new String[]{"key1",value});
+    }
+    gs.compact();
+    Iterator<Lookup> it = gs.match("paris");
+    List<Object> found = new ArrayList<>();
+    while(it.hasNext()) {
+      FeatureMap fm = Factory.newFeatureMap();
+      gs.addLookupEntryFeatures(fm, it.next());
+      found.add(fm.get("key1"));
+    }
+    assertEquals(java.util.Arrays.asList("Aa","BB","C#","x"), found);
+  }
+
+  @Test
+  public void testTrie3SharedLookups() {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    String[] keyvals = new String[]{"country","DE","source","wikidata"};
+    gs.addLookup("berlin", info1, keyvals);
+    gs.addLookup("hamburg", info1, keyvals);
+    gs.addLookup("bremen", info1, keyvals);
+    // must not change the lookups of the other entries
+    gs.addLookup("bremen", info1, new String[]{"country","DE","source","other"});
+    gs.compact();
+    IntArrayList berlin = new IntArrayList();
+    IntArrayList hamburg = new IntArrayList();
+    IntArrayList bremen = new IntArrayList();
+    gs.addLookupRefs(stateFor(gs, "berlin"), berlin);
+    gs.addLookupRefs(stateFor(gs, "hamburg"), hamburg);
+    gs.addLookupRefs(stateFor(gs, "bremen"), bremen);
+    // identical lookups are only stored once
+    assertEquals(berlin, hamburg);
+    assertEquals(2, bremen.size());
+    FeatureMap fm = Factory.newFeatureMap();
+    gs.addLookupEntryFeatures(fm, hamburg.getInt(0));
+    assertEquals("DE", fm.get("country"));
+    assertEquals("wikidata", fm.get("source"));
+    fm = Factory.newFeatureMap();
+    gs.addLookupEntryFeatures(fm, bremen.getInt(1));
+    assertEquals("DE", fm.get("country"));
+    assertEquals("other", fm.get("source"));
+    Iterator<Lookup> it = gs.match("bremen");
+    fm = Factory.newFeatureMap();
+    gs.addLookupEntryFeatures(fm, it.next());
+    assertEquals("wikidata", fm.get("source"));
+  }
+
+  @Test
+  public void testTrie3AddAfterCompaction() {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    String[] keyvals = new String[]{"country","DE","source","wikidata"};
+    gs.addLookup("berlin", info1, keyvals);
+    gs.addLookup("hamburg", info1, keyvals);
+    gs.addLookup("bremen", info1, keyvals);
+    gs.addLookup("bremen", info1, new String[]{"country","DE","source","other"});
+    gs.compact();
+    IntArrayList bremen = new IntArrayList();
+    gs.addLookupRefs(stateFor(gs, "bremen"), bremen);
+    // the list of bremen is not shared and gets extended in place
+    gs.addLookup("bremen", info1, new String[]{"country","DE","source","third"});
+    gs.addLookup("bremen", info1, new String[]{"country","DE","source","third"});
+    IntArrayList bremen2 = new IntArrayList();
+    gs.addLookupRefs(stateFor(gs, "bremen"), bremen2);
+    assertEquals(3, bremen2.size());
+    assertEquals(bremen, bremen2.subList(0, 2));
+    // the list of berlin is shared with hamburg and must get copied
+    gs.addLookup("berlin", info1, new String[]{"country","DE","source","other"});
+    IntArrayList berlin = new IntArrayList();
+    IntArrayList hamburg = new IntArrayList();
+    gs.addLookupRefs(stateFor(gs, "berlin"), berlin);
+    gs.addLookupRefs(stateFor(gs, "hamburg"), hamburg);
+    assertEquals(2, berlin.size());
+    assertEquals(1, hamburg.size());
+    FeatureMap fm = Factory.newFeatureMap();
+    gs.addLookupEntryFeatures(fm, hamburg.getInt(0));
+    assertEquals("wikidata", fm.get("source"));
+    fm = Factory.newFeatureMap();
+    gs.addLookupEntryFeatures(fm, berlin.getInt(1));
+    assertEquals("other", fm.get("source"));
+  }
+
+  private static int stateFor(GazStore gs, String text) {
+    int s = gs.getInitialStateIndex();
+    for(int i = 0; i < text.length() && s >= 0; i++) {
+      s = gs.nextState(s, text.charAt(i));
+    }
+    return s;
+  }
+
+  @Test
+  public void testGazStoreOverlay() {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    int info2 = gs.addListInfo("Type2", "URL2", Factory.newFeatureMap());
+    gs.addLookup("berlin", info1, new String[]{"country","DE"});
+    gs.addLookup("berlin", info2, new String[0]);
+    gs.addLookup("bern", info1, new String[]{"country","CH"});
+    gs.compact();
+    List<GazStoreOverlay.Change> changes = new ArrayList<>();
+    changes.add(GazStoreOverlay.Change.removal("berlin", info1));
+    changes.add(GazStoreOverlay.Change.addition("ber", info1, new String[]{"kind","prefix"}));
+    // lookups which are already there must not get added again
+    changes.add(GazStoreOverlay.Change.addition("bern", info1, new String[]{"country","CH"}));
+    changes.add(GazStoreOverlay.Change.addition("bonn", info2, new String[0]));
+    changes.add(GazStoreOverlay.Change.addition("bonn", info2, new String[0]));
+    GazStoreOverlay overlay = new GazStoreOverlay(gs).withChanges(changes);
+    // the base store does not change
+    assertEquals(2, listIndices(gs, "berlin").size());
+    assertTrue(listIndices(gs, "ber").isEmpty());
+    GazStoreTrie3 merged = new GazStoreTrie3();
+    overlay.copyTo(merged);
+    merged.compact();
+    for(GazStore store : new GazStore[]{overlay, merged}) {
+      assertEquals(IntArrayList.wrap(new int[]{info2}), listIndices(store, "berlin"));
+      assertEquals(IntArrayList.wrap(new int[]{info1}), listIndices(store, "ber"));
+      assertEquals(IntArrayList.wrap(new int[]{info1}), listIndices(store, "bern"));
+      assertEquals(IntArrayList.wrap(new int[]{info2}), listIndices(store, "bonn"));
+      assertTrue(listIndices(store, "bo").isEmpty());
+      FeatureMap fm = Factory.newFeatureMap();
+      store.addLookupEntryFeatures(fm, store.match("ber").next());
+      assertEquals("prefix", fm.get("kind"));
+      fm = Factory.newFeatureMap();
+      store.addLookupEntryFeatures(fm, store.match("bern").next());
+      assertEquals("CH", fm.get("country"));
+      assertEquals("Type2", store.getLookupType(store.match("bonn").next()));
+    }
+    assertEquals(merged.getAhoCorasickAutomaton().getNrNodes(), 
+            overlay.getAhoCorasickAutomaton().getNrNodes());
+    // the object based access to the states of the overlay
+    State state = overlay.getInitialState();
+    for(char c : "bonn".toCharArray()) {
+      state = state.next(c);
+    }
+    assertTrue(state.isFinal());
+    assertEquals(info2, overlay.getListInfoIndex(overlay.getLookups(state).next()));
+    assertNull(overlay.getInitialState().next('x'));
+    Visitor visitor = overlay.getVisitor();
+    for(char c : "ber".toCharArray()) {
+      assertTrue(visitor.match(c));
+    }
+    assertTrue(visitor.isFinal());
+    assertEquals(1, visitor.getMatch().getLookups().size());
+    assertEquals(info1, overlay.getListInfoIndex(visitor.getMatch().getLookups().get(0)));
+    assertTrue(visitor.match('l'));
+    assertFalse(visitor.isFinal());
+    assertNull(visitor.getMatch());
+    visitor.reset();
+    assertFalse(visitor.match('x'));
+    assertFalse(visitor.match('b'));
+  }
+
+  @Test
+  public void testGazStoreOverlayLayers() {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    int info2 = gs.addListInfo("Type2", "URL2", Factory.newFeatureMap());
+    String[] words = {"a", "ab", "abc", "b", "ba", "bab", "c", "cab"};
+    for(String word : words) {
+      gs.addLookup(word, info1, new String[]{"w",word});
+    }
+    gs.compact();
+    Random random = new Random(17);
+    List<GazStoreOverlay.Change> changes = new ArrayList<>();
+    GazStoreOverlay stepwise = new GazStoreOverlay(gs);
+    for(int i = 0; i < 300; i++) {
+      String word = words[random.nextInt(words.length)];
+      int info = random.nextBoolean() ? info1 : info2;
+      GazStoreOverlay.Change change = random.nextInt(3) == 0
+              ? GazStoreOverlay.Change.removal(word, info)
+              : GazStoreOverlay.Change.addition(word, info, new String[]{"n",""+random.nextInt(3)});
+      changes.add(change);
+      stepwise = stepwise.withChanges(Collections.singletonList(change));
+    }
+    GazStoreOverlay atOnce = new GazStoreOverlay(gs).withChanges(changes);
+    assertEquals(changes.size(), stepwise.getNrChanges());
+    assertEquals(changes.size(), stepwise.getChanges().size());
+    for(int i = 0; i < changes.size(); i++) {
+      assertSame(changes.get(i), stepwise.getChanges().get(i));
+    }
+    for(String word : words) {
+      assertEquals(lookupFeatures(atOnce, word), lookupFeatures(stepwise, word));
+    }
+  }
+
+  // the list info index and entry features of the lookups for the text, in order
+  private static List<String> lookupFeatures(GazStore gs, String text) {
+    IntArrayList refs = new IntArrayList();
+    List<String> result = new ArrayList<>();
+    int s = stateFor(gs, text);
+    if(s >= 0 && gs.isFinal(s)) {
+      gs.addLookupRefs(s, refs);
+      for(int i = 0; i < refs.size(); i++) {
+        FeatureMap fm = Factory.newFeatureMap();
+        gs.addLookupEntryFeatures(fm, refs.getInt(i));
+        result.add(gs.getListInfoIndex(refs.getInt(i)) + ":" + new TreeMap<>(fm));
+      }
+    }
+    return result;
+  }
+
+  // the list info indices of the lookups for the text, in order
+  private static IntArrayList listIndices(GazStore gs, String text) {
+    IntArrayList refs = new IntArrayList();
+    IntArrayList indices = new IntArrayList();
+    int s = stateFor(gs, text);
+    if(s >= 0 && gs.isFinal(s)) {
+      gs.addLookupRefs(s, refs);
+      for(int i = 0; i < refs.size(); i++) {
+        indices.add(gs.getListInfoIndex(refs.getInt(i)));
+      }
+    }
+    return indices;
+  }
+
+  @Test
+  public void testTrie3IntStates() {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    gs.addLookup("as", info1, new String[0]);
+    gs.addLookup("asdf", info1, new String[0]);
+    gs.addLookup("ax", info1, new String[0]);
+    // the int based traversal must give the same result before and after compaction
+    for(int i = 0; i<2; i++) {
+      int s = gs.getInitialStateIndex();
+      assertTrue(s >= 0);
+      s = gs.nextState(s, 'a');
+      assertTrue(s >= 0);
+      assertFalse(gs.isFinal(s));
+      assertTrue(gs.nextState(s, 'b') < 0);
+      int sx = gs.nextState(s, 'x');
+      assertTrue(gs.isFinal(sx));
+      s = gs.nextState(s, 's');
+      assertTrue(gs.isFinal(s));
+      s = gs.nextState(gs.nextState(s, 'd'), 'f');
+      assertTrue(gs.isFinal(s));
+      assertTrue(gs.getLookups(s).hasNext());
+      assertTrue(gs.nextState(s, 'g') < 0);
+      gs.compact();
+    }
+  }
+
+  @Test
+  public void testTrie3DenseTransitions() throws IOException {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    for(char c = 'a'; c <= 'z'; c++) {
+      gs.addLookup(c+"x", info1, new String[0]);
+    }
+    gs.addLookup("\u0416x", info1, new String[0]);
+    gs.compact(8);
+    File cacheFile = File.createTempFile("testTrie3DenseTransitions", ".gazbin");
+    cacheFile.deleteOnExit();
+    gs.save(cacheFile);
+    GazStore loaded = GazStoreTrie3.load(cacheFile.toURI().toURL());
+    for(GazStore store : new GazStore[]{gs, loaded}) {
+      int s = store.getInitialStateIndex();
+      assertTrue(store.isFinal(store.nextState(store.nextState(s, 'q'), 'x')));
+      assertTrue(store.isFinal(store.nextState(store.nextState(s, '\u0416'), 'x')));
+      assertTrue(store.nextState(s, 'A') < 0);
+      assertTrue(store.nextState(s, '\u0417') < 0);
+      assertNotNull(store.match("zx"));
+      assertNull(store.match("zy"));
+    }
+  }
+
+  @Test
+  public void testDoubleArray() throws IOException {
+    GazStoreTrie3 trie = new GazStoreTrie3();
+    GazStoreDoubleArray dat = new GazStoreDoubleArray();
+    String[] entries = new String[]{"as", "asdf", "ax", "b", "bxy", "\u0416x"};
+    for(GazStoreTrie3 gs : new GazStoreTrie3[]{trie, dat}) {
+      int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+      for(String entry : entries) {
+        gs.addLookup(entry, info1, new String[]{"e",entry});
+      }
+      gs.compact();
+    }
+    File cacheFile = File.createTempFile("testDoubleArray", ".gazbin");
+    cacheFile.deleteOnExit();
+    dat.save(cacheFile);
+    GazStore loaded = GazStoreTrie3.load(cacheFile.toURI().toURL());
+    assertTrue(loaded instanceof GazStoreDoubleArray);
+    String[] probes = new String[]{"as", "asdf", "asd", "ax", "axe", "b", "bx", "bxy", "c", "\u0416x", "\u0416"};
+    for(GazStore gs : new GazStore[]{dat, loaded}) {
+      for(String probe : probes) {
+        int s1 = trie.getInitialStateIndex();
+        int s2 = gs.getInitialStateIndex();
+        for(int i = 0; i < probe.length() && s1 >= 0; i++) {
+          s1 = trie.nextState(s1, probe.charAt(i));
+          s2 = gs.nextState(s2, probe.charAt(i));
+          assertEquals(s1 < 0, s2 < 0);
+          if(s1 >= 0) {
+            assertEquals(trie.isFinal(s1), gs.isFinal(s2));
+          }
+        }
+        if(s2 >= 0 && gs.isFinal(s2)) {
+          FeatureMap fm = Factory.newFeatureMap();
+          gs.addLookupEntryFeatures(fm, gs.getLookups(s2).next());
+          assertEquals(probe, fm.get("e"));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDoubleArrayAddAfterCompaction() {
+    GazStoreDoubleArray dat = new GazStoreDoubleArray();
+    int info1 = dat.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    String[] keyvals = new String[]{"country","DE"};
+    dat.addLookup("berlin", info1, keyvals);
+    dat.addLookup("hamburg", info1, keyvals);
+    dat.compact();
+    // the list of berlin is shared with hamburg and gets copied
+    dat.addLookup("berlin", info1, new String[]{"country","DE","source","other"});
+    IntArrayList berlin = new IntArrayList();
+    IntArrayList hamburg = new IntArrayList();
+    dat.addLookupRefs(stateFor(dat, "berlin"), berlin);
+    dat.addLookupRefs(stateFor(dat, "hamburg"), hamburg);
+    assertEquals(2, berlin.size());
+    assertEquals(1, hamburg.size());
+    assertEquals(2, countLookups(dat.getLookups(stateFor(dat, "berlin"))));
+    // a prefix of an entry becomes final
+    assertFalse(dat.isFinal(stateFor(dat, "ham")));
+    dat.addLookup("ham", info1, keyvals);
+    assertTrue(dat.isFinal(stateFor(dat, "ham")));
+    assertEquals(1, countLookups(dat.getLookups(stateFor(dat, "ham"))));
+    assertNotNull(dat.match("ham"));
+  }
+  
+  @Test
+  public void testAhoCorasickAfterAdd() {
+    for(GazStoreTrie3 gs : new GazStoreTrie3[]{new GazStoreTrie3(), new GazStoreDoubleArray()}) {
+      int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+      gs.addLookup("bremen", info1, new String[0]);
+      gs.compact();
+      assertEquals(-1, ahoCorasickMatch(gs, "a brem"));
+      // a prefix of an entry becomes final
+      gs.addLookup("brem", info1, new String[0]);
+      int state = ahoCorasickMatch(gs, "a brem");
+      assertEquals(stateFor(gs, "brem"), state);
+      assertTrue(gs.isFinal(state));
+    }
+  }
+  
+  // the state of the longest entry which ends at the end of the text, or -1
+  private static int ahoCorasickMatch(GazStore gs, String text) {
+    AhoCorasickAutomaton automaton = gs.getAhoCorasickAutomaton();
+    int node = 0;
+    for(int i = 0; i < text.length(); i++) {
+      node = automaton.next(node, text.charAt(i));
+    }
+    int match = automaton.firstMatch(node);
+    return match < 0 ? -1 : automaton.getState(match);
+  }
+  
+  private static int countLookups(Iterator<Lookup> lookups) {
+    int n = 0;
+    while(lookups.hasNext()) {
+      lookups.next();
+      n++;
+    }
+    return n;
+  }
+
+  @Test
+  public void testDawg() throws IOException {
+    GazStoreTrie3 trie = new GazStoreTrie3();
+    GazStoreDawg dawg = new GazStoreDawg();
+    String[] entries = new String[]{"Acme Inc.", "Bolt Inc.", "Inc.", "Acme Ltd.", "Bolt Ltd.", "Bolton"};
+    for(GazStoreTrie3 gs : new GazStoreTrie3[]{trie, dawg}) {
+      int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+      int info2 = gs.addListInfo("Type2", "URL2", Factory.newFeatureMap());
+      for(String entry : entries) {
+        gs.addLookup(entry, entry.startsWith("Bolt") ? info2 : info1, new String[0]);
+      }
+      gs.addLookup("Acme Ltd.", info1, new String[]{"e","x"});
+      gs.compact();
+    }
+    // "Inc." shares its nodes with the end of "Acme Inc." and all the Type2
+    // entries share their final node, but "Acme Ltd." has a different lookup
+    assertEquals(33, countStates(trie));
+    assertEquals(26, countStates(dawg));
+    File cacheFile = File.createTempFile("testDawg", ".gazbin");
+    cacheFile.deleteOnExit();
+    dawg.save(cacheFile);
+    GazStore loaded = GazStoreTrie3.load(cacheFile.toURI().toURL());
+    assertTrue(loaded instanceof GazStoreDawg);
+    String[] probes = new String[]{"Acme Inc.", "Acme Ltd.", "Acme", "Bolt Inc.", "Bolt Ltd.", "Bolton", "Inc.", "Ltd."};
+    for(GazStore gs : new GazStore[]{dawg, loaded}) {
+      for(String probe : probes) {
+        int s1 = trie.getInitialStateIndex();
+        int s2 = gs.getInitialStateIndex();
+        for(int i = 0; i < probe.length() && s1 >= 0; i++) {
+          s1 = trie.nextState(s1, probe.charAt(i));
+          s2 = gs.nextState(s2, probe.charAt(i));
+          assertEquals(s1 < 0, s2 < 0);
+          if(s1 >= 0) {
+            assertEquals(trie.isFinal(s1), gs.isFinal(s2));
+          }
+        }
+        if(s1 >= 0 && trie.isFinal(s1)) {
+          IntArrayList refs1 = new IntArrayList();
+          IntArrayList refs2 = new IntArrayList();
+          trie.addLookupRefs(s1, refs1);
+          gs.addLookupRefs(s2, refs2);
+          assertEquals(refs1.size(), refs2.size());
+          for(int i = 0; i < refs1.size(); i++) {
+            assertEquals(trie.getListInfoIndex(refs1.getInt(i)), gs.getListInfoIndex(refs2.getInt(i)));
+            FeatureMap fm1 = Factory.newFeatureMap();
+            FeatureMap fm2 = Factory.newFeatureMap();
+            trie.addLookupEntryFeatures(fm1, refs1.getInt(i));
+            gs.addLookupEntryFeatures(fm2, refs2.getInt(i));
+            assertEquals(fm1, fm2);
+          }
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testDawgAddAfterCompaction() {
+    GazStoreDawg dawg = new GazStoreDawg();
+    int info1 = dawg.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    dawg.addLookup("xa", info1, new String[0]);
+    dawg.addLookup("ya", info1, new String[0]);
+    dawg.compact();
+    // both entries end in the same node
+    assertEquals(stateFor(dawg, "xa"), stateFor(dawg, "ya"));
+    try {
+      dawg.addLookup("xa", info1, new String[]{"e","x"});
+      fail("Adding to a compacted GazStoreDawg must fail");
+    } catch(GateRuntimeException ex) {
+      // expected
+    }
+    IntArrayList refs = new IntArrayList();
+    dawg.addLookupRefs(stateFor(dawg, "ya"), refs);
+    assertEquals(1, refs.size());
+    FeatureMap fm = Factory.newFeatureMap();
+    dawg.addLookupEntryFeatures(fm, refs.getInt(0));
+    assertTrue(fm.isEmpty());
+  }
+  
+  // the number of different states reachable from the initial state
+  private static int countStates(GazStore gs) {
+    IntOpenHashSet seen = new IntOpenHashSet();
+    IntArrayList queue = new IntArrayList();
+    queue.add(gs.getInitialStateIndex());
+    seen.add(gs.getInitialStateIndex());
+    CharArrayList chars = new CharArrayList();
+    for(int i = 0; i < queue.size(); i++) {
+      IntArrayList states = new IntArrayList();
+      gs.addTransitions(queue.getInt(i), chars, states);
+      for(int j = 0; j < states.size(); j++) {
+        if(seen.add(states.getInt(j))) {
+          queue.add(states.getInt(j));
+        }
+      }
+    }
+    return seen.size();
+  }
   
+  @Test
+  public void testGazetteerDoubleArray()
+      throws MalformedURLException, ResourceInstantiationException, ExecutionException {
+    FeatureMap parms = Factory.newFeatureMap();
+    File defFile = new File(testingDir,"extgaz2.def");
+    parms.put("configFileURL", defFile.toURI().toURL());
+    parms.put("gazStoreType", GazStoreType.DoubleArray);
+    ExtendedGazetteer eg = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    parms = Factory.newFeatureMap();
+    File docFile = new File(testingDir,"extgaz2docprep.xml");
+    parms.put("sourceUrl",docFile.toURI().toURL());
+    Document doc = (Document)
+         Factory.createResource("gate.corpora.DocumentImpl", parms);
+    eg.setDocument(doc);
+    eg.execute();
+    assertEquals(12,doc.getAnnotations().get("OutType").size());
+  }
+
+  @Test
+  public void testTrie3SaveLoad() throws IOException {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    FeatureMap fm = Factory.newFeatureMap();
+    fm.put("listFeature", "val1");
+    int info1 = gs.addListInfo("Type1", "URL1", fm);
+    gs.addLookup("as", info1, new String[]{"f1","v1"});
+    gs.addLookup("asdf", info1, new String[]{"f1","v2"});
+    File cacheFile = File.createTempFile("testTrie3SaveLoad", ".gazbin");
+    cacheFile.deleteOnExit();
+    gs.save(cacheFile);
+    GazStore loaded = GazStoreTrie3.load(cacheFile.toURI().toURL());
+    assertNull(loaded.match("a"));
+    Iterator<Lookup> it = loaded.match("asdf");
+    assertNotNull(it);
+    Lookup lookup = it.next();
+    assertFalse(it.hasNext());
+    assertEquals("Type1", loaded.getLookupType(lookup));
+    FeatureMap lfm = Factory.newFeatureMap();
+    loaded.addLookupListFeatures(lfm, lookup);
+    loaded.addLookupEntryFeatures(lfm, lookup);
+    assertEquals("val1", lfm.get("listFeature"));
+    assertEquals("v2", lfm.get("f1"));
+  }
+
+  @Test
+  public void testTrie3Fingerprint() throws IOException {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    gs.addLookup("asdf", info1, new String[]{"f1","v1"});
+    File cacheFile = File.createTempFile("testTrie3Fingerprint", ".gazbin");
+    cacheFile.deleteOnExit();
+    gs.save(cacheFile);
+    assertNull(GazStoreTrie3.readFingerprint(cacheFile.toURI().toURL()));
+    assertNull(GazStoreTrie3.load(cacheFile.toURI().toURL()).getFingerprint());
+    gs.setFingerprint("0123abcd");
+    gs.save(cacheFile);
+    assertEquals("0123abcd", GazStoreTrie3.readFingerprint(cacheFile.toURI().toURL()));
+    GazStore loaded = GazStoreTrie3.load(cacheFile.toURI().toURL());
+    assertEquals("0123abcd", loaded.getFingerprint());
+    assertNotNull(loaded.match("asdf"));
+  }
+
+  @Test
+  public void testSortedAnnotations() 
+      throws ResourceInstantiationException, InvalidOffsetException {
+    Document doc = Factory.newDocument("one two, three four. five");
+    AnnotationSet anns = doc.getAnnotations();
+    anns.add(0L, 3L, "Token", Factory.newFeatureMap());
+    anns.add(3L, 4L, "SpaceToken", Factory.newFeatureMap());
+    anns.add(4L, 7L, "Token", Factory.newFeatureMap());
+    anns.add(7L, 8L, "Token", Factory.newFeatureMap());
+    anns.add(8L, 9L, "SpaceToken", Factory.newFeatureMap());
+    anns.add(9L, 14L, "Token", Factory.newFeatureMap());
+    anns.add(15L, 19L, "Token", Factory.newFeatureMap());
+    anns.add(19L, 20L, "Token", Factory.newFeatureMap());
+    anns.add(21L, 25L, "Token", Factory.newFeatureMap());
+    anns.add(2L, 12L, "Long", Factory.newFeatureMap());
+    anns.add(20L, 20L, "Empty", Factory.newFeatureMap());
+    SortedAnnotations sorted = new SortedAnnotations(anns);
+    assertEquals(anns.size(), sorted.size());
+    long[][] ranges = {{0,25},{0,0},{4,8},{5,10},{9,20},{12,21},{20,20},{25,25}};
+    for (long[] range : ranges) {
+      assertEquals(gate.Utils.inDocumentOrder(anns.get(range[0], range[1])),
+              sorted.getOverlapping(range[0], range[1]));
+      assertEquals(gate.Utils.inDocumentOrder(anns.getContained(range[0], range[1])),
+              sorted.getContained(range[0], range[1]));
+    }
+  }
+
+  @Test
+  public void testTextChunkBuilderReuse() {
+    TextChunk.Builder builder = new TextChunk.Builder();
+    // a long chunk where every character can start and end a match
+    String longText = "abcdefghij";
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 30; i++) {
+      sb.append(longText);
+    }
+    builder.reset(0, sb.length(), sb.length());
+    builder.addDocumentText(sb.toString(), 0, sb.length(), true, false, false);
+    TextChunk chunk = builder.build();
+    assertEquals(300, chunk.getLength());
+    assertTrue(chunk.isValidMatchStart(150));
+    assertTrue(chunk.isValidMatchEnd(150));
+    // a short chunk with the same builder: nothing of the long one may be left
+    builder.reset(100, 109, 9);
+    builder.addDocumentText("xx one two", 3, 6, false, true, true);
+    builder.addSpace();
+    builder.addFeatureText("zwei", 107, 110, false, true, true);
+    chunk = builder.build();
+    assertEquals(8, chunk.getLength());
+    assertEquals("one zwei", chunk.getTextString());
+    for(int i = 0; i < chunk.getLength(); i++) {
+      assertEquals(i == 0 || i == 4, chunk.isValidMatchStart(i));
+      assertEquals(i == 2 || i == 7, chunk.isValidMatchEnd(i));
+    }
+    assertEquals(3, chunk.getStartOffset(0));
+    assertEquals(5, chunk.getEndOffset(2));
+    assertEquals(107, chunk.getStartOffset(6));
+    assertEquals(109, chunk.getEndOffset(6));
+  }
+
+  // Shows how many sets of chunk buffers the gazetteer keeps for re-use
+  private static class BufferCountingGazetteer extends ExtendedGazetteer {
+    private static final long serialVersionUID = 1L;
+    int nrFreeChunkBuffers() {
+      return getNrFreeChunkBuffers();
+    }
+  }
+
+  @Test
+  public void testChunkBuffersNotKeptForLargeChunks()
+      throws MalformedURLException, ResourceInstantiationException, ExecutionException, 
+      InvalidOffsetException {
+    BufferCountingGazetteer eg = new BufferCountingGazetteer();
+    eg.setConfigFileURL(new gate.creole.ResourceReference(new File(testingDir,"extgaz2.def").toURI().toURL()));
+    eg.setCaseSensitive(true);
+    eg.setCaseConversionLanguage("en");
+    eg.setGazetteerFeatureSeparator("\\t");
+    eg.init();
+    eg.setWordAnnotationType("Token");
+    eg.setMatchAtWordStartOnly(true);
+    eg.setMatchAtWordEndOnly(true);
+    eg.setLongestMatchOnly(true);
+    // a single word of more than a million characters
+    char[] chars = new char[(1 << 20) + 100];
+    java.util.Arrays.fill(chars, 'x');
+    Document doc = Factory.newDocument(new String(chars));
+    doc.getAnnotations().add(0L, (long)chars.length, "Token", Factory.newFeatureMap());
+    eg.setDocument(doc);
+    eg.execute();
+    assertEquals(0, eg.nrFreeChunkBuffers());
+    doc = Factory.newDocument("some word");
+    doc.getAnnotations().add(0L, 4L, "Token", Factory.newFeatureMap());
+    doc.getAnnotations().add(5L, 9L, "Token", Factory.newFeatureMap());
+    eg.setDocument(doc);
+    eg.execute();
+    assertEquals(1, eg.nrFreeChunkBuffers());
+    assertEquals(2, doc.getAnnotations().get("OutType").size());
+    eg.cleanup();
+  }
+
+  @Test
+  public void testDocumentTextChunk() throws ResourceInstantiationException {
+    Document doc = Factory.newDocument("some document text");
+    TextChunk chunk = TextChunk.makeChunk(doc, 5, 13);
+    assertEquals(8, chunk.getLength());
+    assertEquals("document", chunk.getTextString());
+    assertEquals("ocu", chunk.getTextString(1, 3));
+    // the text for matching is a view of the document text, not a copy
+    CharSequence text = chunk.getTextForMatching();
+    assertFalse(text instanceof String);
+    assertEquals("document", text.toString());
+    assertEquals(5, chunk.getStartOffset(0));
+    assertEquals(12, chunk.getEndOffset(7));
+    assertTrue(chunk.isValidMatchStart(3));
+    assertTrue(chunk.isValidMatchEnd(3));
+    Factory.deleteResource(doc);
+  }
+
+  @Test
+  public void testTrie3CloseMapped() throws IOException {
+    GazStoreTrie3 gs = new GazStoreTrie3();
+    int info1 = gs.addListInfo("Type1", "URL1", Factory.newFeatureMap());
+    gs.addLookup("asdf", info1, new String[]{"f1","v1"});
+    File cacheFile = File.createTempFile("testTrie3CloseMapped", ".gazbin");
+    cacheFile.deleteOnExit();
+    gs.save(cacheFile);
+    GazStore loaded = GazStoreTrie3.load(cacheFile.toURI().toURL());
+    assertNotNull(loaded.match("asdf"));
+    loaded.close();
+    try {
+      loaded.match("asdf");
+      fail("A closed store must not be usable");
+    } catch(RuntimeException ex) {
+      // expected
+    }
+  }
+
   @Test
   public void testGazetteerApplication1BE3() 
       throws MalformedURLException, ResourceInstantiationException, ExecutionException {
@@ -232,6 +1019,125 @@ public class Tests1 extends GATEPluginTests {
     System.out.println("Gazetteer application test 1 finished");
   }
   
+  @Test
+  public void testBulkAnnotations()
+      throws MalformedURLException, ResourceInstantiationException, ExecutionException {
+    System.out.println("Running bulk annotations test");
+    FeatureMap parms = Factory.newFeatureMap();
+    File defFile = new File(testingDir,"extgaz2.def");
+    parms.put("configFileURL", defFile.toURI().toURL());
+    ExtendedGazetteer eg = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    parms = Factory.newFeatureMap();
+    File docFile = new File(testingDir,"extgaz2docprep.xml");
+    parms.put("sourceUrl",docFile.toURI().toURL());
+    Document doc = (Document)
+         Factory.createResource("gate.corpora.DocumentImpl", parms);
+    eg.setDocument(doc);
+    eg.setLongestMatchOnly(false);
+    eg.setOutputAnnotationSet("Standard");
+    eg.execute();
+    eg.setBulkAnnotations(true);
+    eg.setOutputAnnotationSet("Bulk");
+    eg.execute();
+    List<String> standard = annotationStrings(doc.getAnnotations("Standard").get("OutType"));
+    List<String> bulk = annotationStrings(doc.getAnnotations("Bulk").get("OutType"));
+    assertTrue(bulk.size() > 0);
+    assertEquals(standard,bulk);
+    System.out.println("Bulk annotations test finished");
+  }
+
+  @Test
+  public void testAhoCorasickMatching()
+      throws MalformedURLException, ResourceInstantiationException, ExecutionException {
+    System.out.println("Running Aho-Corasick matching test");
+    FeatureMap parms = Factory.newFeatureMap();
+    File defFile = new File(testingDir,"extgaz2.def");
+    parms.put("configFileURL", defFile.toURI().toURL());
+    ExtendedGazetteer eg = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    parms = Factory.newFeatureMap();
+    File docFile = new File(testingDir,"extgaz2docprep.xml");
+    parms.put("sourceUrl",docFile.toURI().toURL());
+    Document doc = (Document)
+         Factory.createResource("gate.corpora.DocumentImpl", parms);
+    eg.setDocument(doc);
+    eg.setMatchAtWordStartOnly(false);
+    eg.setMatchAtWordEndOnly(false);
+    for(boolean longestMatchOnly : new boolean[]{true, false}) {
+      eg.setLongestMatchOnly(longestMatchOnly);
+      eg.setAhoCorasickMatching(false);
+      eg.setOutputAnnotationSet("Standard"+longestMatchOnly);
+      eg.execute();
+      eg.setAhoCorasickMatching(true);
+      eg.setOutputAnnotationSet("AhoCorasick"+longestMatchOnly);
+      eg.execute();
+      List<String> standard = annotationStrings(doc.getAnnotations("Standard"+longestMatchOnly).get("OutType"));
+      List<String> ahoCorasick = annotationStrings(doc.getAnnotations("AhoCorasick"+longestMatchOnly).get("OutType"));
+      assertEquals(longestMatchOnly ? 22 : 26, ahoCorasick.size());
+      assertEquals(standard,ahoCorasick);
+    }
+    System.out.println("Aho-Corasick matching test finished");
+  }
+
+  @Test
+  public void testParallelMatching()
+      throws MalformedURLException, ResourceInstantiationException, ExecutionException {
+    System.out.println("Running parallel matching test");
+    FeatureMap parms = Factory.newFeatureMap();
+    File defFile = new File(testingDir,"extgaz2.def");
+    parms.put("configFileURL", defFile.toURI().toURL());
+    ExtendedGazetteer eg = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    parms = Factory.newFeatureMap();
+    File docFile = new File(testingDir,"extgaz2docprep.xml");
+    parms.put("sourceUrl",docFile.toURI().toURL());
+    Document doc = (Document)
+         Factory.createResource("gate.corpora.DocumentImpl", parms);
+    eg.setDocument(doc);
+    eg.setLongestMatchOnly(false);
+    // one chunk per sentence, or chunks between the sentence starts
+    String[][] chunkings = {{"Sentence", null}, {null, "Sentence"}};
+    for(String[] chunking : chunkings) {
+      eg.setContainingAnnotationType(chunking[0]);
+      eg.setSplitAnnotationType(chunking[1]);
+      for(boolean ahoCorasick : new boolean[]{false, true}) {
+        eg.setAhoCorasickMatching(ahoCorasick);
+        String setName = chunking[0]+"-"+chunking[1]+"-"+ahoCorasick;
+        eg.setMatchingThreads(1);
+        eg.setOutputAnnotationSet("Single"+setName);
+        eg.execute();
+        eg.setMatchingThreads(3);
+        eg.setOutputAnnotationSet("Parallel"+setName);
+        eg.execute();
+        AnnotationSet keys = doc.getAnnotations("Single"+setName).get("OutType");
+        AnnotationSet responses = doc.getAnnotations("Parallel"+setName).get("OutType");
+        assertTrue(keys.size() > 0);
+        AnnotationDiffer differ = new AnnotationDiffer();
+        differ.setSignificantFeaturesSet(new HashSet<String>(
+                java.util.Arrays.asList("inst", "_listnr", "_string")));
+        differ.calculateDiff(keys, responses);
+        assertEquals(keys.size(), differ.getCorrectMatches());
+        assertEquals(0, differ.getFalsePositivesStrict());
+        assertEquals(0, differ.getMissing());
+        assertEquals(annotationStrings(keys), annotationStrings(responses));
+      }
+    }
+    eg.cleanup();
+    System.out.println("Parallel matching test finished");
+  }
+
+  // sorted representation of annotations that includes offsets, type and features
+  private static List<String> annotationStrings(AnnotationSet anns) {
+    List<String> ret = new ArrayList<>();
+    for(Annotation ann : anns) {
+      ret.add(ann.getStartNode().getOffset()+"-"+ann.getEndNode().getOffset()+" "+
+              ann.getType()+" "+new TreeMap<Object,Object>(ann.getFeatures()));
+    }
+    Collections.sort(ret);
+    return ret;
+  }
+
   public void testGazetteerApplication2BE3() 
       throws ResourceInstantiationException, ExecutionException, IOException {
     System.out.println("Running gazetteer application test 2 for news1pre");
@@ -309,6 +1215,169 @@ public class Tests1 extends GATEPluginTests {
     System.out.println("Feature Gazetteer application test finished");
   }
   
+  @Test
+  public void testParallelLoading() throws MalformedURLException, ResourceInstantiationException, ExecutionException {
+    File defFile = new File(testingDir,"multimatch.def");
+    // make sure we load from the list files and not from the cache
+    new File(testingDir,"multimatch_c1_en.gazbin").delete();
+    FeatureMap parms = Factory.newFeatureMap();
+    parms.put("configFileURL", defFile.toURI().toURL());
+    parms.put("loadingThreads", 3);
+    FeatureGazetteer eg = (FeatureGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.FeatureGazetteer", parms);
+    // the lists must end up in the order of the def file, same as for sequential loading
+    List<FeatureMap> fms = eg.lookups2FeatureMaps(eg.doMatch("fromlistonetwo", true, true));
+    assertEquals(2, fms.size());
+    assertEquals(0, fms.get(0).get("_listnr"));
+    assertEquals(1, fms.get(1).get("_listnr"));
+    fms = eg.lookups2FeatureMaps(eg.doMatch("fromlistthree", true, true));
+    assertEquals(2, fms.size());
+    assertEquals("list3", fms.get(0).get("minorType"));
+    Factory.deleteResource(eg);
+  }
+
+  @Test
+  public void testDefYaml() throws MalformedURLException, ResourceInstantiationException, ExecutionException {
+    File defFile = new File(testingDir,"extgaz4.defyaml");
+    new File(testingDir,"extgaz4_c1_en.gazbin").delete();
+    FeatureMap parms = Factory.newFeatureMap();
+    parms.put("configFileURL", defFile.toURI().toURL());
+    FeatureGazetteer eg = (FeatureGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.FeatureGazetteer", parms);
+    List<FeatureMap> fms = eg.lookups2FeatureMaps(eg.doMatch("New York", true, true));
+    assertEquals(1, fms.size());
+    assertEquals("c2", fms.get(0).get("inst"));
+    assertEquals("US", fms.get(0).get("country"));
+    assertEquals("city", fms.get(0).get("minorType"));
+    fms = eg.lookups2FeatureMaps(eg.doMatch("some", true, true));
+    assertEquals(1, fms.size());
+    assertEquals("i1", fms.get(0).get("inst"));
+    assertEquals("other", fms.get(0).get("majorType"));
+    assertEquals(1, eg.lookups2FeatureMaps(eg.doMatch("word", true, true)).size());
+    Factory.deleteResource(eg);
+  }
+
+  @Test
+  public void testApplyDeltaOnlyChangesThePR() throws IOException, ResourceInstantiationException, 
+          InterruptedException, java.util.concurrent.ExecutionException {
+    FeatureMap parms = Factory.newFeatureMap();
+    parms.put("configFileURL", new File(testingDir,"extgaz2.def").toURI().toURL());
+    ExtendedGazetteer eg1 = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    File deltaFile = File.createTempFile("testApplyDelta", ".txt");
+    deltaFile.deleteOnExit();
+    FileUtils.writeStringToFile(deltaFile, "+zyxwv\tinst=new\n-some\n", "UTF-8");
+    assertEquals(2, eg1.applyDelta("extgaz2a.lst", deltaFile.toURI().toURL()));
+    assertNotNull(eg1.getGazStore().match("zyxwv"));
+    assertNull(eg1.getGazStore().match("some"));
+    // a PR created later for the same configuration does not get the changes
+    ExtendedGazetteer eg2 = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    assertNull(eg2.getGazStore().match("zyxwv"));
+    assertNotNull(eg2.getGazStore().match("some"));
+    // neither after the changes have been merged
+    eg1.mergeDeltas().get();
+    assertFalse(eg1.getGazStore() instanceof GazStoreOverlay);
+    assertNotNull(eg1.getGazStore().match("zyxwv"));
+    ExtendedGazetteer eg3 = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    assertNull(eg3.getGazStore().match("zyxwv"));
+    assertSame(eg2.getGazStore(), eg3.getGazStore());
+    Factory.deleteResource(eg1);
+    Factory.deleteResource(eg2);
+    Factory.deleteResource(eg3);
+  }
+
+  // Uses the gaz store like for processing a document and shows the 
+  // registrations for the store the document was started with
+  private static class RegistryGazetteer extends ExtendedGazetteer {
+    private static final long serialVersionUID = 1L;
+    private GazStoreUse documentUse;
+    GazStore startDocument() {
+      documentUse = acquireGazStore();
+      return documentUse.getStore();
+    }
+    void finishDocument() {
+      releaseGazStore(documentUse);
+    }
+    int nrRegistrationsOfDocumentStore() {
+      return documentUse.getNrRegistrations();
+    }
+  }
+
+  private static RegistryGazetteer newRegistryGazetteer(File defFile) 
+          throws MalformedURLException, ResourceInstantiationException {
+    RegistryGazetteer eg = new RegistryGazetteer();
+    eg.setConfigFileURL(new gate.creole.ResourceReference(defFile.toURI().toURL()));
+    eg.setCaseSensitive(true);
+    eg.setCaseConversionLanguage("en");
+    eg.setGazetteerFeatureSeparator("\\t");
+    eg.init();
+    return eg;
+  }
+
+  @Test
+  public void testReplaceGazStoreWhileInUse() throws IOException, ResourceInstantiationException {
+    // a configuration of its own, so no other PR uses the stores
+    File dir = java.nio.file.Files.createTempDirectory("testReplace").toFile();
+    for(String name : new String[]{"extgaz2.def", "extgaz2a.lst", "extgaz2b.lst"}) {
+      FileUtils.copyFile(new File(testingDir, name), new File(dir, name));
+    }
+    try {
+      RegistryGazetteer eg1 = newRegistryGazetteer(new File(dir, "extgaz2.def"));
+      RegistryGazetteer eg2 = newRegistryGazetteer(new File(dir, "extgaz2.def"));
+      GazStore old = eg1.getGazStore();
+      assertSame(old, eg2.getGazStore());
+      // a document is being processed with the old store while it gets replaced
+      assertSame(old, eg1.startDocument());
+      assertEquals(2, eg1.nrRegistrationsOfDocumentStore());
+      eg1.replaceGazStore();
+      assertNotSame(old, eg1.getGazStore());
+      assertSame(old, eg2.getGazStore());
+      assertEquals(2, eg1.nrRegistrationsOfDocumentStore());
+      // once the document is finished, eg1 gives up the old store
+      eg1.finishDocument();
+      assertEquals(1, eg1.nrRegistrationsOfDocumentStore());
+      eg2.cleanup();
+      assertEquals(0, eg1.nrRegistrationsOfDocumentStore());
+      // new PRs get the new store
+      RegistryGazetteer eg3 = newRegistryGazetteer(new File(dir, "extgaz2.def"));
+      assertSame(eg1.getGazStore(), eg3.getGazStore());
+      eg1.cleanup();
+      eg3.cleanup();
+    } finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testWatchSourceFiles() throws IOException, ResourceInstantiationException,
+          InterruptedException {
+    File dir = java.nio.file.Files.createTempDirectory("testWatch").toFile();
+    for(String name : new String[]{"extgaz2.def", "extgaz2a.lst", "extgaz2b.lst"}) {
+      FileUtils.copyFile(new File(testingDir, name), new File(dir, name));
+    }
+    FeatureMap parms = Factory.newFeatureMap();
+    parms.put("configFileURL", new File(dir,"extgaz2.def").toURI().toURL());
+    parms.put("watchSourceFiles", true);
+    parms.put("watchDelay", 100);
+    ExtendedGazetteer eg = (ExtendedGazetteer)Factory.createResource(
+            "com.jpetrak.gate.stringannotation.extendedgazetteer.ExtendedGazetteer", parms);
+    try {
+      assertNull(eg.getGazStore().match("zyxwv"));
+      FileUtils.writeStringToFile(new File(dir, "extgaz2a.lst"), "zyxwv\tinst=new\n", "UTF-8", true);
+      // wait for the delay without changes and the re-load
+      long end = System.currentTimeMillis() + 30000;
+      while(eg.getGazStore().match("zyxwv") == null && System.currentTimeMillis() < end) {
+        Thread.sleep(50);
+      }
+      assertNotNull(eg.getGazStore().match("zyxwv"));
+      assertNotNull(eg.getGazStore().match("some"));
+    } finally {
+      Factory.deleteResource(eg);
+      FileUtils.deleteDirectory(dir);
+    }
+  }
 
   @Test
   public void testStoreCharMapPhase1() {
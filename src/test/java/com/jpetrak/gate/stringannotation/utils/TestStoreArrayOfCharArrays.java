@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.utils;
+
+import static org.junit.Assert.*;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestStoreArrayOfCharArrays {
+
+  // A store with a low limit for direct references behaves like a store
+  // with more than DIRECT_REFS characters once it has more than that limit.
+  @Test
+  public void testBeyondDirectRefs() {
+    int limit = 64;
+    StoreArrayOfCharArrays store = new StoreArrayOfCharArrays(limit);
+    IntArrayList dataRefs = new IntArrayList();
+    IntArrayList listRefs = new IntArrayList();
+    IntArrayList lastRefs = new IntArrayList();
+    store.addData("first".toCharArray());
+    for(int k = 0; k < 200; k++) {
+      dataRefs.add(store.addData(("data"+k).toCharArray()));
+      int list = store.addListData(("e"+k+"_0").toCharArray());
+      listRefs.add(list);
+      lastRefs.add(store.getListDataRef(list));
+    }
+    // append to all lists after all of them have been created, so their
+    // elements are spread over the store
+    for(int n = 1; n < 3; n++) {
+      for(int k = 0; k < listRefs.size(); k++) {
+        lastRefs.set(k, store.appendListData(listRefs.getInt(k), lastRefs.getInt(k),
+                ("e"+k+"_"+n).toCharArray()));
+      }
+    }
+    for(int k = 0; k < listRefs.size(); k++) {
+      assertEquals(listRefs.getInt(k), store.addListDataIfAbsent(listRefs.getInt(k),
+              ("e"+k+"_3").toCharArray()));
+      assertEquals(-1, store.addListDataIfAbsent(listRefs.getInt(k), ("e"+k+"_1").toCharArray()));
+    }
+    assertTrue(store.size() > 20 * limit);
+    assertTrue(dataRefs.getInt(dataRefs.size()-1) > limit);
+    assertTrue(store.getRefLimit() > dataRefs.getInt(dataRefs.size()-1));
+
+    for(int k = 0; k < dataRefs.size(); k++) {
+      int ref = dataRefs.getInt(k);
+      String data = "data"+k;
+      assertEquals(data, new String(store.getData(ref)));
+      assertEquals(data.length(), store.getInt(ref, 0));
+      assertEquals(data.substring(1), store.getString(ref, 3, data.length()-1));
+      assertEquals(data.charAt(2), store.getChar(ref, 4));
+    }
+    for(int k = 0; k < listRefs.size(); k++) {
+      int list = listRefs.getInt(k);
+      assertEquals(4, store.getListSize(list));
+      List<char[]> elements = new ArrayList<>();
+      assertEquals(4, store.getListData(list, elements));
+      IntArrayList refs = new IntArrayList();
+      store.addListDataIndices(list, refs);
+      assertEquals(4, refs.size());
+      for(int n = 0; n < 4; n++) {
+        String element = "e"+k+"_"+n;
+        assertEquals(element, new String(elements.get(n)));
+        assertEquals(element, new String(store.getListData(list, n)));
+        assertEquals(n, store.findListData(list, element.toCharArray()));
+        assertEquals(element.charAt(0), store.getChar(refs.getInt(n), 0));
+      }
+    }
+
+    // a list which is added with all its elements at once
+    List<char[]> elements = new ArrayList<>();
+    for(int n = 0; n < 5; n++) {
+      elements.add(("all"+n).toCharArray());
+    }
+    int list = store.addListData(elements);
+    assertTrue(list > limit);
+    assertEquals(5, store.getListSize(list));
+    for(int n = 0; n < 5; n++) {
+      assertEquals("all"+n, new String(store.getListData(list, n)));
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014-2019 The University of Sheffield.
+ *
+ * This file is part of gateplugin-StringAnnotation
+ * (see https://github.com/johann-petrak/gateplugin-StringAnnotation)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jpetrak.gate.stringannotation.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestTextChunk {
+
+  // The expected chunk, built one character at a time like the chunks were 
+  // built before the builder existed.
+  private static class ExpectedChunk {
+    StringBuilder text = new StringBuilder();
+    List<Integer> startOffsets = new ArrayList<>();
+    List<Integer> endOffsets = new ArrayList<>();
+    List<Boolean> validStarts = new ArrayList<>();
+    List<Boolean> validEnds = new ArrayList<>();
+
+    void addChar(char c, int start, int end, boolean validStart, boolean validEnd) {
+      text.append(c);
+      startOffsets.add(start);
+      endOffsets.add(end);
+      validStarts.add(validStart);
+      validEnds.add(validEnd);
+    }
+
+    void addSpace() {
+      addChar(' ', 0, 0, false, false);
+    }
+
+    void addDocumentText(String docText, int start, int end, boolean caseNormalize,
+            boolean startWithWordStart, boolean endWithWordEnd) {
+      for(int i = start; i < end; i++) {
+        char c = caseNormalize ? Character.toUpperCase(docText.charAt(i)) : docText.charAt(i);
+        addChar(c, i, i, !startWithWordStart || i == start, !endWithWordEnd || i == end - 1);
+      }
+    }
+
+    void addFeatureText(String wordText, int start, int end, boolean caseNormalize,
+            boolean startWithWordStart, boolean endWithWordEnd) {
+      int n = wordText.length();
+      for(int i = 0; i < n; i++) {
+        char c = caseNormalize ? Character.toUpperCase(wordText.charAt(i)) : wordText.charAt(i);
+        addChar(c, start, end - 1, !startWithWordStart || i == 0, !endWithWordEnd || i == n - 1);
+      }
+    }
+
+    void assertSame(TextChunk chunk) {
+      assertEquals(text.length(), chunk.getLength());
+      assertEquals(text.toString(), chunk.getTextString());
+      for(int i = 0; i < text.length(); i++) {
+        assertEquals("char at " + i, text.charAt(i), chunk.getCharAt(i));
+        assertEquals("start offset at " + i, (int)startOffsets.get(i), chunk.getStartOffset(i));
+        assertEquals("end offset at " + i, (int)endOffsets.get(i), chunk.getEndOffset(i));
+        assertEquals("valid start at " + i, validStarts.get(i), chunk.isValidMatchStart(i));
+        assertEquals("valid end at " + i, validEnds.get(i), chunk.isValidMatchEnd(i));
+      }
+    }
+  }
+
+  // The document is made of words separated by single spaces, with word 
+  // lengths which make the chunks cross the 64 bit boundaries of the bit sets.
+  private static String makeDocText(int nrWords) {
+    StringBuilder sb = new StringBuilder();
+    for(int k = 0; k < nrWords; k++) {
+      if(k > 0) {
+        sb.append(' ');
+      }
+      for(int i = 0; i < 1 + (k * 7) % 13; i++) {
+        sb.append((char)('a' + (k + i) % 26));
+      }
+    }
+    return sb.toString();
+  }
+
+  // Add all words of the document text to the builder and the expected 
+  // chunk, with one space for each space between the words
+  private static void addWords(TextChunk.Builder builder, ExpectedChunk expected, String docText,
+          boolean fromFeature, boolean caseNormalize, boolean startWithWordStart, boolean endWithWordEnd) {
+    int start = 0;
+    while(start < docText.length()) {
+      int end = docText.indexOf(' ', start);
+      if(end < 0) {
+        end = docText.length();
+      }
+      if(start > 0) {
+        builder.addSpace();
+        expected.addSpace();
+      }
+      if(fromFeature) {
+        // the feature text has a different length than the word
+        String wordText = docText.substring(start, end) + "x";
+        builder.addFeatureText(wordText, start, end, caseNormalize, startWithWordStart, endWithWordEnd);
+        expected.addFeatureText(wordText, start, end, caseNormalize, startWithWordStart, endWithWordEnd);
+      } else {
+        builder.addDocumentText(docText, start, end, caseNormalize, startWithWordStart, endWithWordEnd);
+        expected.addDocumentText(docText, start, end, caseNormalize, startWithWordStart, endWithWordEnd);
+      }
+      start = end + 1;
+    }
+  }
+
+  @Test
+  public void testBuilderChunks() {
+    // re-use one builder for all chunks, starting with a small capacity
+    // so that it has to grow and starting with the longest chunk so that
+    // the bits of earlier chunks have to be cleared
+    TextChunk.Builder builder = new TextChunk.Builder();
+    for(int nrWords : new int[]{ 40, 1, 3, 12 }) {
+      String docText = makeDocText(nrWords);
+      for(int flags = 0; flags < 16; flags++) {
+        boolean fromFeature = (flags & 1) != 0;
+        boolean caseNormalize = (flags & 2) != 0;
+        boolean startWithWordStart = (flags & 4) != 0;
+        boolean endWithWordEnd = (flags & 8) != 0;
+        builder.reset(0, docText.length(), 4);
+        ExpectedChunk expected = new ExpectedChunk();
+        addWords(builder, expected, docText, fromFeature, caseNormalize, startWithWordStart, endWithWordEnd);
+        expected.assertSame(builder.build());
+      }
+    }
+  }
+
+  // The arrays of a re-used builder are longer than a short chunk after a 
+  // long one: the text of the short chunk must not include the rest of the array.
+  @Test
+  public void testTextWithoutTail() {
+    TextChunk.Builder builder = new TextChunk.Builder();
+    String docText = "longword short";
+    builder.reset(0, docText.length(), docText.length());
+    builder.addDocumentText(docText, 0, 8, false, false, false);
+    builder.addSpace();
+    builder.addDocumentText(docText, 9, 14, false, false, false);
+    assertEquals("longword short", builder.build().getTextString());
+    builder.reset(9, 14, 5);
+    builder.addDocumentText(docText, 9, 14, true, false, false);
+    TextChunk chunk = builder.build();
+    assertTrue(builder.getCapacity() > chunk.getLength());
+    assertEquals(5, chunk.getLength());
+    assertEquals("SHORT", chunk.getTextString());
+    assertEquals("SHORT", chunk.getText().toString());
+    assertEquals("SHORT", chunk.getTextForMatching());
+    assertEquals(5, chunk.getText().length());
+    assertEquals("HOR", chunk.getTextString(1, 3));
+  }
+
+}